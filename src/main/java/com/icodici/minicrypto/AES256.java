@@ -82,4 +82,12 @@ public class AES256 implements BlockCipher {
             return buf;
         }
     }
+
+    @Override
+    public void transformBlock(byte[] source, int sourceOffset, byte[] target, int targetOffset)
+            throws EncryptionError {
+        if (!initialized())
+            throw new EncryptionError("Not initialized with proper key");
+        aesEngine.processBlock(source, sourceOffset, target, targetOffset);
+    }
 }
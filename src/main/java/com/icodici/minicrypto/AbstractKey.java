@@ -67,6 +67,57 @@ public abstract class AbstractKey implements KeyMatcher {
         }
     }
 
+    /**
+     * Sign the message hash instead of the message (hash-then-sign). The hash could be calculated elsewhere, e.g.
+     * while the data are being received, or on another node, so only the RSA operation needs the key. The signature
+     * is the same as created by {@link #sign(byte[], HashType)} from the message and is checked the same way.
+     *
+     * @param digest   message hash, calculated with the same algorithm as hashType ({@link HashType#makeDigest()})
+     * @param hashType hash algorithm used
+     *
+     * @return signature
+     * @throws EncryptionError if the digest size does not match the hash type or signing failed
+     */
+    public byte[] signDigest(byte[] digest, HashType hashType) throws EncryptionError {
+        throw new UnsupportedOperationException("this key can't sign");
+    }
+
+    /**
+     * Sign the calculated digest, see {@link #signDigest(byte[], HashType)}.
+     *
+     * @param digest   digest fed with the message
+     * @param hashType hash algorithm used by the digest
+     */
+    public byte[] signDigest(Digest digest, HashType hashType) throws EncryptionError {
+        return signDigest(digest.digest(), hashType);
+    }
+
+    /**
+     * Check the signature of the message having only the message hash. Signatures created either from the message
+     * or from its hash could be checked this way.
+     *
+     * @param digest    message hash, calculated with the same algorithm as hashType ({@link HashType#makeDigest()})
+     * @param signature to check
+     * @param hashType  hash algorithm used
+     *
+     * @return true if the signature is valid
+     * @throws EncryptionError if the digest size does not match the hash type
+     */
+    public boolean verifyDigest(byte[] digest, byte[] signature, HashType hashType) throws EncryptionError {
+        throw new UnsupportedOperationException("this key can not verify signatures");
+    }
+
+    /**
+     * Check the signature with the calculated digest, see {@link #verifyDigest(byte[], byte[], HashType)}.
+     *
+     * @param digest    digest fed with the message
+     * @param signature to check
+     * @param hashType  hash algorithm used by the digest
+     */
+    public boolean verifyDigest(Digest digest, byte[] signature, HashType hashType) throws EncryptionError {
+        return verifyDigest(digest.digest(), signature, hashType);
+    }
+
     static Charset utf8 = Charset.forName("utf-8");
 
     public boolean verify(String input, byte[] signature, HashType hashType) throws
@@ -12,6 +12,9 @@ import com.icodici.minicrypto.tools.Hashable;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 /**
  * Generic private key interface.
@@ -95,6 +98,45 @@ public abstract class AbstractPrivateKey extends AbstractAsymmetricKey implement
         return sign(input, hashType, null);
     }
 
+    /**
+     * Sign the remaining bytes of the buffer; its position is moved to the limit. This implementation copies the
+     * data and signs it as a stream, implementations should override it to sign without copying.
+     *
+     * @param data document to sign
+     * @param salt salt to use; may be null, then it is generated automatically with the maximum possible size.
+     * @return digital signature of the document
+     * @throws IOException if the document can't be signed
+     */
+    public byte[] sign(ByteBuffer data, HashType hashType, byte[] salt) throws IOException {
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return sign(new ByteArrayInputStream(bytes), hashType, salt);
+    }
+
+    /**
+     * Sign the file from the current channel position to the end; the position is moved to the end. This
+     * implementation reads the channel as a stream, implementations could override it to map the file into memory.
+     *
+     * @param channel file to sign
+     * @param salt salt to use; may be null, then it is generated automatically with the maximum possible size.
+     * @return digital signature of the file
+     * @throws IOException if the file can't be read
+     */
+    public byte[] sign(FileChannel channel, HashType hashType, byte[] salt) throws IOException {
+        return sign(Channels.newInputStream(channel), hashType, salt);
+    }
+
+    /**
+     * Sign the file from the current channel position to the end, see {@link #sign(FileChannel, HashType, byte[])}.
+     *
+     * @param channel file to sign
+     * @return digital signature of the file
+     * @throws IOException if the file can't be read
+     */
+    public byte[] sign(FileChannel channel, HashType hashType) throws IOException {
+        return sign(channel, hashType, null);
+    }
+
     /**
      * Digitally sign data in array.
      *
@@ -104,7 +146,7 @@ public abstract class AbstractPrivateKey extends AbstractAsymmetricKey implement
      */
     public byte[] sign(byte[] data, HashType hashType, byte[] salt) {
         try {
-            return sign(new ByteArrayInputStream((data)), hashType, salt);
+            return sign(ByteBuffer.wrap(data), hashType, salt);
         } catch (IOException e) {
             throw new RuntimeException("Failed to sign", e);
         }
@@ -118,7 +160,7 @@ public abstract class AbstractPrivateKey extends AbstractAsymmetricKey implement
      */
     public byte[] sign(byte[] data, HashType hashType) {
         try {
-            return sign(new ByteArrayInputStream((data)), hashType);
+            return sign(ByteBuffer.wrap(data), hashType, null);
         } catch (IOException e) {
             throw new RuntimeException("Failed to sign", e);
         }
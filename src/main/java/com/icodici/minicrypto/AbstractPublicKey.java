@@ -12,6 +12,9 @@ import com.icodici.minicrypto.tools.Hashable;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
 /**
  * Generic public key interface.
@@ -93,6 +96,54 @@ public abstract class AbstractPublicKey extends AbstractAsymmetricKey implements
         return checkSignature(input, signature, hashType, MAX_SALT_LENGTH);
     }
 
+    /**
+     * Check the digital signature of the remaining bytes of the buffer; its position is moved to the limit. This
+     * implementation copies the data and checks it as a stream, implementations should override it to avoid
+     * copying.
+     *
+     * @param data      source data
+     * @param signature signature to check
+     *
+     * @return true if the signature is valid, false if not.
+     * @throws IOException if the data can't be processed
+     */
+    public boolean checkSignature(ByteBuffer data, byte[] signature, HashType hashType, int saltLength)
+            throws IOException, IllegalStateException {
+        final byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return checkSignature(new ByteArrayInputStream(bytes), signature, hashType, saltLength);
+    }
+
+    /**
+     * Check the digital signature of the file from the current channel position to the end; the position is moved
+     * to the end. This implementation reads the channel as a stream, implementations could override it to map the
+     * file into memory.
+     *
+     * @param channel   source file
+     * @param signature signature to check
+     *
+     * @return true if the signature is valid, false if not.
+     * @throws IOException failed to read the file
+     */
+    public boolean checkSignature(FileChannel channel, byte[] signature, HashType hashType, int saltLength)
+            throws IOException, IllegalStateException {
+        return checkSignature(Channels.newInputStream(channel), signature, hashType, saltLength);
+    }
+
+    /**
+     * Check the digital signature of the file, see {@link #checkSignature(FileChannel, byte[], HashType, int)}.
+     *
+     * @param channel   source file
+     * @param signature signature to check
+     *
+     * @return true if the signature is valid, false if not.
+     * @throws IOException failed to read the file
+     */
+    public boolean checkSignature(FileChannel channel, byte[] signature, HashType hashType)
+            throws IOException, IllegalStateException {
+        return checkSignature(channel, signature, hashType, MAX_SALT_LENGTH);
+    }
+
 
     /**
      * Any encryption type has an unique tag. For RSAES-OAEP the tag is r1. For elliptic curve
@@ -111,7 +162,7 @@ public abstract class AbstractPublicKey extends AbstractAsymmetricKey implements
      */
     public boolean checkSignature(byte[] input, byte[] signature, HashType hashType, int saltLength) {
         try {
-            return checkSignature(new ByteArrayInputStream(input), signature, hashType, saltLength);
+            return checkSignature(ByteBuffer.wrap(input), signature, hashType, saltLength);
         } catch (IOException e) {
             return false;
         }
@@ -125,7 +176,7 @@ public abstract class AbstractPublicKey extends AbstractAsymmetricKey implements
      */
     public boolean checkSignature(byte[] input, byte[] signature, HashType hashType) {
         try {
-            return checkSignature(new ByteArrayInputStream(input), signature, hashType, MAX_SALT_LENGTH);
+            return checkSignature(ByteBuffer.wrap(input), signature, hashType, MAX_SALT_LENGTH);
         } catch (IOException e) {
             return false;
         }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import org.spongycastle.crypto.Digest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipelined signer for many documents with one {@link PrivateKey}. Signing is split in two stages: payloads are
+ * hashed on the hashing executor, then the RSA (CRT exponentiation) part runs on the pool of RSA workers, so hashing
+ * of next payloads overlaps with signing of the previous ones and all cores could be busy.
+ * <p>
+ * Signatures are the same as produced by {@link PrivateKey#sign(byte[], HashType)}; results of {@link
+ * #signAll(List, HashType)} go in the order of payloads. Close the signer to stop its own RSA workers.
+ */
+public class BatchSigner implements AutoCloseable {
+
+    private final PrivateKey key;
+    private final Executor hashExecutor;
+    private final Executor rsaExecutor;
+    private final ExecutorService ownExecutor;
+
+    /**
+     * Create signer that hashes on {@link ForkJoinPool#commonPool()} and runs RSA on its own pool of worker threads,
+     * one per processor.
+     *
+     * @param key to sign with
+     */
+    public BatchSigner(PrivateKey key) {
+        this(key, ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create signer that hashes on the given executor and runs RSA on its own pool of worker threads.
+     *
+     * @param key          to sign with
+     * @param hashExecutor executor to calculate payload hashes on
+     * @param rsaWorkers   number of RSA worker threads
+     */
+    public BatchSigner(PrivateKey key, Executor hashExecutor, int rsaWorkers) {
+        this.key = key;
+        this.hashExecutor = hashExecutor;
+        final AtomicInteger counter = new AtomicInteger();
+        this.ownExecutor = Executors.newFixedThreadPool(rsaWorkers, r -> {
+            final Thread t = new Thread(r, "batch-signer-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.rsaExecutor = ownExecutor;
+    }
+
+    /**
+     * Create signer that uses given executors for both stages. The executors are not shut down by {@link #close()}.
+     *
+     * @param key          to sign with
+     * @param hashExecutor executor to calculate payload hashes on
+     * @param rsaExecutor  executor to perform RSA operations on
+     */
+    public BatchSigner(PrivateKey key, Executor hashExecutor, Executor rsaExecutor) {
+        this.key = key;
+        this.hashExecutor = hashExecutor;
+        this.rsaExecutor = rsaExecutor;
+        this.ownExecutor = null;
+    }
+
+    /**
+     * Sign the payload asynchronously.
+     *
+     * @param payload  to sign
+     * @param hashType hash to use
+     *
+     * @return future signature; it fails with {@link EncryptionError} if signing is not possible
+     */
+    public CompletableFuture<byte[]> sign(byte[] payload, HashType hashType) {
+        return CompletableFuture
+                .supplyAsync(() -> hash(payload, hashType), hashExecutor)
+                .thenApplyAsync(digest -> {
+                    try {
+                        return key.signDigest(digest, hashType);
+                    } catch (EncryptionError e) {
+                        throw new CompletionException(e);
+                    }
+                }, rsaExecutor);
+    }
+
+    /**
+     * Sign all the payloads asynchronously.
+     *
+     * @param payloads to sign
+     * @param hashType hash to use
+     *
+     * @return future signatures in the same order as payloads
+     */
+    public List<CompletableFuture<byte[]>> signAll(List<byte[]> payloads, HashType hashType) {
+        final List<CompletableFuture<byte[]>> results = new ArrayList<>(payloads.size());
+        for (byte[] payload : payloads)
+            results.add(sign(payload, hashType));
+        return results;
+    }
+
+    /**
+     * Stop own RSA workers, if any. Already submitted payloads are signed.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null)
+            ownExecutor.shutdown();
+    }
+
+    private static byte[] hash(byte[] payload, HashType hashType) {
+        final Digest digest = hashType.makeDigest();
+        digest.update(payload, 0, payload.length);
+        final byte[] result = new byte[digest.getDigestSize()];
+        digest.doFinal(result, 0);
+        return result;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import com.icodici.minicrypto.utils.Bytes;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies many signatures at once. Jobs are grouped by the key, so all signatures of the same key are checked with
+ * the single key instance and reuse its initialized verifiers; groups are split into chunks that are hashed and
+ * verified in parallel on the executor, while the calling thread also takes part in the work.
+ * <p>
+ * Instances are thread safe and accumulate throughput metrics over all batches they have processed.
+ */
+public class BatchVerifier {
+
+    /**
+     * Single signature verification request.
+     */
+    public static class Job {
+        private final AbstractKey key;
+        private final byte[] data;
+        private final byte[] signature;
+        private final HashType hashType;
+
+        /**
+         * @param key       public key (or private key to take the public one from) to check the signature with
+         * @param data      signed data
+         * @param signature signature to check
+         * @param hashType  hash type used to sign
+         */
+        public Job(AbstractKey key, byte[] data, byte[] signature, HashType hashType) {
+            this.key = key;
+            this.data = data;
+            this.signature = signature;
+            this.hashType = hashType;
+        }
+
+        public AbstractKey getKey() {
+            return key;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public byte[] getSignature() {
+            return signature;
+        }
+
+        public HashType getHashType() {
+            return hashType;
+        }
+    }
+
+    /**
+     * Maximum number of jobs processed by a single task.
+     */
+    static final int CHUNK_SIZE = 16;
+
+    private final Executor executor;
+    private final int parallelism;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * Create verifier that uses {@link ForkJoinPool#commonPool()}.
+     */
+    public BatchVerifier() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Create verifier running on the given executor.
+     *
+     * @param executor    to run verification tasks on
+     * @param parallelism maximum number of tasks submitted to the executor at once
+     */
+    public BatchVerifier(Executor executor, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Verify all the jobs. Jobs that could not be verified for any reason (bad key, broken signature, unsupported
+     * key type) are reported as failed.
+     *
+     * @param jobs to verify
+     *
+     * @return bitset where bit i is set if the i-th job (in iteration order) has valid signature
+     */
+    public BitSet verify(Collection<Job> jobs) {
+        final long started = System.nanoTime();
+        final Job[] all = jobs.toArray(new Job[jobs.size()]);
+        final boolean[] results = new boolean[all.length];
+
+        // group by key, so the same key instance (and its verifiers) serves all its signatures
+        final Map<Bytes, AbstractKey> keys = new HashMap<>();
+        final Map<AbstractKey, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < all.length; i++) {
+            AbstractKey key;
+            try {
+                key = all[i].key;
+                if (key instanceof PrivateKey)
+                    key = key.getPublicKey();
+                final AbstractKey k = key;
+                key = keys.computeIfAbsent(new Bytes(k.fingerprint()), x -> k);
+            } catch (Exception e) {
+                // no key or no fingerprint: the job is failed, the rest of the batch goes on
+                continue;
+            }
+            groups.computeIfAbsent(key, x -> new ArrayList<>()).add(i);
+        }
+
+        final ConcurrentLinkedQueue<Chunk> queue = new ConcurrentLinkedQueue<>();
+        for (Map.Entry<AbstractKey, List<Integer>> e : groups.entrySet()) {
+            final List<Integer> indexes = e.getValue();
+            for (int from = 0; from < indexes.size(); from += CHUNK_SIZE)
+                queue.add(new Chunk(e.getKey(),
+                        indexes.subList(from, Math.min(indexes.size(), from + CHUNK_SIZE))));
+        }
+
+        final CountDownLatch done = new CountDownLatch(queue.size());
+        final Runnable worker = () -> {
+            Chunk chunk;
+            while ((chunk = queue.poll()) != null) {
+                try {
+                    chunk.run(all, results);
+                } finally {
+                    // even on Error, so the caller never waits for the chunk that is gone
+                    done.countDown();
+                }
+            }
+        };
+        final int helpers = Math.min(parallelism, queue.size()) - 1;
+        for (int i = 0; i < helpers; i++)
+            executor.execute(worker);
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("batch verification interrupted", e);
+        }
+
+        final BitSet result = new BitSet(all.length);
+        long totalBytes = 0;
+        int ok = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (results[i]) {
+                result.set(i);
+                ok++;
+            }
+            if (all[i] != null && all[i].data != null)
+                totalBytes += all[i].data.length;
+        }
+        batches.incrementAndGet();
+        verified.addAndGet(ok);
+        failed.addAndGet(all.length - ok);
+        bytes.addAndGet(totalBytes);
+        nanos.addAndGet(System.nanoTime() - started);
+        return result;
+    }
+
+    /**
+     * @return number of batches processed
+     */
+    public long getBatchesCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return number of valid signatures found
+     */
+    public long getVerifiedCount() {
+        return verified.get();
+    }
+
+    /**
+     * @return number of invalid or unverifiable signatures found
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return total size of the verified data, bytes
+     */
+    public long getBytesProcessed() {
+        return bytes.get();
+    }
+
+    /**
+     * @return total wall time spent in {@link #verify(Collection)}, nanoseconds
+     */
+    public long getTotalNanos() {
+        return nanos.get();
+    }
+
+    /**
+     * @return average throughput, signatures per second, or 0 if nothing was verified yet
+     */
+    public double getSignaturesPerSecond() {
+        final long n = nanos.get();
+        return n == 0 ? 0 : (verified.get() + failed.get()) * 1e9 / n;
+    }
+
+    /**
+     * Part of the key group processed by one task.
+     */
+    private static class Chunk {
+        private final AbstractKey key;
+        private final List<Integer> indexes;
+
+        Chunk(AbstractKey key, List<Integer> indexes) {
+            this.key = key;
+            this.indexes = indexes;
+        }
+
+        void run(Job[] jobs, boolean[] results) {
+            for (int i : indexes) {
+                final Job job = jobs[i];
+                try {
+                    results[i] = key.verify(job.data, job.signature, job.hashType);
+                } catch (Exception e) {
+                    results[i] = false;
+                }
+            }
+        }
+    }
+}
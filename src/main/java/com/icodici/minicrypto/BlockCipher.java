@@ -7,6 +7,8 @@
 
 package com.icodici.minicrypto;
 
+import java.util.Arrays;
+
 /**
  * Interface to all block ciphers
  * <p>
@@ -47,4 +49,29 @@ public interface BlockCipher {
      *         if key or block has wrong size
      */
     byte[] transformBlock(byte[] block) throws EncryptionError;
+
+    /**
+     * Encrypt/decrypt a block from the source array and put the result into the target array. Default
+     * implementation calls {@link #transformBlock(byte[])}, ciphers should override it to process blocks without
+     * allocations.
+     *
+     * @param source
+     *         array with the source block
+     * @param sourceOffset
+     *         index of the block in the source array
+     * @param target
+     *         array to put transformed block to
+     * @param targetOffset
+     *         index in the target array
+     *
+     * @throws EncryptionError
+     *         if key or block has wrong size
+     */
+    default void transformBlock(byte[] source, int sourceOffset, byte[] target, int targetOffset)
+            throws EncryptionError {
+        int size = getBlockSize();
+        byte[] block = sourceOffset == 0 && source.length == size ?
+                source : Arrays.copyOfRange(source, sourceOffset, sourceOffset + size);
+        System.arraycopy(transformBlock(block), 0, target, targetOffset, size);
+    }
 }
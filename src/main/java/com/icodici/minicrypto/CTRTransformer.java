@@ -7,6 +7,8 @@
 
 package com.icodici.minicrypto;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
@@ -16,14 +18,20 @@ import java.security.SecureRandom;
  * Created by net.sergeych on 14.12.16.
  */
 class CTRTransformer {
+    /**
+     * How many cipher blocks of the keystream are generated at once when data are transformed in bulk.
+     */
+    static private final int KEYSTREAM_BLOCKS = 64;
+
     static private final SecureRandom rng;
     private final BlockCipher cipher;
     private final byte[] nonce;
     private int counter;
     private int index = 0;
+    private int available = 0;
     private final int blockSize;
-    private byte[] source;
-    private final byte[] counterBytes;
+    private final byte[] source;
+    private final byte[] keystream;
 
     static public byte[] randomBytes(int length) {
         byte[] bytes = new byte[length];
@@ -63,48 +71,81 @@ class CTRTransformer {
      * @throws EncryptionError
      */
     public CTRTransformer(BlockCipher cipher, byte[] iv) throws EncryptionError {
+        this(cipher, iv, 0);
+    }
+
+    /**
+     * Create CTR transformer positioned at the specified offset of the keystream. As each keystream block depends
+     * only on the IV and the block index, it lets process any part of the data independently, for example, in
+     * parallel.
+     *
+     * @param cipher
+     *         properly initialized cipher, see {@link #CTRTransformer(BlockCipher, byte[])}
+     * @param iv
+     *         null to generate new random IV, or the IV used with the data
+     * @param offset
+     *         position in the data (not counting the IV) of the first byte to transform
+     *
+     * @throws EncryptionError
+     */
+    public CTRTransformer(BlockCipher cipher, byte[] iv, long offset) throws EncryptionError {
         this.cipher = cipher;
         blockSize = cipher.getBlockSize();
         nonce = iv == null ? randomBytes(blockSize) : iv;
 
-        counter = 0;
         source = new byte[blockSize];
-        counterBytes = new byte[4];
+        keystream = new byte[blockSize * KEYSTREAM_BLOCKS];
 
-        prepareBlock();
+        seek(offset);
     }
 
-    private void prepareBlock() throws EncryptionError {
-        System.arraycopy(nonce, 0, source, 0, blockSize);
-        counterBytes[0] = (byte) (counter >> 24);
-        counterBytes[1] = (byte) (counter >> 16);
-        counterBytes[2] = (byte) (counter >> 8);
-        counterBytes[3] = (byte) counter;
-        applyXor(source, blockSize - 4, counterBytes);
+    /**
+     * Move to the specified position of the keystream, so the next transformed byte will be processed as if it
+     * were at this offset in the data.
+     *
+     * @param offset
+     *         position in the data (not counting the IV), must not be negative
+     *
+     * @throws EncryptionError
+     */
+    public void seek(long offset) throws EncryptionError {
+        if (offset < 0)
+            throw new IllegalArgumentException("offset can't be negative");
+        counter = (int) (offset / blockSize);
+        prepareKeystream(1);
+        index = (int) (offset % blockSize);
+    }
+
+    /**
+     * Generate next blocks of the keystream into the reusable buffer, locking the cipher only once for the whole
+     * batch.
+     *
+     * @param blocks number of blocks to generate, up to {@link #KEYSTREAM_BLOCKS}
+     *
+     * @throws EncryptionError
+     */
+    private void prepareKeystream(int blocks) throws EncryptionError {
         synchronized (cipher) {
-            source = cipher.transformBlock(source);
+            for (int i = 0, offset = 0; i < blocks; i++, offset += blockSize) {
+                System.arraycopy(nonce, 0, source, 0, blockSize);
+                source[blockSize - 4] ^= (byte) (counter >> 24);
+                source[blockSize - 3] ^= (byte) (counter >> 16);
+                source[blockSize - 2] ^= (byte) (counter >> 8);
+                source[blockSize - 1] ^= (byte) counter;
+                cipher.transformBlock(source, 0, keystream, offset);
+                counter++;
+            }
         }
-        counter++;
         index = 0;
+        available = blocks * blockSize;
     }
 
     private byte nextByte() throws EncryptionError {
-        if (index >= blockSize)
-            prepareBlock();
-        return source[index++];
+        if (index >= available)
+            prepareKeystream(1);
+        return keystream[index++];
     }
 
-
-//    /**
-//     * Transforms in place data block
-//     * @param source
-//     * @throws EncryptionError
-//     */
-//    public void transform(byte[] source, int offset, int length) throws EncryptionError {
-//        for (int i = 0; i < source.length; i++)
-//            source[i] ^= nextByte();
-//    }
-
     /**
      * Transform next byte
      * @param source
@@ -115,6 +156,80 @@ class CTRTransformer {
         return (source ^ nextByte()) & 0xFF;
     }
 
+    /**
+     * Transform data in place.
+     *
+     * @param data   buffer with data to transform
+     * @param offset index of the first byte to transform
+     * @param length number of bytes to transform
+     *
+     * @throws EncryptionError
+     */
+    public void transform(byte[] data, int offset, int length) throws EncryptionError {
+        transform(data, offset, length, data, offset);
+    }
+
+    /**
+     * Transform a sequence of bytes, generating the keystream many blocks at a time. The result is the same as
+     * calling {@link #transformByte(int)} for each byte, and both methods could be freely mixed. Source and target
+     * could be the same array, to transform data in place.
+     *
+     * @param source       data to transform
+     * @param offset       index of the first byte in the source
+     * @param length       number of bytes to transform
+     * @param target       where to put transformed data
+     * @param targetOffset index in the target to put the first transformed byte to
+     *
+     * @throws EncryptionError
+     */
+    public void transform(byte[] source, int offset, int length, byte[] target, int targetOffset)
+            throws EncryptionError {
+        if (offset < 0 || length < 0 || length > source.length - offset ||
+                targetOffset < 0 || length > target.length - targetOffset)
+            throw new IndexOutOfBoundsException();
+        while (length > 0) {
+            if (index >= available)
+                prepareKeystream(Math.min(KEYSTREAM_BLOCKS, (length + blockSize - 1) / blockSize));
+            int chunk = Math.min(length, available - index);
+            // simple indexed loop is what JIT vectorizes best
+            for (int i = 0; i < chunk; i++)
+                target[targetOffset + i] = (byte) (source[offset + i] ^ keystream[index + i]);
+            index += chunk;
+            offset += chunk;
+            targetOffset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Transform all remaining bytes of the source buffer to the target buffer, advancing positions of both. Works
+     * with heap and direct buffers.
+     *
+     * @param source data to transform
+     * @param target where to put the result, must have at least source.remaining() bytes free
+     *
+     * @throws EncryptionError
+     */
+    public void transform(ByteBuffer source, ByteBuffer target) throws EncryptionError {
+        int length = source.remaining();
+        if (target.remaining() < length)
+            throw new BufferOverflowException();
+        if (source.hasArray() && target.hasArray() && !target.isReadOnly()) {
+            transform(source.array(), source.arrayOffset() + source.position(), length,
+                      target.array(), target.arrayOffset() + target.position());
+            source.position(source.position() + length);
+            target.position(target.position() + length);
+        } else {
+            byte[] buffer = new byte[Math.min(length, keystream.length)];
+            while (source.hasRemaining()) {
+                int chunk = Math.min(source.remaining(), buffer.length);
+                source.get(buffer, 0, chunk);
+                transform(buffer, 0, chunk);
+                target.put(buffer, 0, chunk);
+            }
+        }
+    }
+
     static public void applyXor(byte[] source, int offset, byte[] mask) {
         int end = offset + mask.length;
         if (end > source.length)
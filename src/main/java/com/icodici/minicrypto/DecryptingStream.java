@@ -7,11 +7,9 @@
 
 package com.icodici.minicrypto;
 
-import com.icodici.minicrypto.tools.Do;
-
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
  * Counter-mode decryptor stream working with any {@link BlockCipher}, {@link AES256} is
@@ -47,23 +45,32 @@ public class DecryptingStream extends InputStream {
         }
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = inputStream.read(b, off, len);
+        if (count > 0) {
+            try {
+                transformer.transform(b, off, count);
+            } catch (EncryptionError encryptionError) {
+                throw new IOException("decryption failed", encryptionError);
+            }
+        }
+        return count;
+    }
+
     static public byte[] decrypt(Class<? extends BlockCipher> cipherClass, byte[] key, byte[]
             encryptedData) throws EncryptionError {
-        ByteArrayInputStream bis = new ByteArrayInputStream(encryptedData);
-        try {
-            return Do.read(new DecryptingStream(cipherClass, key, bis));
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOException", e);
-        }
+        return decrypt(CTRTransformer.makeCipher(cipherClass, key), encryptedData);
     }
 
     static public byte[] decrypt(BlockCipher cipher, byte[]
             encryptedData) throws EncryptionError {
-        ByteArrayInputStream bis = new ByteArrayInputStream(encryptedData);
-        try {
-        return Do.read(new DecryptingStream(cipher, bis));
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOException", e);
-        }
+        int blockSize = cipher.getBlockSize();
+        if (encryptedData.length <= blockSize)
+            return new byte[0];
+        byte[] iv = Arrays.copyOf(encryptedData, blockSize);
+        byte[] result = new byte[encryptedData.length - blockSize];
+        new CTRTransformer(cipher, iv).transform(encryptedData, blockSize, result.length, result, 0);
+        return result;
     }
 }
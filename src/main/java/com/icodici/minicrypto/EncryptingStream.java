@@ -7,7 +7,6 @@
 
 package com.icodici.minicrypto;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -18,8 +17,11 @@ import java.io.OutputStream;
  * Created by net.sergeych on 15.12.16.
  */
 public class EncryptingStream extends OutputStream {
+    static final int BUFFER_SIZE = 8192;
+
     private final CTRTransformer transformer;
     private final OutputStream outputStream;
+    private byte[] buffer;
 
     public EncryptingStream(Class<? extends BlockCipher> cipherClass, byte[] key, OutputStream
             outputStream) throws EncryptionError, IOException {
@@ -42,25 +44,37 @@ public class EncryptingStream extends OutputStream {
         }
     }
 
-    static byte[] encrypt(Class<? extends BlockCipher> cipherClass, byte[] key, byte[] source)
-            throws EncryptionError {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (buffer == null || buffer.length < Math.min(len, BUFFER_SIZE))
+            buffer = new byte[Math.min(len, BUFFER_SIZE)];
         try {
-            new EncryptingStream(cipherClass, key, bos).write(source);
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOException", e);
+            while (len > 0) {
+                int chunk = Math.min(len, buffer.length);
+                transformer.transform(b, off, chunk, buffer, 0);
+                outputStream.write(buffer, 0, chunk);
+                off += chunk;
+                len -= chunk;
+            }
+        } catch (EncryptionError encryptionError) {
+            throw new RuntimeException("can't encrypt data", encryptionError);
         }
-        return bos.toByteArray();
+    }
+
+    static byte[] encrypt(Class<? extends BlockCipher> cipherClass, byte[] key, byte[] source)
+            throws EncryptionError {
+        return encrypt(CTRTransformer.makeCipher(cipherClass, key), source);
     }
 
     static byte[] encrypt(BlockCipher cipher, byte[] source)
             throws EncryptionError {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try {
-            new EncryptingStream(cipher, bos).write(source);
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOException", e);
-        }
-        return bos.toByteArray();
+        CTRTransformer transformer = new CTRTransformer(cipher, null);
+        byte[] iv = transformer.getIV();
+        byte[] result = new byte[iv.length + source.length];
+        System.arraycopy(iv, 0, result, 0, iv.length);
+        transformer.transform(source, 0, source.length, result, iv.length);
+        return result;
     }
 }
@@ -7,28 +7,101 @@
 
 package com.icodici.minicrypto;
 
+import com.icodici.minicrypto.digest.MultiDigest;
+import com.icodici.minicrypto.digest.Sha256;
 import com.icodici.minicrypto.digest.Sha3_384;
 import com.icodici.minicrypto.digest.Sha512;
 import com.icodici.minicrypto.boss.Boss;
 import com.icodici.minicrypto.utils.Bytes;
+import org.threeten.bp.DateTimeUtils;
+import org.threeten.bp.ZoneId;
 import org.threeten.bp.ZonedDateTime;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 
 public class ExtendedSignature {
 
+    /**
+     * Maximum number of verified envelopes to keep in {@link #verifiedEnvelopes}.
+     */
+    static final int MAX_CACHED_ENVELOPES = 1024;
+
+    /**
+     * Already verified signature envelopes, keyed by hash of the signature and fingerprint of the key it was checked
+     * with. Lets repeated verification of the same signature skip the Boss decoding and RSA checks; data hashes are
+     * always checked.
+     */
+    private static final Map<Bytes, Envelope> verifiedEnvelopes =
+            new LinkedHashMap<Bytes, Envelope>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Bytes, Envelope> eldest) {
+                    return size() > MAX_CACHED_ENVELOPES;
+                }
+            };
+
+    private Bytes keyId;
+    private ZonedDateTime createdAt;
+    private PublicKey publicKey;
+    private byte[] signature;
+
+    /**
+     * @return id of the key that has created the signature, see {@link #keyId(AbstractKey)}
+     */
+    public Bytes getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * @return signature creation time
+     */
+    public ZonedDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return public key stored in the signature, or null if it was not saved
+     */
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * @return the packed signature
+     */
+    public byte[] getSignature() {
+        return signature;
+    }
+
     static public Bytes keyId(AbstractKey key) {
         if (key instanceof PrivateKey)
             return new Bytes(key.getPublicKey().fingerprint());
         return new Bytes(key.fingerprint());
     }
     static public byte[] createTargetSignature(PublicKey publicKey, byte[] data, boolean savePublicKey) {
+        return createTargetSignature(publicKey, dataHashes().update(data).digests(), savePublicKey);
+    }
+
+    /**
+     * Same as {@link #createTargetSignature(PublicKey, byte[], boolean)} but reads the data from the stream, in one
+     * pass. Does not close the stream.
+     */
+    static public byte[] createTargetSignature(PublicKey publicKey, InputStream data, boolean savePublicKey)
+            throws IOException {
+        return createTargetSignature(publicKey, dataHashes().update(data).digests(), savePublicKey);
+    }
+
+    private static byte[] createTargetSignature(PublicKey publicKey, byte[][] hashes, boolean savePublicKey) {
         Map<String,Object> targetSignatureBinder = new HashMap();
         targetSignatureBinder.put("key", keyId(publicKey));
-        targetSignatureBinder.put("sha512", new Sha512().digest(data));
-        targetSignatureBinder.put("sha3_384", new Sha3_384().digest(data));
+        targetSignatureBinder.put("sha512", hashes[0]);
+        targetSignatureBinder.put("sha3_384", hashes[1]);
         targetSignatureBinder.put("created_at", ZonedDateTime.now());
         if (savePublicKey)
             targetSignatureBinder.put("pub_key", publicKey.pack());
@@ -45,9 +118,25 @@ public class ExtendedSignature {
      * @return binary signature
      */
     static public byte[] sign(PrivateKey key, byte[] data, boolean savePublicKey) {
-        try {
-            byte[] targetSignature = ExtendedSignature.createTargetSignature(key.getPublicKey(),data,savePublicKey);
+        return signTarget(key, ExtendedSignature.createTargetSignature(key.getPublicKey(),data,savePublicKey));
+    }
+
+    /**
+     * Sign the data read from the stream with a given key. The data are read once, and both digests are calculated
+     * at the same pass. Does not close the stream.
+     *
+     * @param key is {@link PrivateKey} to sign with.
+     * @param data stream with the data to be sign with key.
+     * @param savePublicKey if true key will stored in the {@link ExtendedSignature}.
+     *
+     * @return binary signature
+     */
+    static public byte[] sign(PrivateKey key, InputStream data, boolean savePublicKey) throws IOException {
+        return signTarget(key, ExtendedSignature.createTargetSignature(key.getPublicKey(),data,savePublicKey));
+    }
 
+    private static byte[] signTarget(PrivateKey key, byte[] targetSignature) {
+        try {
             return ExtendedSignature.of(targetSignature,
                     key.sign(targetSignature, HashType.SHA512),
                     key.sign(targetSignature, HashType.SHA3_384));
@@ -65,4 +154,186 @@ public class ExtendedSignature {
 
         return Boss.pack(result);
     }
+
+    /**
+     * Check the extended signature of the data with a given key.
+     *
+     * @param key       to check the signature with
+     * @param signature packed extended signature, as returned by {@link #sign(PrivateKey, byte[], boolean)}
+     * @param data      signed data
+     *
+     * @return verified signature or null if it is not valid
+     */
+    static public ExtendedSignature verify(PublicKey key, byte[] signature, byte[] data) {
+        final Envelope envelope = verifiedEnvelope(key, signature);
+        if (envelope == null || !envelope.matches(dataHashes().update(data).digests()))
+            return null;
+        return envelope.toSignature(signature);
+    }
+
+    /**
+     * Check the extended signature of the data read from the stream with a given key. The stream is not read if the
+     * signature is not valid. Does not close the stream.
+     *
+     * @param key       to check the signature with
+     * @param signature packed extended signature
+     * @param data      stream with the signed data
+     *
+     * @return verified signature or null if it is not valid
+     */
+    static public ExtendedSignature verify(PublicKey key, byte[] signature, InputStream data) throws IOException {
+        final Envelope envelope = verifiedEnvelope(key, signature);
+        if (envelope == null || !envelope.matches(dataHashes().update(data).digests()))
+            return null;
+        return envelope.toSignature(signature);
+    }
+
+    /**
+     * @return multi digest calculating sha512 and sha3_384 of the data, in this order
+     */
+    private static MultiDigest dataHashes() {
+        return new MultiDigest(new Sha512(), new Sha3_384());
+    }
+
+    /**
+     * Check the extended signature of the data with the public key stored in the signature.
+     *
+     * @param signature packed extended signature, created with savePublicKey option
+     * @param data      signed data
+     *
+     * @return verified signature or null if it is not valid or has no public key
+     */
+    static public ExtendedSignature verify(byte[] signature, byte[] data) {
+        final PublicKey key = extractPublicKey(signature);
+        return key == null ? null : verify(key, signature, data);
+    }
+
+    /**
+     * Get the id of the key that has created the signature, without checking the signature.
+     *
+     * @param signature packed extended signature
+     *
+     * @return key id, see {@link #keyId(AbstractKey)}, or null if the signature is broken
+     */
+    static public Bytes extractKeyId(byte[] signature) {
+        final byte[] keyId = unverifiedExt(signature, "key");
+        return keyId == null ? null : new Bytes(keyId);
+    }
+
+    /**
+     * Get the public key stored in the signature, without checking the signature.
+     *
+     * @param signature packed extended signature
+     *
+     * @return public key or null if it was not saved or is broken
+     */
+    static public PublicKey extractPublicKey(byte[] signature) {
+        return unpackPublicKey(unverifiedExt(signature, "pub_key"));
+    }
+
+    /**
+     * Get the binary field of the "exts" part of the signature, without checking the signature.
+     *
+     * @return field value or null if it is missing or the signature is broken
+     */
+    private static byte[] unverifiedExt(byte[] signature, String name) {
+        try {
+            final Map<String, Object> exts = Boss.load(binary(Boss.<Map<String, Object>>load(signature).get("exts")));
+            return binary(exts.get(name));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static PublicKey unpackPublicKey(byte[] packedKey) {
+        if (packedKey == null)
+            return null;
+        try {
+            return new PublicKey(packedKey);
+        } catch (EncryptionError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the envelope of the signature checked with the key, from cache or by decoding and checking it.
+     *
+     * @return envelope or null if the signature is broken or not valid for the key
+     */
+    private static Envelope verifiedEnvelope(PublicKey key, byte[] signature) {
+        final Bytes cacheKey = new Bytes(new Sha256().digest(signature), key.fingerprint());
+        synchronized (verifiedEnvelopes) {
+            final Envelope cached = verifiedEnvelopes.get(cacheKey);
+            if (cached != null)
+                return cached;
+        }
+        final Envelope envelope;
+        try {
+            final Map<String, Object> src = Boss.load(signature);
+            final byte[] exts = binary(src.get("exts"));
+            final byte[] sign = binary(src.get("sign"));
+            final byte[] sign2 = binary(src.get("sign2"));
+            if (exts == null || sign == null)
+                return null;
+            if (!key.verify(exts, sign, HashType.SHA512))
+                return null;
+            if (sign2 != null && !key.verify(exts, sign2, HashType.SHA3_384))
+                return null;
+            envelope = new Envelope(Boss.load(exts));
+        } catch (EncryptionError | RuntimeException e) {
+            return null;
+        }
+        synchronized (verifiedEnvelopes) {
+            verifiedEnvelopes.put(cacheKey, envelope);
+        }
+        return envelope;
+    }
+
+    private static byte[] binary(Object x) {
+        if (x instanceof Bytes)
+            return ((Bytes) x).toArray();
+        return (byte[]) x;
+    }
+
+    /**
+     * Decoded target signature (the "exts" part) of the verified extended signature.
+     */
+    private static class Envelope {
+        final Bytes keyId;
+        final ZonedDateTime createdAt;
+        final PublicKey publicKey;
+        final byte[] sha512;
+        final byte[] sha3_384;
+
+        Envelope(Map<String, Object> exts) {
+            keyId = new Bytes(binary(exts.get("key")));
+            final Object created = exts.get("created_at");
+            createdAt = created instanceof Date ?
+                    ZonedDateTime.ofInstant(DateTimeUtils.toInstant((Date) created), ZoneId.systemDefault()) :
+                    (ZonedDateTime) created;
+            publicKey = unpackPublicKey(binary(exts.get("pub_key")));
+            sha512 = binary(exts.get("sha512"));
+            sha3_384 = binary(exts.get("sha3_384"));
+            if (sha512 == null)
+                throw new IllegalArgumentException("sha512 is missing");
+        }
+
+        /**
+         * Check data hashes.
+         *
+         * @param hashes sha512 and sha3_384 of the data, see {@link #dataHashes()}
+         */
+        boolean matches(byte[][] hashes) {
+            return Arrays.equals(sha512, hashes[0]) && (sha3_384 == null || Arrays.equals(sha3_384, hashes[1]));
+        }
+
+        ExtendedSignature toSignature(byte[] signature) {
+            final ExtendedSignature es = new ExtendedSignature();
+            es.keyId = keyId;
+            es.createdAt = createdAt;
+            es.signature = signature;
+            es.publicKey = publicKey;
+            return es;
+        }
+    }
 }
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import com.icodici.minicrypto.boss.Boss;
+import com.icodici.minicrypto.utils.Bytes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Pool of pregenerated RSA private keys. Generating a big RSA key takes seconds, so the pool generates keys of the
+ * configured sizes on low-priority background threads in advance and keeps up to <code>capacity</code> keys of each
+ * size ready to {@link #take(int)}. Workers always fill the size with the lowest fill level first and sleep while
+ * all inventories are full.
+ * <p>
+ * Failed generation attempts are counted (see {@link #getFailedCount()} and {@link #getLastFailure()}) and retried
+ * after a pause. If the last {@link #MAX_FAILURES} attempts for some size have all failed, or the pool is closed,
+ * taking a key of that size from the empty inventory throws {@link IllegalStateException} instead of waiting
+ * forever.
+ * <p>
+ * Pregenerated keys could be saved with {@link #save(Path, SymmetricKey)} on shutdown, encrypted, and loaded back
+ * with {@link #load(Path, SymmetricKey)} for the fast warm restart. Each key is given out only once: the pool forgets
+ * the keys it has taken, and loading removes the file.
+ * <p>
+ * The pool is thread safe.
+ */
+public class KeyGenerationPool implements AutoCloseable {
+
+    private static class Inventory {
+        final int bitStrength;
+        final BlockingQueue<PrivateKey> keys;
+        final int capacity;
+        /**
+         * Keys being generated now, counted to not generate more than capacity.
+         */
+        final AtomicInteger inProgress = new AtomicInteger();
+        /**
+         * Failed attempts since the last generated key.
+         */
+        final AtomicInteger failures = new AtomicInteger();
+
+        Inventory(int bitStrength, int capacity) {
+            this.bitStrength = bitStrength;
+            this.capacity = capacity;
+            this.keys = new ArrayBlockingQueue<>(capacity);
+        }
+
+        int reserved() {
+            return keys.size() + inProgress.get();
+        }
+    }
+
+    /**
+     * Smallest key size the pool generates; smaller RSA keys are not secure.
+     */
+    public static final int MIN_BIT_STRENGTH = 2048;
+
+    /**
+     * Number of consecutive failed attempts after which the size is considered broken.
+     */
+    public static final int MAX_FAILURES = 3;
+
+    /**
+     * Pause after the failed attempt, so the broken generator does not burn the CPU.
+     */
+    static final long FAILURE_PAUSE_MILLIS = 1000;
+
+    /**
+     * How often waiting threads check if the key still could appear.
+     */
+    private static final long CHECK_MILLIS = 100;
+
+    private final Map<Integer, Inventory> inventories = new TreeMap<>();
+    private final Thread[] workers;
+    private final IntFunction<PrivateKey> generator;
+    private final Object lock = new Object();
+    private volatile boolean closed;
+
+    private final AtomicLong generatedCount = new AtomicLong();
+    private final AtomicLong generationNanos = new AtomicLong();
+    private final AtomicLong takenCount = new AtomicLong();
+    private final AtomicLong missedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile Throwable lastFailure;
+
+    /**
+     * Create the pool with one background worker and start generating keys.
+     *
+     * @param capacity     maximum number of ready keys of each size
+     * @param bitStrengths key sizes to generate, e.g. 2048, 4096, not less than {@link #MIN_BIT_STRENGTH}
+     */
+    public KeyGenerationPool(int capacity, int... bitStrengths) {
+        this(capacity, bitStrengths, 1);
+    }
+
+    /**
+     * Create the pool and start generating keys.
+     *
+     * @param capacity     maximum number of ready keys of each size
+     * @param bitStrengths key sizes to generate, e.g. 2048, 4096, not less than {@link #MIN_BIT_STRENGTH}
+     * @param workers      number of background generating threads
+     */
+    public KeyGenerationPool(int capacity, int[] bitStrengths, int workers) {
+        this(capacity, bitStrengths, workers, PrivateKey::new);
+    }
+
+    /**
+     * Create the pool generating keys with the given function, e.g. to simulate failures.
+     */
+    KeyGenerationPool(int capacity, int[] bitStrengths, int workers, IntFunction<PrivateKey> generator) {
+        if (capacity < 1 || workers < 1 || bitStrengths.length == 0)
+            throw new IllegalArgumentException("bad key generation pool parameters");
+        for (int bits : bitStrengths) {
+            if (bits < MIN_BIT_STRENGTH)
+                throw new IllegalArgumentException("key size " + bits + " is less than " + MIN_BIT_STRENGTH);
+            inventories.put(bits, new Inventory(bits, capacity));
+        }
+        this.generator = generator;
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            final Thread t = new Thread(this::generateKeys, "key-generation-pool-" + (i + 1));
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            this.workers[i] = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Take the pregenerated key, waiting for it to be generated if the inventory is empty.
+     *
+     * @param bitStrength key size, one of configured
+     *
+     * @return new private key, never given out before
+     *
+     * @throws InterruptedException  if interrupted while waiting
+     * @throws IllegalStateException if the inventory is empty and will not be refilled: the pool is closed or keys of
+     *                               this size can't be generated
+     */
+    public PrivateKey take(int bitStrength) throws InterruptedException {
+        final Inventory inventory = inventory(bitStrength);
+        PrivateKey key = inventory.keys.poll();
+        if (key == null) {
+            missedCount.incrementAndGet();
+            do {
+                checkRefillable(inventory);
+                key = inventory.keys.poll(CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } while (key == null);
+        }
+        taken();
+        return key;
+    }
+
+    /**
+     * Take the pregenerated key waiting no longer than specified.
+     *
+     * @param bitStrength key size, one of configured
+     * @param timeout     how long to wait
+     * @param unit        of the timeout
+     *
+     * @return new private key or null if it was not generated in time
+     *
+     * @throws InterruptedException  if interrupted while waiting
+     * @throws IllegalStateException if the inventory is empty and will not be refilled, see {@link #take(int)}
+     */
+    public PrivateKey poll(int bitStrength, long timeout, TimeUnit unit) throws InterruptedException {
+        final Inventory inventory = inventory(bitStrength);
+        PrivateKey key = inventory.keys.poll();
+        if (key == null) {
+            missedCount.incrementAndGet();
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            do {
+                checkRefillable(inventory);
+                final long left = deadline - System.nanoTime();
+                if (left <= 0)
+                    return null;
+                key = inventory.keys.poll(Math.min(left, TimeUnit.MILLISECONDS.toNanos(CHECK_MILLIS)),
+                        TimeUnit.NANOSECONDS);
+            } while (key == null);
+        }
+        taken();
+        return key;
+    }
+
+    /**
+     * @return number of ready keys of the given size
+     */
+    public int getAvailable(int bitStrength) {
+        return inventory(bitStrength).keys.size();
+    }
+
+    /**
+     * @return fill level of the inventory of the given size, from 0 (empty) to 1 (full)
+     */
+    public double getFillLevel(int bitStrength) {
+        final Inventory inventory = inventory(bitStrength);
+        return (double) inventory.keys.size() / inventory.capacity;
+    }
+
+    /**
+     * @return maximum number of ready keys of each size
+     */
+    public int getCapacity() {
+        return inventories.values().iterator().next().capacity;
+    }
+
+    /**
+     * @return total number of keys generated by the pool
+     */
+    public long getGeneratedCount() {
+        return generatedCount.get();
+    }
+
+    /**
+     * @return total number of keys taken from the pool
+     */
+    public long getTakenCount() {
+        return takenCount.get();
+    }
+
+    /**
+     * @return number of times the inventory was empty when the key was requested
+     */
+    public long getMissedCount() {
+        return missedCount.get();
+    }
+
+    /**
+     * @return total number of failed generation attempts
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return the error of the last failed generation attempt or null if there were no failures
+     */
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return average time to generate one key, milliseconds, or 0 if no keys were generated yet
+     */
+    public double getAverageGenerationMillis() {
+        final long count = generatedCount.get();
+        return count == 0 ? 0 : generationNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Save all ready keys, encrypted with the given key. The keys stay in the pool, so save it on shutdown, after it
+     * is not used anymore, otherwise saved keys could be given out twice.
+     *
+     * @param path where to save keys
+     * @param key  to encrypt keys with
+     */
+    public void save(Path path, SymmetricKey key) throws IOException, EncryptionError {
+        final List<Object> packed = new ArrayList<>();
+        for (Inventory inventory : inventories.values()) {
+            for (PrivateKey k : inventory.keys)
+                packed.add(new Object[]{inventory.bitStrength, k.pack()});
+        }
+        Files.write(path, key.etaEncrypt(Boss.dumpToArray(packed)));
+    }
+
+    /**
+     * Load keys saved with {@link #save(Path, SymmetricKey)} into the pool and delete the file, so no key could be
+     * loaded twice. Keys of sizes the pool is not configured for, and keys that do not fit in the inventory, are
+     * discarded.
+     *
+     * @param path to load keys from
+     * @param key  keys were encrypted with
+     *
+     * @return number of keys added to the pool
+     *
+     * @throws SymmetricKey.AuthenticationFailed if the file is damaged or encrypted with another key
+     */
+    public int load(Path path, SymmetricKey key) throws IOException, EncryptionError {
+        final List<List<Object>> packed = Boss.load(key.etaDecrypt(Files.readAllBytes(path)));
+        Files.delete(path);
+        int count = 0;
+        for (List<Object> item : packed) {
+            final Inventory inventory = inventories.get(((Number) item.get(0)).intValue());
+            if (inventory != null && inventory.keys.offer(new PrivateKey(((Bytes) item.get(1)).toArray())))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Stop background generation. Ready keys still could be taken; taking from the empty inventory then throws
+     * {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread t : workers)
+            t.interrupt();
+    }
+
+    private Inventory inventory(int bitStrength) {
+        final Inventory inventory = inventories.get(bitStrength);
+        if (inventory == null)
+            throw new IllegalArgumentException("pool does not generate " + bitStrength + " bit keys");
+        return inventory;
+    }
+
+    /**
+     * Throw if the empty inventory will not be refilled, so callers do not wait forever.
+     */
+    private void checkRefillable(Inventory inventory) {
+        if (!inventory.keys.isEmpty())
+            return;
+        if (closed)
+            throw new IllegalStateException("key generation pool is closed");
+        if (inventory.failures.get() >= MAX_FAILURES)
+            throw new IllegalStateException("can't generate " + inventory.bitStrength + " bit keys", lastFailure);
+        for (Thread t : workers) {
+            if (t.isAlive())
+                return;
+        }
+        throw new IllegalStateException("key generation pool has no running workers", lastFailure);
+    }
+
+    private void taken() {
+        takenCount.incrementAndGet();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Reserve the generation slot in the least filled inventory, waiting while all inventories are full.
+     */
+    private Inventory nextToFill() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                Inventory best = null;
+                for (Inventory inventory : inventories.values()) {
+                    if (inventory.reserved() < inventory.capacity &&
+                            (best == null || inventory.reserved() < best.reserved()))
+                        best = inventory;
+                }
+                if (best != null) {
+                    best.inProgress.incrementAndGet();
+                    return best;
+                }
+                lock.wait();
+            }
+        }
+    }
+
+    private void generateKeys() {
+        try {
+            while (!closed) {
+                final Inventory inventory = nextToFill();
+                boolean failed = false;
+                try {
+                    final long start = System.nanoTime();
+                    final PrivateKey key = generator.apply(inventory.bitStrength);
+                    generationNanos.addAndGet(System.nanoTime() - start);
+                    generatedCount.incrementAndGet();
+                    inventory.failures.set(0);
+                    inventory.keys.offer(key);
+                } catch (RuntimeException | LinkageError e) {
+                    // e.g. no prime found or the native library failed to load: count it and try again later
+                    failed = true;
+                    lastFailure = e;
+                    failedCount.incrementAndGet();
+                    inventory.failures.incrementAndGet();
+                } finally {
+                    inventory.inProgress.decrementAndGet();
+                }
+                if (failed)
+                    Thread.sleep(FAILURE_PAUSE_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+}
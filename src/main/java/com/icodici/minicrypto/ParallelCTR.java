@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Counter mode transformation of large buffers using fork-join. Keystream block N depends only on the IV and N, so
+ * the data are split into block-aligned parts that are transformed independently, each with its own cipher instance.
+ * The result is exactly the same as sequential processing with {@link CTRTransformer}.
+ */
+@SuppressWarnings("serial")
+class ParallelCTR extends RecursiveAction {
+
+    /**
+     * Parts smaller than that are not split further.
+     */
+    static final int THRESHOLD = 1 << 20;
+
+    private final SymmetricKey key;
+    private final byte[] iv;
+    private final ByteBuffer source;
+    private final ByteBuffer target;
+    private final long offset;
+
+    /**
+     * Prepare transformation of all remaining bytes of the source to the target. Positions of the buffers are not
+     * changed.
+     *
+     * @param key
+     *         key to create ciphers with, see {@link SymmetricKey#newCipher()}
+     * @param iv
+     *         IV of the encrypted data
+     * @param source
+     *         data to transform
+     * @param target
+     *         where to put result, must have at least source.remaining() bytes left
+     * @param offset
+     *         position of the first source byte in the data (not counting the IV)
+     */
+    ParallelCTR(SymmetricKey key, byte[] iv, ByteBuffer source, ByteBuffer target, long offset) {
+        this.key = key;
+        this.iv = iv;
+        this.source = source.duplicate();
+        this.target = target.duplicate();
+        this.offset = offset;
+    }
+
+    @Override
+    protected void compute() {
+        int length = source.remaining();
+        if (length <= THRESHOLD) {
+            try {
+                new CTRTransformer(key.newCipher(), iv, offset).transform(source, target);
+            } catch (EncryptionError e) {
+                throw new RuntimeException("CTR transformation failed", e);
+            }
+        } else {
+            int blockSize = iv.length;
+            int half = length / 2;
+            half -= half % blockSize;
+            invokeAll(part(0, half), part(half, length - half));
+        }
+    }
+
+    private ParallelCTR part(int from, int length) {
+        ByteBuffer s = source.duplicate();
+        s.position(source.position() + from);
+        s.limit(s.position() + length);
+        ByteBuffer t = target.duplicate();
+        t.position(target.position() + from);
+        return new ParallelCTR(key, iv, s, t, offset + from);
+    }
+
+    /**
+     * Transform the data using the common fork-join pool, waiting for the result.
+     *
+     * @throws EncryptionError
+     */
+    void transform() throws EncryptionError {
+        try {
+            invoke();
+        } catch (RuntimeException e) {
+            // fork-join could rethrow a copy of the exception, so look for the cause down the chain
+            for (Throwable t = e.getCause(); t != null; t = t.getCause())
+                if (t instanceof EncryptionError)
+                    throw (EncryptionError) t;
+            throw e;
+        }
+    }
+}
@@ -10,6 +10,7 @@ package com.icodici.minicrypto;
 import com.icodici.minicrypto.digest.Crc32;
 import com.icodici.minicrypto.digest.Digest;
 import com.icodici.minicrypto.rsaoaep.RSAOAEPPrivateKey;
+import com.icodici.minicrypto.rsaoaep.scrsa.ParallelRSAKeyPairGenerator;
 
 import com.icodici.minicrypto.boss.Boss;
 import com.icodici.minicrypto.tools.Do;
@@ -18,12 +19,14 @@ import com.icodici.minicrypto.utils.Ut;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Executor;
 
 /**
  * Basic private key used in the system. At the moment it is long RSA key ad probably more strong
@@ -70,31 +73,38 @@ public class PrivateKey extends AbstractKey {
         privateKey.generate(bitStrength, HashType.SHA1);
     }
 
+    /**
+     * Generate the new key searching its primes in parallel, see {@link ParallelRSAKeyPairGenerator}. Faster than
+     * {@link #PrivateKey(int)} when there are idle processors, but it takes them from other work on the executor.
+     *
+     * @param bitStrength key size, e.g. 2048
+     * @param executor    to run prime searchers on
+     * @param parallelism number of concurrent searchers for each prime, including the calling thread
+     */
+    public PrivateKey(int bitStrength, Executor executor, int parallelism) {
+        privateKey.generate(bitStrength, HashType.SHA1, new ParallelRSAKeyPairGenerator(executor, parallelism));
+    }
 
-    private AtomicBoolean inUse = new AtomicBoolean();
-    private PrivateKey copy = null;
-    private Object copyMutex = new Object();
 
+    /**
+     * Decrypt the OAEP-encrypted block. The key could be used by many threads at once: each decryption takes its own
+     * initialized engine from the key's pool.
+     */
     @Override
     public byte[] decrypt(final byte[] encrypted) throws EncryptionError {
-        // mini-pooling of keys for parallel processing:
-        if (inUse.getAndSet(true)) {
-            // our copy is in use - create a copy for later use
-            synchronized (copyMutex) {
-                // we lock only to create a copy
-                if (copy == null)
-                    copy = new PrivateKey(pack());
-            }
-            // now the copy will do the same: encrypt or create a copy...
-            return copy.decrypt(encrypted);
-        } else {
-            try {
-                return privateKey.decrypt(encrypted);
-            }
-            finally {
-                inUse.set(false);
-            }
-        }
+        return privateKey.decrypt(encrypted);
+    }
+
+    /**
+     * Decrypt many OAEP-encrypted blocks at once, in parallel, with RSA blinding; much faster than decrypting them
+     * one by one.
+     *
+     * @param encrypted blocks to decrypt
+     *
+     * @return decrypted blocks in the same order; null for blocks that can't be decrypted
+     */
+    public List<byte[]> decryptAll(List<byte[]> encrypted) throws EncryptionError {
+        return privateKey.decryptAll(encrypted);
     }
 
     private PublicKey cachedPublicKey;
@@ -120,6 +130,31 @@ public class PrivateKey extends AbstractKey {
         return privateKey.sign(input, hashType);
     }
 
+    @Override
+    public byte[] sign(byte[] input, HashType hashType) throws EncryptionError {
+        return privateKey.sign(input, hashType);
+    }
+
+    /**
+     * Sign the remaining bytes of the buffer without copying them; the position is moved to the limit.
+     */
+    public byte[] sign(ByteBuffer input, HashType hashType) throws EncryptionError, IOException {
+        return privateKey.sign(input, hashType, null);
+    }
+
+    /**
+     * Sign the file from the current channel position to the end, with constant memory; the file is mapped into
+     * memory by parts.
+     */
+    public byte[] sign(FileChannel input, HashType hashType) throws EncryptionError, IOException {
+        return privateKey.sign(input, hashType);
+    }
+
+    @Override
+    public byte[] signDigest(byte[] digest, HashType hashType) throws EncryptionError {
+        return privateKey.signDigest(digest, hashType);
+    }
+
     @Override
     public KeyInfo info() {
         if (keyInfo == null) {
@@ -17,7 +17,11 @@ import com.icodici.minicrypto.utils.Ut;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +31,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Created by net.sergeych on 02/12/16.
  */
 public class PublicKey extends AbstractKey {
+    private static final BatchVerifier batchVerifier = new BatchVerifier();
+
     private final RSAOAEPPublicKey publicKey;
     private final AtomicBoolean unpacked = new AtomicBoolean(false);
     private byte[] cachedHint;
@@ -108,27 +114,13 @@ public class PublicKey extends AbstractKey {
         cachedHint = null;
     }
 
-    private AtomicBoolean inUse = new AtomicBoolean();
-    private PublicKey copy = null;
-    private Object copyMutex = new Object();
-
+    /**
+     * Encrypt the block using OAEP. The key could be used by many threads at once: each encryption takes its own
+     * initialized engine from the key's pool.
+     */
     @Override
     public byte[] encrypt(final byte[] bytes) throws EncryptionError {
-        if (inUse.getAndSet(true)) {
-            // our copy is in use
-            synchronized (copyMutex) {
-                if (copy == null)
-                    copy = new PublicKey(pack());
-            }
-            return copy.encrypt(bytes);
-        } else {
-            try {
-                return publicKey.encrypt(bytes);
-            }
-            finally {
-                inUse.set(false);
-            }
-        }
+        return publicKey.encrypt(bytes);
     }
 
     public byte[] encrypt(String plainText) throws EncryptionError {
@@ -153,6 +145,55 @@ public class PublicKey extends AbstractKey {
         return publicKey.checkSignature(source, signature, hashType);
     }
 
+    @Override
+    public boolean verify(byte[] input, byte[] signature, HashType hashType) throws EncryptionError {
+        return publicKey.checkSignature(input, signature, hashType);
+    }
+
+    @Override
+    public boolean verifyDigest(byte[] digest, byte[] signature, HashType hashType) throws EncryptionError {
+        try {
+            return publicKey.checkSignatureDigest(digest, signature, hashType);
+        } catch (IllegalArgumentException e) {
+            throw new EncryptionError("can't verify digest: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Check the signature of the remaining bytes of the buffer without copying them; the position is moved to the
+     * limit.
+     */
+    public boolean verify(ByteBuffer input, byte[] signature, HashType hashType) throws IOException {
+        return publicKey.checkSignature(input, signature, hashType, AbstractPublicKey.MAX_SALT_LENGTH);
+    }
+
+    /**
+     * Check the signature of the file from the current channel position to the end, with constant memory; the file
+     * is mapped into memory by parts.
+     */
+    public boolean verify(FileChannel input, byte[] signature, HashType hashType) throws IOException {
+        return publicKey.checkSignature(input, signature, hashType);
+    }
+
+    /**
+     * Verify many signatures at once using the shared {@link BatchVerifier} on the common fork-join pool, see {@link
+     * #getBatchVerifier()}.
+     *
+     * @param jobs to verify
+     *
+     * @return bitset where bit i is set if the i-th job has valid signature
+     */
+    public static BitSet verifyAll(Collection<BatchVerifier.Job> jobs) {
+        return batchVerifier.verify(jobs);
+    }
+
+    /**
+     * @return the verifier used by {@link #verifyAll(Collection)}, with metrics of all its batches
+     */
+    public static BatchVerifier getBatchVerifier() {
+        return batchVerifier;
+    }
+
     /**
      * Keys equality check. Only public keys are equal to each other. Right now private keys can't be equal to the
      * public even if the latter is its part.
@@ -8,11 +8,16 @@
 package com.icodici.minicrypto;
 
 import com.icodici.minicrypto.digest.HMAC;
-import com.icodici.minicrypto.tools.ByteRingBuffer;
 import com.icodici.minicrypto.tools.Do;
 import com.icodici.minicrypto.tools.Hashable;
 
 import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -53,26 +58,37 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
     /**
      * Read and decrypt AE (EtA) stream. When reaches the end, checks the HMAC (based on SHA256)
      * and throws {@link AuthenticationFailed} if it does not match.
+     * <p>
+     * The input is read in large chunks. As the HMAC record is at the very end of the stream, the
+     * last HMAC-length bytes read so far are always held back in the window until more data or the
+     * end of the stream arrive; everything before them is authenticated and decrypted in bulk.
      */
     public class EtaDecryptingStream extends InputStream {
         private final InputStream inputStream;
         private final CTRTransformer transformer;
-        private final ByteRingBuffer ring;
         private final HMAC hmac;
+        private final int hmacLength;
+        private final byte[] window;
+        private int start = 0;
+        private int end = 0;
         private boolean readingFinished = false;
+        private byte[] single;
 
         EtaDecryptingStream(InputStream inputStream) throws IOException, EncryptionError {
             this.inputStream = inputStream;
             byte[] IV = new byte[getCipher().getBlockSize()];
-            inputStream.read(IV);
+            int ivSize = 0;
+            while (ivSize < IV.length) {
+                int count = inputStream.read(IV, ivSize, IV.length - ivSize);
+                if (count < 0)
+                    break;
+                ivSize += count;
+            }
             transformer = new CTRTransformer(getCipher(), IV);
 
             hmac = new HMAC(key);
-
-            // We should have always block bytes in the buffer to finish:
-            ring = new ByteRingBuffer(hmac.getLength() + 8);
-            for (int i = 0; i < hmac.getLength(); i++)
-                ring.put(inputStream.read());
+            hmacLength = hmac.getLength();
+            window = new byte[hmacLength + EncryptingStream.BUFFER_SIZE];
         }
 
         @Override
@@ -84,56 +100,56 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
             } else if (len == 0) {
                 return 0;
             }
-            // here we protect with double end read: we wan't do this, because we call end() when read last byte
-            if(!readingFinished) {
-//                int c = read();
-//                if (c == -1) {
-//                    return -1;
-//                }
-//                b[off] = (byte) c;
-
-                int c;
-                int i = 0;
-                // and here we need to throw custom exceptions
-//            try {
-                for (; i < len; i++) {
-                    c = read();
-                    if (c == -1) {
-                        break;
-                    }
-                    b[off + i] = (byte) c;
+            // end() is called once when the input is exhausted, then we only report the end of data
+            if (readingFinished)
+                return -1;
+            while (end - start <= hmacLength) {
+                if (!fillWindow()) {
+                    readingFinished = true;
+                    end();
+                    return -1;
                 }
-//            } catch (IOException ee) {
-//            }
-                return i;
             }
-            // and here we return -1 code as expected by callers if read has ends
-            return -1;
+            int count = Math.min(len, end - start - hmacLength);
+            hmac.update(window, start, count);
+            try {
+                transformer.transform(window, start, count, b, off);
+            } catch (EncryptionError encryptionError) {
+                throw new IOException("failed to decrypt", encryptionError);
+            }
+            start += count;
+            return count;
         }
 
         @Override
         public int read() throws IOException {
-            int nextByte = inputStream.read();
-            if (nextByte < 0) {
-                readingFinished = true;
-                end();
-                return -1;
-            } else {
-                ring.put(nextByte);
-                try {
-                    int encrypted = ring.get();
-                    hmac.update(encrypted);
-                    return transformer.transformByte(encrypted);
-                } catch (EncryptionError encryptionError) {
-                    throw new IOException("failed to decrypt", encryptionError);
-                }
+            if (single == null)
+                single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        /**
+         * Read next chunk of the input to the window, moving retained tail to its beginning first.
+         *
+         * @return false if the input stream is at its end
+         */
+        private boolean fillWindow() throws IOException {
+            if (start > 0) {
+                System.arraycopy(window, start, window, 0, end - start);
+                end -= start;
+                start = 0;
             }
+            int count = inputStream.read(window, end, window.length - end);
+            if (count < 0)
+                return false;
+            end += count;
+            return true;
         }
 
         private void end() throws IOException {
-            byte[] readHmac = ring.readAll();
-            if (readHmac.length != hmac.getLength())
-                throw new IOException("stream corrupted: bad hmac record size:" + readHmac.length);
+            if (end - start != hmacLength)
+                throw new AuthenticationFailed("stream corrupted: bad hmac record size:" + (end - start));
+            byte[] readHmac = Arrays.copyOfRange(window, start, end);
             if (!Arrays.equals(readHmac, hmac.digest())) {
                 throw new AuthenticationFailed("HMAC authentication failed, data corrupted");
             }
@@ -151,6 +167,7 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
         private boolean done = false;
         private OutputStream outputStream;
         private CTRTransformer transformer;
+        private byte[] buffer;
 
         EtaEncryptingStream(OutputStream outputStream) throws IOException, EncryptionError {
             this(outputStream, true);
@@ -207,8 +224,40 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
                 throw new IOException("failed to encrypt", encryptionError);
             }
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (done)
+                throw new EOFException("can't write past the end()");
+            if (off < 0 || len < 0 || len > b.length - off)
+                throw new IndexOutOfBoundsException();
+            if (transformer == null) {
+                hmac.update(b, off, len);
+                outputStream.write(b, off, len);
+                return;
+            }
+            if (buffer == null || buffer.length < Math.min(len, EncryptingStream.BUFFER_SIZE))
+                buffer = new byte[Math.min(len, EncryptingStream.BUFFER_SIZE)];
+            try {
+                while (len > 0) {
+                    int chunk = Math.min(len, buffer.length);
+                    transformer.transform(b, off, chunk, buffer, 0);
+                    hmac.update(buffer, 0, chunk);
+                    outputStream.write(buffer, 0, chunk);
+                    off += chunk;
+                    len -= chunk;
+                }
+            } catch (EncryptionError encryptionError) {
+                throw new IOException("failed to encrypt", encryptionError);
+            }
+        }
     }
 
+    /**
+     * Size of the HMAC record of AE (EtA) encrypted data, SHA256-based.
+     */
+    private static final int HMAC_LENGTH = 32;
+
     private byte[] key;
 
     private BlockCipher cipher = null;
@@ -265,6 +314,24 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
         return cipher;
     }
 
+    /**
+     * Create a new cipher instance of the same kind as {@link #getCipher()}, initialized with this key. Unlike the
+     * cached one, it could be used in another thread without locking.
+     *
+     * @return new initialized cipher
+     *
+     * @throws EncryptionError if the cipher can't be instantiated
+     */
+    protected BlockCipher newCipher() throws EncryptionError {
+        try {
+            BlockCipher c = getCipher().getClass().newInstance();
+            c.initialize(BlockCipher.Direction.ENCRYPT, this);
+            return c;
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new EncryptionError("failed to instantiate cipher", e);
+        }
+    }
+
     public byte[] encrypt(byte[] plaintext) throws EncryptionError {
         return EncryptingStream.encrypt(getCipher(), plaintext);
     }
@@ -273,6 +340,111 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
         return DecryptingStream.decrypt(getCipher(), ciphertext);
     }
 
+    /**
+     * Encrypt data splitting it to parts processed in parallel in the common fork-join pool. The result is in the
+     * same format as of {@link #encrypt(byte[])} and can be decrypted with either {@link #decrypt(byte[])} or {@link
+     * #decryptParallel(byte[])}. Makes sense for large data, starting from several megabytes.
+     *
+     * @param plaintext
+     *         data to encrypt
+     *
+     * @return IV followed by encrypted data
+     *
+     * @throws EncryptionError
+     */
+    public byte[] encryptParallel(byte[] plaintext) throws EncryptionError {
+        byte[] iv = CTRTransformer.randomBytes(getCipher().getBlockSize());
+        byte[] result = new byte[iv.length + plaintext.length];
+        System.arraycopy(iv, 0, result, 0, iv.length);
+        new ParallelCTR(this, iv, ByteBuffer.wrap(plaintext), ByteBuffer.wrap(result, iv.length, plaintext.length), 0)
+                .transform();
+        return result;
+    }
+
+    /**
+     * Decrypt data encrypted with {@link #encrypt(byte[])} or {@link #encryptParallel(byte[])}, processing its
+     * parts in parallel in the common fork-join pool.
+     *
+     * @param ciphertext
+     *         IV followed by encrypted data
+     *
+     * @return decrypted data
+     *
+     * @throws EncryptionError
+     */
+    public byte[] decryptParallel(byte[] ciphertext) throws EncryptionError {
+        int blockSize = getCipher().getBlockSize();
+        if (ciphertext.length <= blockSize)
+            return new byte[0];
+        byte[] iv = Arrays.copyOf(ciphertext, blockSize);
+        byte[] result = new byte[ciphertext.length - blockSize];
+        new ParallelCTR(this, iv, ByteBuffer.wrap(ciphertext, blockSize, result.length), ByteBuffer.wrap(result), 0)
+                .transform();
+        return result;
+    }
+
+    /**
+     * Encrypt a file using memory mapping and parallel processing. The result is the same as {@link
+     * #encrypt(byte[])} of the file contents would produce, and can be decrypted with any decryption method of this
+     * class. Files of any size are supported, these are mapped in parts.
+     *
+     * @param source
+     *         file to encrypt
+     * @param target
+     *         file to write encrypted data to, will be created or overwritten
+     *
+     * @throws IOException
+     */
+    public void encryptParallel(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] iv = CTRTransformer.randomBytes(getCipher().getBlockSize());
+            out.write(ByteBuffer.wrap(iv));
+            transformMapped(iv, in, 0, out, iv.length, in.size());
+        }
+    }
+
+    /**
+     * Decrypt a file encrypted with any encryption method of this class using memory mapping and parallel
+     * processing, see {@link #encryptParallel(Path, Path)}.
+     *
+     * @param source
+     *         encrypted file
+     * @param target
+     *         file to write decrypted data to, will be created or overwritten
+     *
+     * @throws IOException
+     */
+    public void decryptParallel(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] iv = new byte[getCipher().getBlockSize()];
+            ByteBuffer ivBuffer = ByteBuffer.wrap(iv);
+            while (ivBuffer.hasRemaining())
+                if (in.read(ivBuffer) < 0)
+                    return;
+            transformMapped(iv, in, iv.length, out, 0, in.size() - iv.length);
+        }
+    }
+
+    /**
+     * Largest part of a file that is mapped at once, block-aligned.
+     */
+    private static final long MAX_MAPPED_PART = 1L << 30;
+
+    private void transformMapped(byte[] iv, FileChannel in, long inStart, FileChannel out, long outStart,
+                                 long length) throws IOException {
+        for (long offset = 0; offset < length; offset += MAX_MAPPED_PART) {
+            long size = Math.min(MAX_MAPPED_PART, length - offset);
+            MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY, inStart + offset, size);
+            MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, outStart + offset, size);
+            new ParallelCTR(this, iv, source, target, offset).transform();
+            target.force();
+        }
+    }
+
     public OutputStream encryptStream(OutputStream outputStream) throws IOException,
             EncryptionError {
         return new EncryptingStream(getCipher(), outputStream);
@@ -338,15 +510,106 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
      * @throws EncryptionError
      */
     public byte[] etaEncrypt(byte[] data) throws EncryptionError {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try {
-            final EtaEncryptingStream s = etaEncryptStream(bos);
-            s.write(data);
-            s.end();
-            return bos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOError", e);
+        byte[] result = new byte[etaEncryptedSize(data.length)];
+        etaEncrypt(data, 0, data.length, result, 0);
+        return result;
+    }
+
+    /**
+     * Size of the data encrypted with AE (EtA): IV, encrypted data and HMAC record.
+     *
+     * @param dataLength
+     *         size of the plain data
+     *
+     * @return size of the encrypted data
+     */
+    public int etaEncryptedSize(int dataLength) {
+        return getCipher().getBlockSize() + dataLength + HMAC_LENGTH;
+    }
+
+    /**
+     * Encrypt part of the array with AE (EtA) into the caller-provided array, see {@link #etaEncrypt(byte[])}. The
+     * data are encrypted and authenticated in a single pass with no allocations proportional to the data size.
+     *
+     * @param data
+     *         array with data to encrypt
+     * @param offset
+     *         index of the first byte to encrypt
+     * @param length
+     *         number of bytes to encrypt
+     * @param target
+     *         array to put encrypted data to, must not overlap the source range
+     * @param targetOffset
+     *         index in target where to put encrypted data, there should be {@link #etaEncryptedSize(int)} bytes
+     *         available
+     *
+     * @return number of bytes written to the target
+     *
+     * @throws EncryptionError
+     */
+    public int etaEncrypt(byte[] data, int offset, int length, byte[] target, int targetOffset)
+            throws EncryptionError {
+        int size = etaEncryptedSize(length);
+        if (offset < 0 || length < 0 || length > data.length - offset)
+            throw new IndexOutOfBoundsException();
+        if (targetOffset < 0 || size > target.length - targetOffset)
+            throw new IllegalArgumentException("target buffer is too small, need " + size + " bytes");
+        CTRTransformer transformer = new CTRTransformer(getCipher(), null);
+        HMAC hmac = new HMAC(key);
+        byte[] iv = transformer.getIV();
+        System.arraycopy(iv, 0, target, targetOffset, iv.length);
+        targetOffset += iv.length;
+        while (length > 0) {
+            int chunk = Math.min(length, EncryptingStream.BUFFER_SIZE);
+            transformer.transform(data, offset, chunk, target, targetOffset);
+            hmac.update(target, targetOffset, chunk);
+            offset += chunk;
+            targetOffset += chunk;
+            length -= chunk;
+        }
+        System.arraycopy(hmac.digest(), 0, target, targetOffset, HMAC_LENGTH);
+        return size;
+    }
+
+    /**
+     * Encrypt all remaining bytes of the data buffer with AE (EtA) into the target buffer, advancing positions of
+     * both, see {@link #etaEncrypt(byte[])}. Heap buffers are processed in place, direct buffers are copied through
+     * a small chunk buffer.
+     *
+     * @param data
+     *         data to encrypt
+     * @param target
+     *         where to put encrypted data, should have {@link #etaEncryptedSize(int)} bytes remaining
+     *
+     * @return number of bytes written to the target
+     *
+     * @throws EncryptionError
+     */
+    public int etaEncrypt(ByteBuffer data, ByteBuffer target) throws EncryptionError {
+        int length = data.remaining();
+        int size = etaEncryptedSize(length);
+        if (target.remaining() < size)
+            throw new BufferOverflowException();
+        if (data.hasArray() && target.hasArray() && !target.isReadOnly()) {
+            etaEncrypt(data.array(), data.arrayOffset() + data.position(), length,
+                       target.array(), target.arrayOffset() + target.position());
+            data.position(data.position() + length);
+            target.position(target.position() + size);
+        } else {
+            CTRTransformer transformer = new CTRTransformer(getCipher(), null);
+            HMAC hmac = new HMAC(key);
+            target.put(transformer.getIV());
+            byte[] buffer = new byte[Math.min(length, EncryptingStream.BUFFER_SIZE)];
+            while (data.hasRemaining()) {
+                int chunk = Math.min(data.remaining(), buffer.length);
+                data.get(buffer, 0, chunk);
+                transformer.transform(buffer, 0, chunk);
+                hmac.update(buffer, 0, chunk);
+                target.put(buffer, 0, chunk);
+            }
+            target.put(hmac.digest());
         }
+        return size;
     }
 
     /**
@@ -385,13 +648,123 @@ public class SymmetricKey extends AbstractKey implements Serializable, Hashable
      *         if the authentication record does not match the data.
      */
     public byte[] etaDecrypt(byte[] data) throws EncryptionError, AuthenticationFailed {
-        try {
-            return Do.read(etaDecryptStream(new ByteArrayInputStream(data)));
-        } catch (AuthenticationFailed e) {
-            throw e;
-        } catch (IOException e) {
-            throw new RuntimeException("unexpected IOError", e);
+        int overhead = etaEncryptedSize(0);
+        if (data.length < overhead)
+            throw new AuthenticationFailed("stream corrupted: bad hmac record size:" + data.length);
+        byte[] result = new byte[data.length - overhead];
+        etaDecrypt(data, 0, data.length, result, 0);
+        return result;
+    }
+
+    /**
+     * Decrypt AE (EtA) encrypted part of the array into the caller-provided array, see {@link #etaDecrypt(byte[])}.
+     * Data are authenticated and decrypted in a single pass; if the authentication fails, the decrypted part of the
+     * target is wiped before throwing {@link AuthenticationFailed}.
+     *
+     * @param data
+     *         array with the encrypted data
+     * @param offset
+     *         index of the first byte of the encrypted data (IV)
+     * @param length
+     *         size of the encrypted data, including IV and HMAC record
+     * @param target
+     *         array to put decrypted data to. It could be the same array, if the target offset is not greater than
+     *         the offset of the data
+     * @param targetOffset
+     *         index in target where to put decrypted data
+     *
+     * @return number of decrypted bytes written to the target
+     *
+     * @throws EncryptionError
+     * @throws AuthenticationFailed
+     *         if the authentication record does not match the data.
+     */
+    public int etaDecrypt(byte[] data, int offset, int length, byte[] target, int targetOffset)
+            throws EncryptionError, AuthenticationFailed {
+        if (offset < 0 || length < 0 || length > data.length - offset)
+            throw new IndexOutOfBoundsException();
+        int blockSize = getCipher().getBlockSize();
+        int size = length - blockSize - HMAC_LENGTH;
+        if (size < 0)
+            throw new AuthenticationFailed("stream corrupted: bad hmac record size:" + length);
+        if (targetOffset < 0 || size > target.length - targetOffset)
+            throw new IllegalArgumentException("target buffer is too small, need " + size + " bytes");
+        CTRTransformer transformer = new CTRTransformer(getCipher(), Arrays.copyOfRange(data, offset, offset +
+                blockSize));
+        HMAC hmac = new HMAC(key);
+        int from = offset + blockSize;
+        int to = targetOffset;
+        for (int left = size; left > 0; ) {
+            int chunk = Math.min(left, EncryptingStream.BUFFER_SIZE);
+            hmac.update(data, from, chunk);
+            transformer.transform(data, from, chunk, target, to);
+            from += chunk;
+            to += chunk;
+            left -= chunk;
+        }
+        if (!Arrays.equals(Arrays.copyOfRange(data, from, from + HMAC_LENGTH), hmac.digest())) {
+            Arrays.fill(target, targetOffset, targetOffset + size, (byte) 0);
+            throw new AuthenticationFailed("HMAC authentication failed, data corrupted");
+        }
+        return size;
+    }
+
+    /**
+     * Decrypt all remaining bytes of the AE (EtA) encrypted buffer into the target buffer, see {@link
+     * #etaDecrypt(byte[])}. Positions of both buffers are advanced only if the authentication succeeds, otherwise
+     * the decrypted part of the target is wiped.
+     *
+     * @param data
+     *         encrypted data including IV and HMAC record
+     * @param target
+     *         where to put decrypted data
+     *
+     * @return number of decrypted bytes written to the target
+     *
+     * @throws EncryptionError
+     * @throws AuthenticationFailed
+     *         if the authentication record does not match the data.
+     */
+    public int etaDecrypt(ByteBuffer data, ByteBuffer target) throws EncryptionError, AuthenticationFailed {
+        int length = data.remaining();
+        int blockSize = getCipher().getBlockSize();
+        int size = length - blockSize - HMAC_LENGTH;
+        if (size < 0)
+            throw new AuthenticationFailed("stream corrupted: bad hmac record size:" + length);
+        if (target.remaining() < size)
+            throw new BufferOverflowException();
+        if (data.hasArray() && target.hasArray() && !target.isReadOnly()) {
+            etaDecrypt(data.array(), data.arrayOffset() + data.position(), length,
+                       target.array(), target.arrayOffset() + target.position());
+            data.position(data.position() + length);
+            target.position(target.position() + size);
+        } else {
+            ByteBuffer source = data.duplicate();
+            ByteBuffer output = target.duplicate();
+            byte[] iv = new byte[blockSize];
+            source.get(iv);
+            CTRTransformer transformer = new CTRTransformer(getCipher(), iv);
+            HMAC hmac = new HMAC(key);
+            byte[] buffer = new byte[Math.min(size, EncryptingStream.BUFFER_SIZE)];
+            for (int left = size; left > 0; ) {
+                int chunk = Math.min(left, buffer.length);
+                source.get(buffer, 0, chunk);
+                hmac.update(buffer, 0, chunk);
+                transformer.transform(buffer, 0, chunk);
+                output.put(buffer, 0, chunk);
+                left -= chunk;
+            }
+            byte[] readHmac = new byte[HMAC_LENGTH];
+            source.get(readHmac);
+            if (!Arrays.equals(readHmac, hmac.digest())) {
+                for (int i = 0, p = target.position(); i < size; i++)
+                    target.put(p + i, (byte) 0);
+                throw new AuthenticationFailed("HMAC authentication failed, data corrupted");
+            }
+            data.position(source.position());
+            target.position(output.position());
         }
+        return size;
     }
 
     public static byte[] xor(byte[] src, int value) {
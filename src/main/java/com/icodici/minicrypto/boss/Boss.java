@@ -10,6 +10,7 @@
  */
 package com.icodici.minicrypto.boss;
 
+import com.icodici.minicrypto.digest.Digest;
 import com.icodici.minicrypto.tools.Do;
 import com.icodici.minicrypto.utils.Bytes;
 
@@ -24,13 +25,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * BOSS (Binary Object Serialization Specification) protocol version 1.4 final stream mode specification (no-cache).
@@ -98,24 +104,24 @@ public class Boss {
     static private boolean useOldDates = false;
 
 
-    static private final int TYPE_INT = 0;
-    static private final int TYPE_EXTRA = 1;
-    static private final int TYPE_NINT = 2;
-    static private final int TYPE_TEXT = 3;
-    static private final int TYPE_BIN = 4;
-    static private final int TYPE_CREF = 5;
-    static private final int TYPE_LIST = 6;
-    static private final int TYPE_DICT = 7;
-    static private final int XT_DZERO = 1; // double 0.0
-    static private final int XT_DONE = 2; // double 1.0
-    static private final int XT_DMINUSONE = 4; // double -1.0
+    static final int TYPE_INT = 0;
+    static final int TYPE_EXTRA = 1;
+    static final int TYPE_NINT = 2;
+    static final int TYPE_TEXT = 3;
+    static final int TYPE_BIN = 4;
+    static final int TYPE_CREF = 5;
+    static final int TYPE_LIST = 6;
+    static final int TYPE_DICT = 7;
+    static final int XT_DZERO = 1; // double 0.0
+    static final int XT_DONE = 2; // double 1.0
+    static final int XT_DMINUSONE = 4; // double -1.0
     // TFLOAT = 6; // 32-bit IEEE float
-    static private final int XT_DOUBLE = 7; // 64-bit IEEE float
-    static private final int XT_TTRUE = 12;
-    static private final int XT_FALSE = 13;
+    static final int XT_DOUBLE = 7; // 64-bit IEEE float
+    static final int XT_TTRUE = 12;
+    static final int XT_FALSE = 13;
     // static private final int TCOMPRESSED = 14;
-    static private final int XT_TIME = 15;
-    static private final int XT_STREAM_MODE = 16;
+    static final int XT_TIME = 15;
+    static final int XT_STREAM_MODE = 16;
 
     // static private final int TOBJECT = 8; // object record
     // TMETHOD = 9; // instance method
@@ -137,6 +143,43 @@ public class Boss {
         return dumpToArray(object);
     }
 
+    /**
+     * Encode the object in the canonical mode, see {@link Writer#setCanonicalMode()}: equal objects are always
+     * encoded to the same bytes.
+     *
+     * @param object to encode
+     *
+     * @return binary data
+     */
+    public static byte[] packCanonical(Object object) {
+        try {
+            Writer w = new Writer().setCanonicalMode();
+            w.writeObject(object);
+            return w.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Boss can't dump this object", ex);
+        }
+    }
+
+    /**
+     * Calculate the digest of the canonical encoding of the object (see {@link #packCanonical(Object)}) without
+     * creating it, with {@link DigestWriter}.
+     *
+     * @param object to hash
+     * @param digest new digest to update, e.g. {@link com.icodici.minicrypto.digest.Sha256}
+     *
+     * @return calculated digest
+     */
+    public static byte[] digest(Object object, Digest digest) {
+        try {
+            DigestWriter w = new DigestWriter(digest);
+            w.writeObject(object);
+            return w.digest();
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Boss can't dump this object", ex);
+        }
+    }
+
     /**
      * Encodes one or more objects one by one. It will need corresponding number of read calls
      *
@@ -158,6 +201,24 @@ public class Boss {
         }
     }
 
+    /**
+     * Calculate the exact size of the object tree encoded with a new {@link Writer}, e.g. with {@link
+     * #dumpToArray(Object, Object...)}, without encoding it. Use it to allocate the buffer for {@link BufferWriter}.
+     *
+     * @param obj root object
+     *
+     * @return encoded size in bytes
+     */
+    public static long encodedSize(Object obj) {
+        try {
+            SizeCounter counter = new SizeCounter();
+            counter.writeObject(obj);
+            return counter.size;
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Boss can't dump this object", ex);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public static <K, V> Map<K, V> loadMap(Bytes bytes) {
         return (Map<K, V>) load(bytes);
@@ -189,6 +250,38 @@ public class Boss {
         }
     }
 
+    /**
+     * Load the object of the class annotated with {@link BossSerializable}, see {@link Reader#read(Class)}.
+     *
+     * @param data binary data to decode
+     * @param type expected type of the root object
+     *
+     * @return root object
+     */
+    static public <T> T load(byte[] data, Class<T> type) {
+        try {
+            return new Reader(data).read(type);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
+    /**
+     * Load boss-encoded object tree from the remaining part of the buffer, without changing its position. Binary
+     * fields are loaded as read-only slices of the buffer, see {@link BufferReader}.
+     *
+     * @param buffer data to decode, heap, direct or memory-mapped
+     *
+     * @return root object
+     */
+    static public <T> T load(ByteBuffer buffer) {
+        try {
+            return new BufferReader(buffer).read();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
 
     public static void trace(byte[] packed) {
         Object obj = load(packed);
@@ -233,6 +326,66 @@ public class Boss {
         return b.toString();
     }
 
+    /**
+     * Box the integer header value to the smallest fitting type: Integer, Long or BigInteger.
+     */
+    static Object smallestNumber(BigInteger bigValue, long value, boolean negative) {
+        if (bigValue != null)
+            return negative ? bigValue.negate() : bigValue;
+        if (Math.abs(value) <= 0x7FFFffff)
+            return negative ? (int) -value : (int) value;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Default maximum number of objects {@link Writer} remembers to replace repeated ones with references.
+     */
+    public static final int DEFAULT_CACHE_ENTRIES = 16384;
+
+    /**
+     * How {@link Writer} finds repeated objects to replace them with references, see {@link
+     * Writer#setCacheMode(CacheMode, int)}. The output of any mode is read by the same {@link Reader}.
+     */
+    public enum CacheMode {
+        /**
+         * Texts and binaries are matched by content, maps, lists and other objects by identity (default)
+         */
+        CONTENT,
+        /**
+         * All objects are matched by identity: only the same instance written twice becomes the reference
+         */
+        IDENTITY,
+        /**
+         * No references are written
+         */
+        NONE
+    }
+
+    /**
+     * Type of the next value, see {@link Reader#nextType()}.
+     */
+    public enum Type {
+        /**
+         * Integer of any size
+         */
+        INT,
+        /**
+         * Floating point number
+         */
+        DOUBLE,
+        BOOLEAN,
+        TEXT,
+        BINARY,
+        LIST,
+        MAP,
+        DATE,
+        NULL,
+        /**
+         * Reference to the already read text, binary, list or map
+         */
+        REFERENCE
+    }
+
     static protected class Header {
         public int code;
         public long value;
@@ -249,11 +402,7 @@ public class Boss {
         }
 
         public Object smallestNumber(boolean negative) {
-            if (bigValue != null)
-                return negative ? bigValue.negate() : bigValue;
-            if (Math.abs(value) <= 0x7FFFffff)
-                return negative ? (int) -value : (int) value;
-            return negative ? -value : value;
+            return Boss.smallestNumber(bigValue, value, negative);
         }
 
         @Override
@@ -271,8 +420,16 @@ public class Boss {
     static public class Writer {
 
         private OutputStream out;
-        private HashMap<Object, Integer> cache;
+        // true if the stream was created by the writer, so reset() may discard its data
+        private boolean ownsOutput;
+        private CacheMode cacheMode = CacheMode.CONTENT;
+        private ReferenceCache cache;
+        // index the next cacheable object gets in the reader's cache, 0 is null
+        private int nextIndex = 1;
         private boolean treeMode;
+        private boolean canonical;
+        // encodes map keys to sort them in the canonical mode
+        private Writer keyWriter;
 
         /**
          * Creates writer to write to the output stream. Upon creation writer is alwais in tree mode.
@@ -281,14 +438,14 @@ public class Boss {
          */
         public Writer(OutputStream outputStream) {
             out = outputStream;
-            cache = new HashMap<>();
-            cache.put(null, 0);
+            cache = new ReferenceCache(true, DEFAULT_CACHE_ENTRIES);
             treeMode = true;
         }
 
 
         public Writer() {
             this(new ByteArrayOutputStream());
+            ownsOutput = true;
         }
 
         static private int sizeInBytes(long value) {
@@ -312,8 +469,7 @@ public class Boss {
          * @throws IOException
          */
         public void setStreamMode() throws IOException {
-            cache = new HashMap<>();
-            cache.put(null, 0);
+            cache.clear();
             treeMode = false;
             writeHeader(TYPE_EXTRA, XT_STREAM_MODE);
         }
@@ -353,15 +509,21 @@ public class Boss {
             if (obj instanceof Number) {
                 Number n = (Number) obj;
                 if ((obj instanceof Integer) || (obj instanceof Long)) {
-                    long value = n.longValue();
-                    if (value >= 0)
-                        writeHeader(TYPE_INT, value);
-                    else
-                        writeHeader(TYPE_NINT, -value);
+                    putLong(n.longValue());
+                    return this;
+                }
+                if (canonical && (obj instanceof Short || obj instanceof Byte)) {
+                    // written as doubles otherwise, for compatibility
+                    putLong(n.longValue());
                     return this;
                 }
                 if (obj instanceof BigInteger) {
                     BigInteger bi = (BigInteger) obj;
+                    if (canonical && bi.abs().bitLength() < 64) {
+                        // the shortest form is the same as of the equal long
+                        putLong(bi.longValue());
+                        return this;
+                    }
                     if (bi.signum() >= 0)
                         writeHeader(TYPE_INT, bi);
                     else
@@ -369,42 +531,35 @@ public class Boss {
                     return this;
                 }
                 // Should be double
-                double d = n.doubleValue();
-                if (d == 0) {
-                    writeHeader(TYPE_EXTRA, XT_DZERO);
-                    return this;
-                }
-                if (d == -1.0) {
-                    writeHeader(TYPE_EXTRA, XT_DMINUSONE);
-                    return this;
-                }
-                if (d == 1.0) {
-                    writeHeader(TYPE_EXTRA, XT_DONE);
-                    return this;
-                }
-                writeHeader(TYPE_EXTRA, XT_DOUBLE);
-                Bytes.fromDouble(n.doubleValue()).write(out);
+                putDouble(n.doubleValue());
                 return this;
             }
             if (obj instanceof CharSequence) {
                 String s = obj.toString();
-                if (!tryWriteReference(s)) {
-                    Bytes bb = new Bytes(s);
-                    writeHeader(TYPE_TEXT, bb.size());
-                    out.write(bb.toArray());
-                }
+                if (!tryWriteReference(s))
+                    writeText(s);
                 return this;
             }
             if (obj instanceof Bytes)
                 obj = ((Bytes) obj).toArray();
             else if (obj instanceof ByteBuffer) {
-                obj = ((ByteBuffer) obj).array();
+                // remaining bytes only, the position of the buffer is not changed
+                ByteBuffer buffer = (ByteBuffer) obj;
+                if (buffer.hasArray()) {
+                    final int from = buffer.arrayOffset() + buffer.position();
+                    obj = Arrays.copyOfRange(buffer.array(), from, from + buffer.remaining());
+                } else {
+                    // direct or read-only buffer, e.g. a slice from BufferReader
+                    byte[] bb = new byte[buffer.remaining()];
+                    buffer.duplicate().get(bb);
+                    obj = bb;
+                }
             }
             if (obj instanceof byte[]) {
                 byte[] bb = (byte[]) obj;
                 if (!tryWriteReference(bb)) {
                     writeHeader(TYPE_BIN, bb.length);
-                    out.write(bb);
+                    writeBytes(bb);
                 }
                 return this;
             }
@@ -413,7 +568,7 @@ public class Boss {
                 return this;
             }
             if (obj instanceof Boolean) {
-                writeHeader(TYPE_EXTRA, ((Boolean) obj) ? XT_TTRUE : XT_FALSE);
+                putBoolean((Boolean) obj);
                 return this;
             }
             if (obj instanceof Date) {
@@ -439,15 +594,56 @@ public class Boss {
                 writeHeader(TYPE_CREF, 0);
                 return this;
             }
+            BossCodec<Object> codec = BossCodec.find(obj.getClass());
+            if (codec != null) {
+                if (!tryWriteReference(obj))
+                    codec.writeFields(this, obj);
+                return this;
+            }
             throw new IllegalArgumentException("unknown type: " + obj.getClass());
 //            put(biSerializer.serialize(obj));
 //            return this;
         }
 
+        void putLong(long value) throws IOException {
+            if (value >= 0)
+                writeHeader(TYPE_INT, value);
+            else
+                writeHeader(TYPE_NINT, -value);
+        }
+
+        void putDouble(double d) throws IOException {
+            if (d == 0) {
+                writeHeader(TYPE_EXTRA, XT_DZERO);
+                return;
+            }
+            if (d == -1.0) {
+                writeHeader(TYPE_EXTRA, XT_DMINUSONE);
+                return;
+            }
+            if (d == 1.0) {
+                writeHeader(TYPE_EXTRA, XT_DONE);
+                return;
+            }
+            writeHeader(TYPE_EXTRA, XT_DOUBLE);
+            // IEEE double, little-endian
+            long bits = Double.doubleToLongBits(d);
+            for (int i = 0; i < 8; i++, bits >>>= 8)
+                writeByte((int) bits & 0xFF);
+        }
+
+        void putBoolean(boolean value) throws IOException {
+            writeHeader(TYPE_EXTRA, value ? XT_TTRUE : XT_FALSE);
+        }
+
         private void writeMap(Object obj) throws IOException {
             if (!tryWriteReference(obj)) {
                 Map<?, ?> map = (Map<?, ?>) obj;
                 writeHeader(TYPE_DICT, map.size());
+                if (canonical) {
+                    writeSorted(map.keySet(), map);
+                    return;
+                }
                 for (Map.Entry<?, ?> e : map.entrySet()) {
                     put(e.getKey());
                     put(e.getValue());
@@ -455,6 +651,95 @@ public class Boss {
             }
         }
 
+        /**
+         * Order of texts without surrogates the same as of their encoding: the text header is ordered by the UTF-8
+         * length, and the UTF-8 bytes of the same length are ordered as chars.
+         */
+        private static final Comparator<String> TEXT_ORDER = new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int la = utf8Length(a);
+                int lb = utf8Length(b);
+                if (la != lb) {
+                    // one byte headers are ordered by length and precede longer ones
+                    if (la < 23 || lb < 23)
+                        return la - lb;
+                    return compareEncoded(textHeader(la), textHeader(lb));
+                }
+                return a.compareTo(b);
+            }
+        };
+
+        private static byte[] textHeader(int length) {
+            if (length < 23)
+                return new byte[]{(byte) (TYPE_TEXT | length << 3)};
+            int n = sizeInBytes(length);
+            byte[] header = new byte[n + 1];
+            header[0] = (byte) (TYPE_TEXT | (n + 22) << 3);
+            for (int i = 1; i <= n; i++, length >>>= 8)
+                header[i] = (byte) length;
+            return header;
+        }
+
+        private static boolean areSimpleTexts(Collection<?> items) {
+            for (Object x : items) {
+                if (!(x instanceof String))
+                    return false;
+                String s = (String) x;
+                for (int i = 0; i < s.length(); i++) {
+                    if (Character.isSurrogate(s.charAt(i)))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Write items (or map keys with values) in the order of their encoded bytes.
+         */
+        private void writeSorted(Collection<?> items, Map<?, ?> map) throws IOException {
+            final int size = items.size();
+            if (areSimpleTexts(items)) {
+                // usual string keys are sorted without encoding
+                String[] keys = items.toArray(new String[size]);
+                Arrays.sort(keys, TEXT_ORDER);
+                for (String key : keys) {
+                    put(key);
+                    if (map != null)
+                        put(map.get(key));
+                }
+                return;
+            }
+            final byte[][] encoded = new byte[size][];
+            final Object[] values = new Object[size];
+            Integer[] order = new Integer[size];
+            if (keyWriter == null)
+                keyWriter = new Writer().setCanonicalMode();
+            int i = 0;
+            for (Object x : items) {
+                keyWriter.reset();
+                keyWriter.put(x);
+                encoded[i] = keyWriter.toByteArray();
+                if (map != null)
+                    values[i] = map.get(x);
+                order[i] = i++;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return compareEncoded(encoded[a], encoded[b]);
+                }
+            });
+            for (i = 0; i < size; i++) {
+                if (i > 0 && map != null && compareEncoded(encoded[order[i - 1]], encoded[order[i]]) == 0)
+                    throw new IllegalArgumentException("keys are equal in canonical encoding: " + order[i]);
+                writeBytes(encoded[order[i]]);
+                if (map != null)
+                    put(values[order[i]]);
+            }
+        }
+
+
         private void writeArray(Object[] array) throws IOException {
             if (!tryWriteReference(array)) {
                 writeHeader(TYPE_LIST, array.length);
@@ -466,56 +751,193 @@ public class Boss {
         private void writeArray(Collection<?> collection) throws IOException {
             if (!tryWriteReference(collection)) {
                 writeHeader(TYPE_LIST, collection.size());
+                if (canonical && collection instanceof Set) {
+                    // sets have no order
+                    writeSorted(collection, null);
+                    return;
+                }
                 for (Object x : collection)
                     put(x);
             }
         }
 
+        /**
+         * Set how the writer finds objects already written to replace them with references, see {@link CacheMode}.
+         * Should be called before writing the tree; objects written before are forgotten.
+         *
+         * @param mode       cache mode, {@link CacheMode#CONTENT} by default
+         * @param maxEntries maximum number of objects to remember; objects written after that are not replaced with
+         *                   references, so bigger values give more references in big trees at the cost of memory
+         *
+         * @return this instance to allow chaining calls
+         */
+        public Writer setCacheMode(CacheMode mode, int maxEntries) {
+            if (canonical && mode != CacheMode.NONE)
+                throw new IllegalStateException("canonical mode writes no references");
+            cacheMode = mode;
+            cache = new ReferenceCache(mode == CacheMode.CONTENT, maxEntries);
+            return this;
+        }
+
+        /**
+         * Set the cache mode with the default maximum number of remembered objects, see {@link
+         * #setCacheMode(CacheMode, int)}.
+         */
+        public Writer setCacheMode(CacheMode mode) {
+            return setCacheMode(mode, DEFAULT_CACHE_ENTRIES);
+        }
+
+        public CacheMode getCacheMode() {
+            return cacheMode;
+        }
+
+        /**
+         * Turn on the canonical mode: equal object trees are always encoded to the same bytes, so the encoded data
+         * could be compared, hashed or signed without re-packing. In the canonical mode map entries (and fields of
+         * {@link BossSerializable} objects) are sorted by encoded keys, items of {@link Set}s are sorted by their
+         * encoding, integers use the shortest form whatever their Java type is, and no references are written (see
+         * {@link CacheMode#NONE}). Lists keep their order.
+         * <p>
+         * Should be called before writing anything. The output is read by the usual {@link Reader}.
+         *
+         * @return this instance to allow chaining calls
+         *
+         * @throws IllegalArgumentException while writing, if two keys of the map have the same encoding, e.g. 1 and
+         *                                  1L
+         */
+        public Writer setCanonicalMode() {
+            canonical = true;
+            setCacheMode(CacheMode.NONE, 1);
+            return this;
+        }
+
+        public boolean isCanonicalMode() {
+            return canonical;
+        }
+
         private boolean tryWriteReference(Object obj) throws IOException {
-            Integer index = cache.get(obj);
-            if (index != null) {
-                writeHeader(TYPE_CREF, index);
+            // In the stream mode neither side caches
+            if (!treeMode)
+                return false;
+            // The reader caches every text, binary, list and map, so each gets the index even if not remembered
+            int index = nextIndex++;
+            if (cacheMode == CacheMode.NONE)
+                return false;
+            int found = cache.findOrAdd(obj, index);
+            if (found == 0 || !isShorterReference(obj, found))
+                return false;
+            nextIndex--;
+            writeHeader(TYPE_CREF, found);
+            return true;
+        }
+
+        /**
+         * Short texts and binaries are cheaper to repeat than to reference by the big index; containers are always
+         * referenced to keep the tree shape.
+         */
+        private static boolean isShorterReference(Object obj, int index) {
+            int referenceSize = headerSize(index);
+            if (referenceSize == 1)
                 return true;
+            if (obj instanceof String) {
+                String s = (String) obj;
+                // UTF-8 is never shorter than the number of chars
+                if (headerSize(s.length()) + s.length() >= referenceSize)
+                    return true;
+                int length = utf8Length(s);
+                return headerSize(length) + length >= referenceSize;
             }
-            // Cache put depends on the streamMode
-            if (treeMode)
-                cache.put(obj, cache.size());
-            return false;
+            if (obj instanceof byte[])
+                return headerSize(((byte[]) obj).length) + ((byte[]) obj).length >= referenceSize;
+            return true;
+        }
+
+        static private int headerSize(long value) {
+            return value < 23 ? 1 : 1 + sizeInBytes(value);
         }
 
-        private void writeHeader(int code, BigInteger value) throws IOException {
-            out.write(code | 0xF8);
+        protected void writeHeader(int code, BigInteger value) throws IOException {
+            writeByte(code | 0xF8);
             Bytes bb = Bytes.fromBigInt(value).flipSelf();
             writeEncoded(bb.size());
-            bb.write(out);
+            writeBytes(bb.toArray());
         }
 
-        private void writeHeader(int code, long value) throws IOException {
+        protected void writeHeader(int code, long value) throws IOException {
             assert code >= 0 && code <= 7;
             assert value >= 0;
             if (value < 23)
-                out.write(code | ((int) value << 3));
+                writeByte(code | ((int) value << 3));
             else {
                 int n = sizeInBytes(value);
                 if (n < 9) {
-                    out.write(code | ((n + 22) << 3));
+                    writeByte(code | ((n + 22) << 3));
                 } else {
-                    out.write(code | 0xF8);
+                    writeByte(code | 0xF8);
                     writeEncoded(n);
                 }
                 while (n-- > 0) {
-                    out.write((int) value & 0xFF);
+                    writeByte((int) value & 0xFF);
                     value >>>= 8;
                 }
             }
         }
 
-        private void writeEncoded(long value) throws IOException {
+        protected void writeEncoded(long value) throws IOException {
             while (value > 0x7f) {
-                out.write(((int) value) & 0x7f);
+                writeByte(((int) value) & 0x7f);
                 value >>= 7;
             }
-            out.write(((int) value) | 0x80);
+            writeByte(((int) value) | 0x80);
+        }
+
+        /**
+         * Write single byte of the encoded data. All the output goes through this method, {@link #writeBytes(byte[])}
+         * and {@link #writeText(String)}, so subclasses could write somewhere else than {@link OutputStream}.
+         *
+         * @param b byte to write, 0..255
+         *
+         * @throws IOException
+         */
+        protected void writeByte(int b) throws IOException {
+            out.write(b);
+        }
+
+        /**
+         * Write bytes of the encoded data.
+         *
+         * @param data to write
+         *
+         * @throws IOException
+         */
+        protected void writeBytes(byte[] data) throws IOException {
+            out.write(data);
+        }
+
+        /**
+         * Write text field: header and UTF-8 encoded string.
+         *
+         * @param s string to write
+         *
+         * @throws IOException
+         */
+        protected void writeText(String s) throws IOException {
+            byte[] bb = s.getBytes(StandardCharsets.UTF_8);
+            writeHeader(TYPE_TEXT, bb.length);
+            writeBytes(bb);
+        }
+
+        /**
+         * Forget all cached objects and return to the tree mode, so the writer could be reused for a new object
+         * tree. The cache map is cleared, not reallocated. If the writer was created with the default constructor,
+         * its output is discarded too; the stream passed to {@link #Writer(OutputStream)} is never touched.
+         */
+        public void reset() {
+            cache.clear();
+            nextIndex = 1;
+            treeMode = true;
+            if (ownsOutput)
+                ((ByteArrayOutputStream) out).reset();
         }
 
         public void flush() throws IOException {
@@ -543,84 +965,508 @@ public class Boss {
         }
     }
 
-    // private static final Charset utf8 = Charset.forName("utf8");
-
-    // private static void log(String s,Object... args) {
-    // if( args.length > 0)
-    // s = String.format(s, args);
-    // System.out.println(s);
-    // }
-
-    static public class Reader {
-
-        protected InputStream in;
-        protected boolean treeMode;
-        protected boolean showTrace = false;
-        private ArrayList<Object> cache;
-        private int maxCacheEntries, maxStringSize;
+    /**
+     * Writer that only counts the bytes it would write, see {@link #encodedSize(Object)}.
+     */
+    static private class SizeCounter extends Writer {
+        private long size;
 
-        public Reader(byte[] bytes) {
-            this(new ByteArrayInputStream(bytes));
+        SizeCounter() {
+            super((OutputStream) null);
         }
 
-        public Reader(InputStream stream) {
-            in = stream;
-            cache = new ArrayList<>();
-            treeMode = true;
+        @Override
+        protected void writeByte(int b) {
+            size++;
         }
 
-        public void traceObject() throws IOException {
-            Header h = readHeader();
-            System.out.println(h);
+        @Override
+        protected void writeBytes(byte[] data) {
+            size += data.length;
         }
 
-        private Header readHeader() throws IOException {
-            int b = readByte();
-            int code = b & 7;
-            int value = b >>> 3;
-            if (value >= 31) {
-                int length = (int) readEncodedLong();
-                return new Header(code, readBig(length));
-            } else if (value > 22) {
-                // up to 8 bytes, e.g. long
-                return new Header(code, readLong(value - 22));
-            }
-            return new Header(code, value);
+        @Override
+        protected void writeText(String s) throws IOException {
+            int length = utf8Length(s);
+            writeHeader(TYPE_TEXT, length);
+            size += length;
         }
+    }
+
+    /**
+     * BOSS encoder that writes directly to the {@link ByteBuffer} (heap or direct) or to the byte array, with no
+     * intermediate streams and copies; strings are UTF-8 encoded right into the buffer. The buffer should have enough
+     * room, use {@link Boss#encodedSize(Object)} to get the exact size, otherwise {@link
+     * java.nio.BufferOverflowException} is thrown.
+     * <p>
+     * The writer could be reused for many messages with {@link #reset(ByteBuffer)}, which keeps the allocated cache.
+     */
+    static public class BufferWriter extends Writer {
+
+        private ByteBuffer buffer;
 
         /**
-         * Read byte or throw EOFException
+         * Create writer that writes to the buffer starting from its position, advancing it.
          *
-         * @return 0..255 byte value
+         * @param buffer to write to
+         */
+        public BufferWriter(ByteBuffer buffer) {
+            super((OutputStream) null);
+            this.buffer = buffer;
+        }
+
+        /**
+         * Create writer that writes to the array starting from the offset.
          *
-         * @throws IOException
+         * @param target array to write to
+         * @param offset where to start
          */
-        private final int readByte() throws IOException {
-            int i = in.read();
-            if (i < 0)
-                throw new EOFException();
-            return i;
+        public BufferWriter(byte[] target, int offset) {
+            this(ByteBuffer.wrap(target, offset, target.length - offset));
         }
 
-        private long readEncodedLong() throws IOException {
-            long value = 0;
-            int shift = 0;
-            while (true) {
-                int n = readByte();
-                value |= ((long) n & 0x7F) << shift;
-                if ((n & 0x80) != 0)
-                    return value;
-                shift += 7;
-            }
+        /**
+         * Reset the writer (see {@link Writer#reset()}) and set the new buffer to write to, starting from its
+         * position.
+         *
+         * @param buffer to write to
+         */
+        public void reset(ByteBuffer buffer) {
+            reset();
+            this.buffer = buffer;
         }
 
-        private BigInteger readBig(int length) throws IOException {
-            Bytes bb = new Bytes(in, length);
-            bb.flipSelf();
-            return bb.toBigInteger();
+        /**
+         * @return the buffer the writer writes to; its position is the end of the written data
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
         }
 
-        private long readLong(int length) throws IOException {
+        /**
+         * @return absolute position in the buffer where the next byte will be written
+         */
+        public int position() {
+            return buffer.position();
+        }
+
+        @Override
+        protected void writeByte(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        protected void writeBytes(byte[] data) {
+            buffer.put(data);
+        }
+
+        @Override
+        protected void writeText(String s) throws IOException {
+            int length = utf8Length(s);
+            writeHeader(TYPE_TEXT, length);
+            if (buffer.remaining() < length)
+                throw new BufferOverflowException();
+            encodeUtf8(s, buffer);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        /**
+         * Nothing to close: the buffer is owned by the caller.
+         */
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Not supported: the data are in {@link #getBuffer()}.
+         */
+        @Override
+        public byte[] toByteArray() {
+            throw new IllegalStateException("BufferWriter writes to the buffer");
+        }
+    }
+
+    /**
+     * Order of encoded keys in the canonical mode: unsigned bytes, lexicographically.
+     */
+    static int compareEncoded(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i])
+                return (a[i] & 0xFF) - (b[i] & 0xFF);
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Writer that feeds the encoded data to the {@link Digest} instead of storing them, so content hashes of big
+     * object trees are calculated without the intermediate byte array. The writer is in the canonical mode (see
+     * {@link Writer#setCanonicalMode()}), so equal trees always give the same digest, and it is equal to the digest
+     * of {@link Boss#packCanonical(Object)}.
+     * <pre>
+     * byte[] hash = new DigestWriter(new Sha256()).writeObject(tree).digest();
+     * </pre>
+     * Small writes are collected in the internal buffer and passed to the digest by chunks.
+     */
+    static public class DigestWriter extends Writer {
+
+        private static final int CHUNK_SIZE = 512;
+
+        private final Digest digest;
+        private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+        /**
+         * Create writer in the canonical mode.
+         *
+         * @param digest new digest to update
+         */
+        public DigestWriter(Digest digest) {
+            super((OutputStream) null);
+            this.digest = digest;
+            setCanonicalMode();
+        }
+
+        /**
+         * Pass written data to the digest and calculate it. Nothing could be written after it.
+         *
+         * @return calculated digest
+         */
+        public byte[] digest() {
+            flush();
+            return digest.digest();
+        }
+
+        /**
+         * @return the digest being updated
+         */
+        public Digest getDigest() {
+            return digest;
+        }
+
+        @Override
+        public DigestWriter writeObject(Object obj) throws IOException {
+            super.writeObject(obj);
+            return this;
+        }
+
+        @Override
+        protected void writeByte(int b) {
+            if (!chunk.hasRemaining())
+                flush();
+            chunk.put((byte) b);
+        }
+
+        @Override
+        protected void writeBytes(byte[] data) {
+            if (data.length > chunk.remaining()) {
+                flush();
+                if (data.length >= CHUNK_SIZE) {
+                    digest.update(data, 0, data.length);
+                    return;
+                }
+            }
+            chunk.put(data);
+        }
+
+        @Override
+        protected void writeText(String s) throws IOException {
+            int length = utf8Length(s);
+            if (length >= CHUNK_SIZE) {
+                super.writeText(s);
+                return;
+            }
+            writeHeader(TYPE_TEXT, length);
+            if (chunk.remaining() < length)
+                flush();
+            encodeUtf8(s, chunk);
+        }
+
+        /**
+         * Pass the buffered data to the digest.
+         */
+        @Override
+        public void flush() {
+            if (chunk.position() > 0) {
+                digest.update(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+
+        /**
+         * Not supported: the data are hashed, not stored.
+         */
+        @Override
+        public byte[] toByteArray() {
+            throw new IllegalStateException("DigestWriter does not store data");
+        }
+
+        /**
+         * Not supported: the digest can't be reset.
+         */
+        @Override
+        public void reset() {
+            throw new IllegalStateException("DigestWriter can't be reset");
+        }
+    }
+
+    /**
+     * Length of the string in UTF-8, same as of {@link String#getBytes(java.nio.charset.Charset)}: unpaired surrogates
+     * are replaced with '?'.
+     */
+    static int utf8Length(String s) {
+        int length = s.length();
+        int result = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800)
+                    result++;
+                else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // 4 bytes for 2 chars
+                    result += 2;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // replaced with '?'
+                } else
+                    result += 2;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Encode the string to the buffer in UTF-8, same as {@link String#getBytes(java.nio.charset.Charset)} does.
+     */
+    static void encodeUtf8(String s, ByteBuffer buffer) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80)
+                buffer.put((byte) c);
+            else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c))
+                buffer.put((byte) '?');
+            else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    // private static final Charset utf8 = Charset.forName("utf8");
+
+    // private static void log(String s,Object... args) {
+    // if( args.length > 0)
+    // s = String.format(s, args);
+    // System.out.println(s);
+    // }
+
+    static public class Reader {
+
+        protected InputStream in;
+        protected boolean treeMode;
+        protected boolean showTrace = false;
+        private ArrayList<Object> cache;
+        private int maxCacheEntries, maxStringSize;
+
+        /**
+         * Cache placeholder for containers skipped with {@link #skipValue()}.
+         */
+        private static final Object SKIPPED = new Object();
+
+        // the last header decoded by decodeHeader()
+        private int headerCode;
+        private long headerValue;
+        private BigInteger headerBig;
+        // first byte of the next header read by peekByte(), or -1
+        private int peeked = -1;
+        private byte[] scratch;
+
+        public Reader(byte[] bytes) {
+            this(new ByteArrayInputStream(bytes));
+        }
+
+        public Reader(InputStream stream) {
+            in = stream;
+            cache = new ArrayList<>();
+            treeMode = true;
+        }
+
+        /**
+         * Constructor for readers that do not use {@link InputStream} and override all the reading primitives: {@link
+         * #readByte()}, {@link #readRaw(int)}, {@link #readText(int)} and {@link #readBinaryField(int)}.
+         */
+        protected Reader() {
+            this((InputStream) null);
+        }
+
+        public void traceObject() throws IOException {
+            Header h = readHeader();
+            System.out.println(h);
+        }
+
+        protected Header readHeader() throws IOException {
+            decodeHeader();
+            return headerBig != null ? new Header(headerCode, headerBig) : new Header(headerCode, headerValue);
+        }
+
+        /**
+         * Decode the next header into the reader fields, allocating nothing unless the value is too big for long.
+         */
+        private void decodeHeader() throws IOException {
+            int b;
+            if (peeked >= 0) {
+                b = peeked;
+                peeked = -1;
+            } else
+                b = readByte();
+            headerCode = b & 7;
+            int value = b >>> 3;
+            headerBig = null;
+            if (value >= 31) {
+                int length = (int) readEncodedLong();
+                headerBig = readBig(length);
+                headerValue = 0;
+            } else if (value > 22) {
+                // up to 8 bytes, e.g. long
+                headerValue = readLong(value - 22);
+            } else
+                headerValue = value;
+        }
+
+        /**
+         * Get the first byte of the next object without consuming it.
+         *
+         * @return 0..255 byte value
+         *
+         * @throws IOException
+         */
+        protected int peekByte() throws IOException {
+            if (peeked < 0)
+                peeked = readByte();
+            return peeked;
+        }
+
+        /**
+         * Read byte or throw EOFException
+         *
+         * @return 0..255 byte value
+         *
+         * @throws IOException
+         */
+        protected int readByte() throws IOException {
+            int i = in.read();
+            if (i < 0)
+                throw new EOFException();
+            return i;
+        }
+
+        protected long readEncodedLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                int n = readByte();
+                value |= ((long) n & 0x7F) << shift;
+                if ((n & 0x80) != 0)
+                    return value;
+                shift += 7;
+            }
+        }
+
+        protected BigInteger readBig(int length) throws IOException {
+            Bytes bb = new Bytes(readRaw(length));
+            bb.flipSelf();
+            return bb.toBigInteger();
+        }
+
+        /**
+         * Read exactly length bytes or throw EOFException
+         *
+         * @param length number of bytes to read, positive
+         *
+         * @return new array with the bytes read
+         *
+         * @throws IOException
+         */
+        protected byte[] readRaw(int length) throws IOException {
+            return new Bytes(in, length).toArray();
+        }
+
+        /**
+         * Read exactly length bytes into the array or throw EOFException
+         *
+         * @throws IOException
+         */
+        protected void readRawInto(byte[] target, int offset, int length) throws IOException {
+            while (length > 0) {
+                int n = in.read(target, offset, length);
+                if (n < 0)
+                    throw new EOFException();
+                offset += n;
+                length -= n;
+            }
+        }
+
+        /**
+         * Skip exactly length bytes or throw EOFException
+         *
+         * @throws IOException
+         */
+        protected void skipRaw(long length) throws IOException {
+            while (length > 0) {
+                long n = in.skip(length);
+                if (n <= 0) {
+                    readByte();
+                    n = 1;
+                }
+                length -= n;
+            }
+        }
+
+        /**
+         * Read the body of the text field.
+         *
+         * @param length of the UTF-8 encoded text in bytes
+         *
+         * @return decoded string
+         *
+         * @throws IOException
+         */
+        protected String readText(int length) throws IOException {
+            return length > 0 ? new Bytes(in, length).toString() : "";
+        }
+
+        /**
+         * Read the body of the binary field.
+         *
+         * @param length of the binary data
+         *
+         * @return the object to represent binary data, {@link Bytes} by default
+         *
+         * @throws IOException
+         */
+        protected Object readBinaryField(int length) throws IOException {
+            return length > 0 ? new Bytes(in, length) : new Bytes();
+        }
+
+        protected long readLong(int length) throws IOException {
             if (length <= 8) {
                 long res = 0;
                 int n = 0;
@@ -660,56 +1506,99 @@ public class Boss {
             return x;
         }
 
-        @SuppressWarnings("unchecked")
+        /**
+         * Read next object as the instance of the class annotated with {@link BossSerializable}: the map is decoded
+         * directly into the new instance, without the intermediate {@link HashMap}, see {@link BossCodec}. For other
+         * classes it is the same as {@link #read()} with the type check.
+         *
+         * @param type expected object type
+         *
+         * @return decoded object or null
+         *
+         * @throws IOException
+         */
+        public <T> T read(Class<T> type) throws IOException {
+            BossCodec<T> codec = BossCodec.find(type);
+            if (codec == null)
+                return type.cast(get());
+            // consumes the stream mode marker, if any
+            nextType();
+            decodeHeader();
+            if (headerCode != TYPE_DICT) {
+                Object x = decodeValue();
+                if (x == null || type.isInstance(x))
+                    return type.cast(x);
+                throw new IOException("Boss: can't decode " + type.getName() + " from " + x.getClass().getName());
+            }
+            T instance = codec.newInstance();
+            cacheObject(instance);
+            codec.readFields(this, instance, headerValue);
+            return instance;
+        }
+
         private <T> T get() throws IOException {
-            Header h = readHeader();
+            decodeHeader();
+            return decodeValue();
+        }
+
+        /**
+         * Decode the value which header is just decoded.
+         */
+        @SuppressWarnings("unchecked")
+        private <T> T decodeValue() throws IOException {
+            final int code = headerCode;
+            final long value = headerValue;
 //            trace("Header " + h);
-            switch (h.code) {
+            switch (code) {
                 case TYPE_INT:
 //                    trace("Int: " + h.smallestNumber(false));
-                    return (T) h.smallestNumber(false);
+                    return (T) smallestNumber(headerBig, value, false);
                 case TYPE_NINT:
-                    return (T) h.smallestNumber(true);
-                case TYPE_BIN:
+                    return (T) smallestNumber(headerBig, value, true);
                 case TYPE_TEXT: {
-                    Bytes bb = h.value > 0 ? new Bytes(in, (int) h.value) : new Bytes();
-                    if (h.code == TYPE_TEXT) {
-                        String s = bb.toString();
-                        cacheObject(s);
+                    String s = readText((int) value);
+                    cacheObject(s);
 //                        trace("t: " + s);
 //                        traceCache();
-                        return (T) s;
-                    }
+                    return (T) s;
+                }
+                case TYPE_BIN: {
+                    Object bb = readBinaryField((int) value);
                     cacheObject(bb);
                     return (T) bb;
                 }
                 case TYPE_LIST: {
-                    ArrayList data = new ArrayList((int) (h.value < 0x10000 ? h.value : 4096));
+                    ArrayList data = new ArrayList((int) (value < 0x10000 ? value : 4096));
                     cacheObject(data);
-                    for (int i = 0; i < h.value; i++)
+                    for (int i = 0; i < value; i++)
                         data.add(get());
                     return (T) data;
                 }
                 case TYPE_DICT: {
-                    return readObject(h);
+                    return readObject(value);
                 }
                 case TYPE_CREF:
-                    int i = (int) h.value;
+                    int i = (int) value;
 //                    trace(String.format("Get from cache %d -> %s", h.value,
 //                                        i == 0 ? null : cache.get(i - 1)
 //                    ));
 //                    traceCache();
-                    return i == 0 ? null : (T) cache.get(i - 1);
+                    if (i == 0)
+                        return null;
+                    Object x = cache.get(i - 1);
+                    if (x == SKIPPED)
+                        throw new IOException("Boss: reference to the skipped object");
+                    return (T) x;
                 case TYPE_EXTRA:
-                    return (T) parseExtra((int) h.value);
+                    return (T) parseExtra((int) value);
             }
             throw new IOException("Bad BOSS header");
         }
 
-        private <T> T readObject(Header h) throws IOException {
+        private <T> T readObject(long size) throws IOException {
             Map hash = new HashMap();
             cacheObject(hash);
-            for (int i = 0; i < h.value; i++)
+            for (int i = 0; i < size; i++)
                 hash.put(get(), get());
 //            if( hash.containsKey("__type") || hash.containsKey("__t"))
 //                return (T) deserializer.deserialize(hash);
@@ -717,16 +1606,195 @@ public class Boss {
             return (T) hash;
         }
 
+        /**
+         * Read the number as int. Integers are decoded without boxing.
+         *
+         * @throws IOException
+         */
         public int readInt() throws IOException {
-            Number n = get();
+            decodeHeader();
+            if (headerBig == null && (headerCode == TYPE_INT || headerCode == TYPE_NINT))
+                return (int) (headerCode == TYPE_NINT ? -headerValue : headerValue);
+            Number n = decodeValue();
             return n.intValue();
         }
 
+        /**
+         * Get the type of the next value without reading it. The stream mode marker, if any, is consumed.
+         *
+         * @return type of the next value
+         *
+         * @throws IOException
+         */
+        public Type nextType() throws IOException {
+            while (true) {
+                int b = peekByte();
+                int value = b >>> 3;
+                switch (b & 7) {
+                    case TYPE_INT:
+                    case TYPE_NINT:
+                        return Type.INT;
+                    case TYPE_TEXT:
+                        return Type.TEXT;
+                    case TYPE_BIN:
+                        return Type.BINARY;
+                    case TYPE_LIST:
+                        return Type.LIST;
+                    case TYPE_DICT:
+                        return Type.MAP;
+                    case TYPE_CREF:
+                        return value == 0 ? Type.NULL : Type.REFERENCE;
+                    case TYPE_EXTRA:
+                        switch (value) {
+                            case XT_DZERO:
+                            case XT_DONE:
+                            case XT_DMINUSONE:
+                            case XT_DOUBLE:
+                                return Type.DOUBLE;
+                            case XT_TTRUE:
+                            case XT_FALSE:
+                                return Type.BOOLEAN;
+                            case XT_TIME:
+                                return Type.DATE;
+                            case XT_STREAM_MODE:
+                                decodeHeader();
+                                setStreamMode();
+                                continue;
+                        }
+                        throw new IllegalArgumentException(String.format("Unknown extra code: %d", value));
+                }
+            }
+        }
+
+        /**
+         * Read the binary field into the array. In the tree mode the reader still keeps a copy, as the binary could
+         * be referenced later.
+         *
+         * @param target array to read into
+         * @param offset position in target
+         *
+         * @return length of the binary or -1 if null was read
+         *
+         * @throws IOException
+         * @throws IllegalArgumentException if the binary does not fit in the target
+         */
+        public int readBinaryInto(byte[] target, int offset) throws IOException {
+            decodeHeader();
+            if (headerCode == TYPE_BIN) {
+                int length = (int) headerValue;
+                if (target.length - offset < length)
+                    throw new IllegalArgumentException("binary does not fit in the target: " + length);
+                readRawInto(target, offset, length);
+                if (treeMode || length <= maxStringSize)
+                    cacheObject(new Bytes(Arrays.copyOfRange(target, offset, offset + length)));
+                return length;
+            }
+            Object x = decodeValue();
+            if (x == null)
+                return -1;
+            byte[] data;
+            if (x instanceof ByteBuffer) {
+                ByteBuffer bb = ((ByteBuffer) x).duplicate();
+                if (target.length - offset < bb.remaining())
+                    throw new IllegalArgumentException("binary does not fit in the target: " + bb.remaining());
+                int length = bb.remaining();
+                bb.get(target, offset, length);
+                return length;
+            }
+            data = x instanceof Bytes ? ((Bytes) x).toArray() : (byte[]) x;
+            if (target.length - offset < data.length)
+                throw new IllegalArgumentException("binary does not fit in the target: " + data.length);
+            System.arraycopy(data, 0, target, offset, data.length);
+            return data.length;
+        }
+
+        /**
+         * Read the text that is expected to be ASCII, e.g. protocol keys and identifiers, faster than the general
+         * UTF-8 decoding. Non-ASCII texts are still decoded properly.
+         *
+         * @return string or null if null was read
+         *
+         * @throws IOException
+         */
+        public String readStringAscii() throws IOException {
+            decodeHeader();
+            if (headerCode != TYPE_TEXT)
+                return decodeValue();
+            int length = (int) headerValue;
+            if (scratch == null || scratch.length < length)
+                scratch = new byte[Math.max(length, 64)];
+            readRawInto(scratch, 0, length);
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                if (scratch[i] < 0) {
+                    ascii = false;
+                    break;
+                }
+            }
+            String s = new String(scratch, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            cacheObject(s);
+            return s;
+        }
+
+        /**
+         * Skip the next value with all its children without constructing it. In the stream mode nothing is decoded
+         * at all. In the tree mode texts and binaries are still decoded and cached, as they could be referenced
+         * later; skipped maps and lists could not be referenced: reading the reference to them throws IOException.
+         *
+         * @throws IOException
+         */
+        public void skipValue() throws IOException {
+            long pending = 1;
+            while (pending > 0) {
+                decodeHeader();
+                pending--;
+                final long value = headerValue;
+                switch (headerCode) {
+                    case TYPE_TEXT:
+                        if (treeMode)
+                            cacheObject(readText((int) value));
+                        else
+                            skipRaw(value);
+                        break;
+                    case TYPE_BIN:
+                        if (treeMode)
+                            cacheObject(readBinaryField((int) value));
+                        else
+                            skipRaw(value);
+                        break;
+                    case TYPE_LIST:
+                    case TYPE_DICT:
+                        if (treeMode)
+                            cacheObject(SKIPPED);
+                        pending += headerCode == TYPE_LIST ? value : 2 * value;
+                        break;
+                    case TYPE_EXTRA:
+                        if (value == XT_STREAM_MODE) {
+                            setStreamMode();
+                            pending++;
+                        } else if (value == XT_DOUBLE)
+                            skipRaw(8);
+                        else if (value == XT_TIME)
+                            readEncodedLong();
+                        break;
+                    // integers and references are header only
+                }
+            }
+        }
+
         List<Object> getCache() {
             return cache;
         }
 
-        private void cacheObject(Object obj) {
+        /**
+         * Forget all cached objects and return to the tree mode, as if the reader were just created.
+         */
+        void resetCache() {
+            cache.clear();
+            treeMode = true;
+        }
+
+        protected void cacheObject(Object obj) {
             if (treeMode)
                 cache.add(obj);
             else {
@@ -737,6 +1805,8 @@ public class Boss {
                     len = ((Bytes) obj).size();
                 } else if (obj instanceof byte[]) {
                     len = ((byte[]) obj).length;
+                } else if (obj instanceof ByteBuffer) {
+                    len = ((ByteBuffer) obj).remaining();
                 } else {
 //                    trace("Can't cache it in treemode! : " + obj);
                     return;
@@ -749,7 +1819,7 @@ public class Boss {
             }
         }
 
-        private Object parseExtra(int code) throws IOException {
+        protected Object parseExtra(int code) throws IOException {
             switch (code) {
                 case XT_DZERO:
 //                    trace("extra 0");
@@ -770,12 +1840,12 @@ public class Boss {
                     setStreamMode();
                     return get();
                 case XT_DOUBLE:
-                    return new Bytes(in, 8).toDouble();
+                    return Double.longBitsToDouble(readLong(8));
             }
             throw new IllegalArgumentException(String.format("Unknown extra code: %d", code));
         }
 
-        private void setStreamMode() throws IOException {
+        protected void setStreamMode() throws IOException {
             if (cache.size() > 0)
                 cache = new ArrayList<>();
             treeMode = false;
@@ -805,6 +1875,12 @@ public class Boss {
                 return null;
             if (x.getClass().isArray())
                 return (byte[]) x;
+            if (x instanceof ByteBuffer) {
+                ByteBuffer bb = ((ByteBuffer) x).duplicate();
+                byte[] result = new byte[bb.remaining()];
+                bb.get(result);
+                return result;
+            }
             return ((Bytes) x).toArray();
         }
 
@@ -830,11 +1906,509 @@ public class Boss {
             return (Map<String, Object>) get();
         }
 
+        /**
+         * Read the number as double. Doubles and integers are decoded without boxing.
+         *
+         * @throws IOException
+         */
+        public double readDouble() throws IOException {
+            decodeHeader();
+            if (headerCode == TYPE_EXTRA) {
+                switch ((int) headerValue) {
+                    case XT_DZERO:
+                        return 0;
+                    case XT_DONE:
+                        return 1;
+                    case XT_DMINUSONE:
+                        return -1;
+                    case XT_DOUBLE:
+                        return Double.longBitsToDouble(readLong(8));
+                }
+            } else if (headerBig == null && (headerCode == TYPE_INT || headerCode == TYPE_NINT))
+                return headerCode == TYPE_NINT ? -headerValue : headerValue;
+            Number n = decodeValue();
+            return n.doubleValue();
+        }
+
+        /**
+         * Read the number as long. Integers are decoded without boxing.
+         *
+         * @throws IOException
+         */
         public long readLong() throws IOException {
-            Number n = get();
+            decodeHeader();
+            if (headerBig == null && (headerCode == TYPE_INT || headerCode == TYPE_NINT))
+                return headerCode == TYPE_NINT ? -headerValue : headerValue;
+            Number n = decodeValue();
             return n.longValue();
         }
     }
-}
 
+    /**
+     * BOSS decoder that reads directly from the {@link ByteBuffer}: heap, direct or memory-mapped. Headers are decoded
+     * with absolute gets, so neither the data is copied nor the buffer position is changed. Binary fields are returned
+     * as read-only {@link ByteBuffer} slices of the source buffer instead of {@link Bytes}, so scanning big
+     * memory-mapped files allocates almost nothing but the decoded strings and containers.
+     * <p>
+     * Slices share the memory of the source buffer: they are valid as long as the buffer is, and for the mapped
+     * buffer they reflect changes of the file. Use {@link #readBinary()} to get the copy. The single buffer could not
+     * be bigger than 2Gb, so bigger files should be mapped by parts at object boundaries, which {@link #position()}
+     * reports.
+     */
+    static public class BufferReader extends Reader {
+
+        private final ByteBuffer buffer;
+        private final int limit;
+        private int position;
+        private byte[] textBuffer;
+        private ByteBuffer view;
+
+        /**
+         * Create reader that decodes the remaining part of the buffer, from its position to the limit.
+         *
+         * @param buffer to read from, its position and limit are not changed
+         */
+        public BufferReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.position = buffer.position();
+            this.limit = buffer.limit();
+        }
+
+        /**
+         * @return absolute position in the buffer of the next object to read
+         */
+        public int position() {
+            return position;
+        }
+
+        /**
+         * Set absolute position in the buffer to read the next object from. It should point to the start of the
+         * object, e.g. obtained from {@link #position()}. Note that in tree mode references could point to
+         * objects that were skipped.
+         */
+        public void position(int position) {
+            if (position < 0 || position > limit)
+                throw new IllegalArgumentException("position out of buffer bounds: " + position);
+            this.position = position;
+        }
+
+        /**
+         * @return true if there are more bytes to decode
+         */
+        public boolean hasRemaining() {
+            return position < limit;
+        }
+
+        /**
+         * Read the binary field as the read-only slice of the buffer; no data is copied.
+         *
+         * @return slice or null if null reference was read
+         *
+         * @throws IOException
+         */
+        public ByteBuffer readByteBuffer() throws IOException {
+            Object x = read();
+            if (x == null || x instanceof ByteBuffer)
+                return (ByteBuffer) x;
+            return ByteBuffer.wrap(((Bytes) x).toArray()).asReadOnlyBuffer();
+        }
+
+        /**
+         * Read the binary field and copy it to {@link Bytes}.
+         */
+        @Override
+        public Bytes readBytes() throws IOException {
+            byte[] data = readBinary();
+            return data == null ? null : new Bytes(data);
+        }
+
+        @Override
+        protected int readByte() throws IOException {
+            if (position >= limit)
+                throw new EOFException();
+            return buffer.get(position++) & 0xFF;
+        }
+
+        /**
+         * Does not consume the byte, so {@link #position()} stays at the start of the next object.
+         */
+        @Override
+        protected int peekByte() throws IOException {
+            if (position >= limit)
+                throw new EOFException();
+            return buffer.get(position) & 0xFF;
+        }
+
+        @Override
+        protected long readLong(int length) throws IOException {
+            if (length > 8)
+                throw new IllegalArgumentException("readlLong needs up to 8 bytes as length");
+            require(length);
+            long res = 0;
+            for (int n = 0; n < length; n++)
+                res |= ((long) (buffer.get(position++) & 0xFF)) << (n * 8);
+            return res;
+        }
+
+        @Override
+        protected byte[] readRaw(int length) throws IOException {
+            require(length);
+            byte[] data = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            source.get(data);
+            position += length;
+            return data;
+        }
+
+        @Override
+        protected void readRawInto(byte[] target, int offset, int length) throws IOException {
+            require(length);
+            if (view == null)
+                view = buffer.duplicate();
+            view.limit(limit).position(position);
+            view.get(target, offset, length);
+            position += length;
+        }
+
+        @Override
+        protected void skipRaw(long length) throws IOException {
+            if (length > Integer.MAX_VALUE)
+                throw new EOFException();
+            require((int) length);
+            position += (int) length;
+        }
+
+        @Override
+        protected String readText(int length) throws IOException {
+            require(length);
+            String result;
+            if (buffer.hasArray()) {
+                result = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+            } else {
+                if (textBuffer == null || textBuffer.length < length)
+                    textBuffer = new byte[Math.max(length, 256)];
+                ByteBuffer source = buffer.duplicate();
+                source.position(position);
+                source.get(textBuffer, 0, length);
+                result = new String(textBuffer, 0, length, StandardCharsets.UTF_8);
+            }
+            position += length;
+            return result;
+        }
+
+        @Override
+        protected Object readBinaryField(int length) throws IOException {
+            require(length);
+            ByteBuffer source = buffer.duplicate();
+            source.limit(position + length).position(position);
+            position += length;
+            return source.slice().asReadOnlyBuffer();
+        }
+
+        /**
+         * Nothing to close: the buffer is owned by the caller.
+         */
+        @Override
+        public void close() {
+        }
+
+        private void require(int length) throws EOFException {
+            if (length < 0 || limit - position < length)
+                throw new EOFException();
+        }
+    }
+
+    /**
+     * Pull (event) parser for Boss streams of any size. Instead of whole objects it returns events: start of the map
+     * or list, map key, value, end of the container, so the caller could filter, hash or transcode the data without
+     * keeping it in memory:
+     * <pre>
+     * EventReader r = new EventReader(in);
+     * EventReader.Event e;
+     * while ((e = r.next()) != null) {
+     *     switch (e) {
+     *         case START_MAP: ... r.getSize() entries follow
+     *         case KEY: ... r.getValue()
+     *         ...
+     *     }
+     * }
+     * </pre>
+     * Maps and lists are never constructed. Keys that are maps or lists are reported as START_MAP or START_LIST with
+     * {@link #isKey()} set. Texts are decoded on the spot; bodies of binaries are read only when {@link #getValue()}
+     * is called or could be copied with {@link #transferBinary(OutputStream)} in chunks, otherwise they are skipped.
+     * <p>
+     * References to already read texts and binaries are resolved to their values as in {@link Reader}. References to
+     * maps, lists and skipped binaries are reported as {@link Event#REFERENCE} with the cache index. Note that in the
+     * tree mode the reader remembers all texts and binaries, as any of them could be referenced later; the stream mode
+     * (see {@link Writer#setStreamMode()}) has no such overhead, so huge documents should be written in it.
+     */
+    static public class EventReader extends Reader {
+
+        public enum Event {
+            /**
+             * Map starts, {@link #getSize()} entries follow (keys and values), then {@link #END}
+             */
+            START_MAP,
+            /**
+             * List starts, {@link #getSize()} items follow, then {@link #END}
+             */
+            START_LIST,
+            /**
+             * Map key that is not a container, see {@link #getValue()}
+             */
+            KEY,
+            /**
+             * Value that is not a container, see {@link #getValue()}
+             */
+            VALUE,
+            /**
+             * Reference to the map, the list or the skipped binary, see {@link #getReferenceIndex()}
+             */
+            REFERENCE,
+            /**
+             * End of the current map or list
+             */
+            END
+        }
+
+        /**
+         * Cache placeholder for objects that are not kept: maps, lists and not read binaries.
+         */
+        private static final Object NOT_KEPT = new Object();
+
+        private static final int TRANSFER_BUFFER_SIZE = 8192;
+
+        private long[] remaining = new long[16];
+        private boolean[] inMap = new boolean[16];
+        private int depth;
+
+        private Event event;
+        private boolean key;
+        private Object value;
+        private long size;
+        private int referenceIndex;
+        private boolean binary;
+        // unread binary body
+        private long pendingLength = -1;
+        private int pendingCacheIndex = -1;
+        private int pushedBack = -1;
+
+        public EventReader(InputStream stream) {
+            super(stream);
+        }
+
+        /**
+         * Read the next event.
+         *
+         * @return next event or null if the stream has ended between top-level objects
+         *
+         * @throws IOException if the stream ends inside of the object or the data are not valid
+         */
+        public Event next() throws IOException {
+            skipPendingBinary();
+            value = null;
+            binary = false;
+            key = false;
+            if (depth > 0 && remaining[depth - 1] == 0) {
+                depth--;
+                return event = Event.END;
+            }
+            if (depth == 0) {
+                pushedBack = in.read();
+                if (pushedBack < 0)
+                    return event = null;
+            }
+            Header h = readHeader();
+            if (depth > 0) {
+                key = inMap[depth - 1] && remaining[depth - 1] % 2 == 0;
+                remaining[depth - 1]--;
+            }
+            switch (h.code) {
+                case TYPE_INT:
+                    value = h.smallestNumber(false);
+                    break;
+                case TYPE_NINT:
+                    value = h.smallestNumber(true);
+                    break;
+                case TYPE_TEXT:
+                    value = readText((int) h.value);
+                    cacheObject(value);
+                    break;
+                case TYPE_BIN:
+                    binary = true;
+                    size = h.value;
+                    pendingLength = h.value;
+                    if (treeMode) {
+                        pendingCacheIndex = getCache().size();
+                        cacheObject(NOT_KEPT);
+                    }
+                    break;
+                case TYPE_LIST:
+                case TYPE_DICT:
+                    if (treeMode)
+                        cacheObject(NOT_KEPT);
+                    push(h.code == TYPE_DICT, h.code == TYPE_DICT ? 2 * h.value : h.value);
+                    size = h.value;
+                    return event = h.code == TYPE_DICT ? Event.START_MAP : Event.START_LIST;
+                case TYPE_CREF: {
+                    int i = (int) h.value;
+                    Object x = i == 0 ? null : getCache().get(i - 1);
+                    if (x == NOT_KEPT) {
+                        referenceIndex = i;
+                        return event = Event.REFERENCE;
+                    }
+                    value = x;
+                    break;
+                }
+                case TYPE_EXTRA:
+                    if (h.value == XT_STREAM_MODE) {
+                        // the marker is not an object itself
+                        setStreamMode();
+                        if (depth > 0)
+                            remaining[depth - 1]++;
+                        return next();
+                    }
+                    value = parseExtra((int) h.value);
+                    break;
+                default:
+                    throw new IOException("Bad BOSS header");
+            }
+            return event = key ? Event.KEY : Event.VALUE;
+        }
+
+        /**
+         * @return the last event returned by {@link #next()}
+         */
+        public Event getEvent() {
+            return event;
+        }
+
+        /**
+         * Get the value of {@link Event#KEY} or {@link Event#VALUE}. Binary body is read on the first call.
+         *
+         * @return decoded value, binaries are returned as {@link Bytes}
+         *
+         * @throws IOException
+         */
+        public Object getValue() throws IOException {
+            if (pendingLength >= 0) {
+                Bytes bb = pendingLength > 0 ? new Bytes(readRaw((int) pendingLength)) : new Bytes();
+                pendingLength = -1;
+                if (pendingCacheIndex >= 0) {
+                    getCache().set(pendingCacheIndex, bb);
+                    pendingCacheIndex = -1;
+                }
+                value = bb;
+            }
+            return value;
+        }
+
+        /**
+         * Copy the body of the current binary value to the stream by chunks, without keeping it in memory. Later
+         * references to this binary will be reported as {@link Event#REFERENCE}.
+         *
+         * @param out where to copy the binary
+         *
+         * @return number of bytes copied
+         *
+         * @throws IOException
+         * @throws IllegalStateException if the current event is not a binary or its body is already read
+         */
+        public long transferBinary(OutputStream out) throws IOException {
+            if (pendingLength < 0)
+                throw new IllegalStateException("no binary body to transfer");
+            long length = pendingLength;
+            pendingLength = -1;
+            pendingCacheIndex = -1;
+            byte[] buffer = new byte[(int) Math.min(TRANSFER_BUFFER_SIZE, Math.max(length, 1))];
+            long left = length;
+            while (left > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (n < 0)
+                    throw new EOFException();
+                out.write(buffer, 0, n);
+                left -= n;
+            }
+            return length;
+        }
 
+        /**
+         * @return true if the current value is binary
+         */
+        public boolean isBinary() {
+            return binary;
+        }
+
+        /**
+         * @return length of the current binary value in bytes
+         */
+        public long getBinaryLength() {
+            return binary ? size : 0;
+        }
+
+        /**
+         * @return true if the current event is the map key: {@link Event#KEY} or the start of the container used as
+         * a key
+         */
+        public boolean isKey() {
+            return key;
+        }
+
+        /**
+         * @return number of items in the started list or entries in the started map
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return cache index of the referenced object for {@link Event#REFERENCE}
+         */
+        public int getReferenceIndex() {
+            return referenceIndex;
+        }
+
+        /**
+         * @return number of containers the reader is in now
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        @Override
+        protected int readByte() throws IOException {
+            if (pushedBack >= 0) {
+                int b = pushedBack;
+                pushedBack = -1;
+                return b;
+            }
+            return super.readByte();
+        }
+
+        private void push(boolean map, long items) {
+            if (depth == remaining.length) {
+                remaining = Arrays.copyOf(remaining, depth * 2);
+                inMap = Arrays.copyOf(inMap, depth * 2);
+            }
+            remaining[depth] = items;
+            inMap[depth++] = map;
+        }
+
+        private void skipPendingBinary() throws IOException {
+            if (pendingLength < 0)
+                return;
+            long left = pendingLength;
+            pendingLength = -1;
+            pendingCacheIndex = -1;
+            while (left > 0) {
+                long n = in.skip(left);
+                if (n <= 0) {
+                    readByte();
+                    n = 1;
+                }
+                left -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.threeten.bp.ZonedDateTime;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled codec of the class annotated with {@link BossSerializable}. The instance is encoded as the Boss map of its
+ * fields, keyed by field names or {@link BossField} values, so the wire format is the same as of the map route
+ * (converting the object to <code>HashMap&lt;String,Object&gt;</code> and packing it), and either side could use
+ * maps. But neither the map nor boxed primitives are allocated: fields are accessed with {@link MethodHandle}s
+ * resolved once per class, and primitive fields are written and read with {@link Boss.Writer} and {@link
+ * Boss.Reader} primitive methods.
+ * <p>
+ * Fields of the nested {@link BossSerializable} types are decoded with their codecs; fields of other types are
+ * decoded as with {@link Boss#load(byte[])} and must be assignable from the result: e.g. binaries are {@link Bytes},
+ * lists are {@link ArrayList} and dates are {@link ZonedDateTime} (or {@link Date} fields). Keys that have no
+ * corresponding fields are ignored, missing keys leave fields with values set by the constructor.
+ * <p>
+ * Codecs are created on demand and cached per class; use {@link #of(Class)} to check the class in advance. Thread
+ * safe.
+ */
+public final class BossCodec<T> {
+
+    private static final ClassValue<BossCodec<?>> codecs = new ClassValue<BossCodec<?>>() {
+        @Override
+        protected BossCodec<?> computeValue(Class<?> type) {
+            // null for not annotated classes, so the annotation is checked once
+            return type.isAnnotationPresent(BossSerializable.class) ? new BossCodec<>(type) : null;
+        }
+    };
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private final Class<T> type;
+    private final MethodHandle constructor;
+    private final FieldCodec[] fields;
+    // fields in the order of encoded keys, for the canonical mode
+    private final FieldCodec[] canonicalFields;
+    private final Map<String, FieldCodec> fieldsByKey = new HashMap<>();
+
+    /**
+     * Get the codec of the class.
+     *
+     * @param type class annotated with {@link BossSerializable}
+     *
+     * @return cached codec
+     *
+     * @throws IllegalArgumentException if the class is not annotated or can't be encoded, e.g. has no no-arg
+     *                                  constructor or has final fields
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BossCodec<T> of(Class<T> type) {
+        BossCodec<T> codec = find(type);
+        if (codec == null)
+            throw new IllegalArgumentException("class is not annotated with @BossSerializable: " + type.getName());
+        return codec;
+    }
+
+    /**
+     * @return codec of the type or null if it is not annotated with {@link BossSerializable}
+     */
+    @SuppressWarnings("unchecked")
+    static <T> BossCodec<T> find(Class<?> type) {
+        return (BossCodec<T>) codecs.get(type);
+    }
+
+    private BossCodec(Class<T> type) {
+        this.type = type;
+        try {
+            Constructor<T> c = type.getDeclaredConstructor();
+            c.setAccessible(true);
+            constructor = lookup.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("no accessible no-arg constructor in " + type.getName(), e);
+        }
+        List<FieldCodec> list = new ArrayList<>();
+        collectFields(type, list);
+        fields = list.toArray(new FieldCodec[list.size()]);
+        for (FieldCodec f : fields) {
+            if (fieldsByKey.put(f.key, f) != null)
+                throw new IllegalArgumentException("duplicate key '" + f.key + "' in " + type.getName());
+        }
+        canonicalFields = fields.clone();
+        Arrays.sort(canonicalFields, new Comparator<FieldCodec>() {
+            @Override
+            public int compare(FieldCodec a, FieldCodec b) {
+                return Boss.compareEncoded(a.encodedKey, b.encodedKey);
+            }
+        });
+    }
+
+    /**
+     * Add fields of superclasses first, then declared fields.
+     */
+    private static void collectFields(Class<?> type, List<FieldCodec> list) {
+        if (type.getSuperclass() != null && type.getSuperclass() != Object.class)
+            collectFields(type.getSuperclass(), list);
+        for (Field f : type.getDeclaredFields()) {
+            int modifiers = f.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || f.isSynthetic())
+                continue;
+            if (Modifier.isFinal(modifiers))
+                throw new IllegalArgumentException("final fields are not supported: " + f);
+            list.add(new FieldCodec(f));
+        }
+    }
+
+    /**
+     * @return the encoded class
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+    @SuppressWarnings("unchecked")
+    T newInstance() throws IOException {
+        try {
+            return (T) (Object) constructor.invokeExact();
+        } catch (Throwable t) {
+            throw new IOException("Boss: can't create " + type.getName(), t);
+        }
+    }
+
+    /**
+     * Write the map of fields; the caller has checked the reference.
+     */
+    void writeFields(Boss.Writer writer, Object instance) throws IOException {
+        writer.writeHeader(Boss.TYPE_DICT, fields.length);
+        for (FieldCodec f : writer.isCanonicalMode() ? canonicalFields : fields) {
+            writer.writeObject(f.key);
+            try {
+                f.write(writer, instance);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalArgumentException("can't get " + f.field, t);
+            }
+        }
+    }
+
+    /**
+     * Read size key-value pairs into the instance; the caller has read the map header.
+     */
+    void readFields(Boss.Reader reader, Object instance, long size) throws IOException {
+        for (long i = 0; i < size; i++) {
+            Object key = reader.read();
+            FieldCodec f = fieldsByKey.get(key);
+            if (f == null) {
+                // unknown key, still decoded to keep references right
+                reader.read();
+                continue;
+            }
+            try {
+                f.read(reader, instance);
+            } catch (IOException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IOException("Boss: can't set " + f.field, t);
+            }
+        }
+    }
+
+    private enum Kind {BOOLEAN, BYTE, SHORT, INT, LONG, FLOAT, DOUBLE, CODEC, DATE, OBJECT}
+
+    private static final class FieldCodec {
+        final Field field;
+        final String key;
+        final byte[] encodedKey;
+        final Kind kind;
+        final Class<?> boxedType;
+        final MethodHandle getter;
+        final MethodHandle setter;
+
+        FieldCodec(Field field) {
+            this.field = field;
+            BossField annotation = field.getAnnotation(BossField.class);
+            key = annotation != null ? annotation.value() : field.getName();
+            encodedKey = Boss.pack(key);
+            Class<?> t = field.getType();
+            if (t == boolean.class)
+                kind = Kind.BOOLEAN;
+            else if (t == byte.class)
+                kind = Kind.BYTE;
+            else if (t == short.class)
+                kind = Kind.SHORT;
+            else if (t == int.class)
+                kind = Kind.INT;
+            else if (t == long.class)
+                kind = Kind.LONG;
+            else if (t == float.class)
+                kind = Kind.FLOAT;
+            else if (t == double.class)
+                kind = Kind.DOUBLE;
+            else if (t == char.class)
+                throw new IllegalArgumentException("char fields are not supported: " + field);
+            else if (t.isAnnotationPresent(BossSerializable.class))
+                kind = Kind.CODEC;
+            else if (t == Date.class)
+                kind = Kind.DATE;
+            else
+                kind = Kind.OBJECT;
+            boxedType = MethodType.methodType(t).wrap().returnType();
+            try {
+                field.setAccessible(true);
+                MethodHandle g = lookup.unreflectGetter(field);
+                MethodHandle s = lookup.unreflectSetter(field);
+                if (t.isPrimitive()) {
+                    getter = g.asType(MethodType.methodType(t, Object.class));
+                    setter = s.asType(MethodType.methodType(void.class, Object.class, t));
+                } else {
+                    getter = g.asType(MethodType.methodType(Object.class, Object.class));
+                    setter = s.asType(MethodType.methodType(void.class, Object.class, Object.class));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("can't access " + field, e);
+            }
+        }
+
+        void write(Boss.Writer writer, Object instance) throws Throwable {
+            switch (kind) {
+                case BOOLEAN:
+                    writer.putBoolean((boolean) getter.invokeExact(instance));
+                    break;
+                case BYTE:
+                    writer.putLong((byte) getter.invokeExact(instance));
+                    break;
+                case SHORT:
+                    writer.putLong((short) getter.invokeExact(instance));
+                    break;
+                case INT:
+                    writer.putLong((int) getter.invokeExact(instance));
+                    break;
+                case LONG:
+                    writer.putLong((long) getter.invokeExact(instance));
+                    break;
+                case FLOAT:
+                    writer.putDouble((float) getter.invokeExact(instance));
+                    break;
+                case DOUBLE:
+                    writer.putDouble((double) getter.invokeExact(instance));
+                    break;
+                default:
+                    writer.writeObject((Object) getter.invokeExact(instance));
+            }
+        }
+
+        void read(Boss.Reader reader, Object instance) throws Throwable {
+            switch (kind) {
+                case BOOLEAN:
+                    setter.invokeExact(instance, (boolean) reader.<Boolean>read());
+                    break;
+                case BYTE:
+                    setter.invokeExact(instance, (byte) reader.readLong());
+                    break;
+                case SHORT:
+                    setter.invokeExact(instance, (short) reader.readLong());
+                    break;
+                case INT:
+                    setter.invokeExact(instance, (int) reader.readLong());
+                    break;
+                case LONG:
+                    setter.invokeExact(instance, reader.readLong());
+                    break;
+                case FLOAT:
+                    setter.invokeExact(instance, (float) reader.readDouble());
+                    break;
+                case DOUBLE:
+                    setter.invokeExact(instance, reader.readDouble());
+                    break;
+                case CODEC:
+                    setter.invokeExact(instance, (Object) reader.read(field.getType()));
+                    break;
+                default:
+                    setter.invokeExact(instance, convert(reader.read()));
+            }
+        }
+
+        private Object convert(Object value) throws IOException {
+            if (value == null || boxedType.isInstance(value))
+                return value;
+            if (value instanceof Number) {
+                Number n = (Number) value;
+                if (boxedType == Long.class)
+                    return n.longValue();
+                if (boxedType == Integer.class)
+                    return n.intValue();
+                if (boxedType == Double.class)
+                    return n.doubleValue();
+                if (boxedType == Float.class)
+                    return n.floatValue();
+                if (boxedType == Short.class)
+                    return n.shortValue();
+                if (boxedType == Byte.class)
+                    return n.byteValue();
+            }
+            if (kind == Kind.DATE && value instanceof ZonedDateTime)
+                return new Date(((ZonedDateTime) value).toEpochSecond() * 1000);
+            if (boxedType == byte[].class) {
+                if (value instanceof Bytes)
+                    return ((Bytes) value).toArray();
+                if (value instanceof ByteBuffer) {
+                    ByteBuffer bb = ((ByteBuffer) value).duplicate();
+                    byte[] data = new byte[bb.remaining()];
+                    bb.get(data);
+                    return data;
+                }
+            }
+            if (boxedType == Bytes.class && value instanceof ByteBuffer) {
+                ByteBuffer bb = ((ByteBuffer) value).duplicate();
+                byte[] data = new byte[bb.remaining()];
+                bb.get(data);
+                return new Bytes(data);
+            }
+            throw new IOException("Boss: can't assign " + value.getClass().getName() + " to " + field);
+        }
+    }
+}
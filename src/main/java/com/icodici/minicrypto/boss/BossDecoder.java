@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+/**
+ * Non-blocking incremental Boss decoder: accepts data in chunks of any size as they arrive, e.g. from a non-blocking
+ * {@link java.nio.channels.SocketChannel}, and returns top-level objects as soon as they are complete:
+ * <pre>
+ * decoder.feed(buffer);
+ * while (decoder.hasNext())
+ *     process(decoder.next());
+ * </pre>
+ * Incoming bytes are scanned header by header as they arrive, keeping the partial parse state between calls, so the
+ * data are scanned only once however they are split; the object is decoded only when all its bytes are here, so
+ * neither the call blocks nor the thread waits.
+ * <p>
+ * The decoder must follow the sender's {@link Boss.Writer} model:
+ * <ul>
+ * <li>one writer for the whole connection: consecutive objects share the reference cache as with {@link
+ * Boss.Reader}, so a later object could reference an earlier one. The cache grows with every object, so long-lived
+ * connections should have the sender switch to the stream mode ({@link Boss.Writer#setStreamMode()}), which is
+ * handled the same way as by {@link Boss.Reader}, or reset both sides periodically, see {@link #reset()};</li>
+ * <li>every object encoded separately, e.g. with {@link Boss#pack(Object)}: references of each object point into
+ * the object itself, so the decoder must be created with <code>independentObjects</code>, see {@link
+ * #BossDecoder(int, boolean)}. Otherwise a reference of the later object would silently resolve to some object of
+ * the earlier one.</li>
+ * </ul>
+ * <p>
+ * Not thread safe: use one decoder per connection.
+ */
+public final class BossDecoder {
+
+    /**
+     * Default limit of the encoded size of one top-level object, see {@link #BossDecoder(int)}.
+     */
+    public static final int DEFAULT_MAX_OBJECT_SIZE = 16 * 1024 * 1024;
+
+    private static final int INITIAL_CAPACITY = 256;
+    // buffers bigger than that are released when empty
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private final int maxObjectSize;
+    private final boolean independentObjects;
+    private final ChunkReader reader = new ChunkReader();
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    // [position, limit) are buffered bytes not decoded yet
+    private int position;
+    private int limit;
+
+    // scanning state: the next header is at scanPosition, after skipping skipLength bytes of the body
+    private int scanPosition;
+    private long skipLength;
+    private boolean inObject;
+    private int objectStart;
+    // headers to scan to complete the current object
+    private long pending;
+    // number of complete objects buffered
+    private int readyCount;
+    private boolean failed;
+
+    /**
+     * Create decoder with {@link #DEFAULT_MAX_OBJECT_SIZE} limit.
+     */
+    public BossDecoder() {
+        this(DEFAULT_MAX_OBJECT_SIZE);
+    }
+
+    /**
+     * Create decoder.
+     *
+     * @param maxObjectSize maximum encoded size of one top-level object; bigger objects cause {@link IOException} as
+     *                      soon as their headers are seen, so the peer can't make the decoder buffer unlimited data
+     */
+    public BossDecoder(int maxObjectSize) {
+        this(maxObjectSize, false);
+    }
+
+    /**
+     * Create decoder.
+     *
+     * @param maxObjectSize      maximum encoded size of one top-level object, see {@link #BossDecoder(int)}
+     * @param independentObjects true if every object is encoded by the new (or reset) writer, so the reference
+     *                           cache is cleared before each object; false if all objects are written by one writer
+     *                           and share the cache
+     */
+    public BossDecoder(int maxObjectSize, boolean independentObjects) {
+        if (maxObjectSize < 1)
+            throw new IllegalArgumentException("maxObjectSize must be positive");
+        this.maxObjectSize = maxObjectSize;
+        this.independentObjects = independentObjects;
+    }
+
+    /**
+     * Add next chunk of data. All remaining bytes of the buffer are consumed.
+     *
+     * @param chunk data to add
+     *
+     * @throws IOException if the data are not valid Boss or the object is too big; the decoder can't be used after it
+     */
+    public void feed(ByteBuffer chunk) throws IOException {
+        checkFailed();
+        final int length = chunk.remaining();
+        ensureSpace(length);
+        chunk.get(buffer, limit, length);
+        limit += length;
+        scan();
+    }
+
+    /**
+     * Add next chunk of data.
+     *
+     * @see #feed(ByteBuffer)
+     */
+    public void feed(byte[] data, int offset, int length) throws IOException {
+        feed(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * @return true if the next top-level object is complete and could be read with {@link #next()} without blocking
+     */
+    public boolean hasNext() {
+        return readyCount > 0;
+    }
+
+    /**
+     * Decode the next complete top-level object.
+     *
+     * @return decoded object, could be null if null was encoded
+     *
+     * @throws NoSuchElementException if there is no complete object, see {@link #hasNext()}
+     * @throws IOException            if the data are not valid Boss
+     */
+    public <T> T next() throws IOException {
+        beforeNext();
+        try {
+            T result = reader.read();
+            readyCount--;
+            return result;
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Decode the next complete top-level object as the instance of the given type, see {@link
+     * Boss.Reader#read(Class)}.
+     *
+     * @throws NoSuchElementException if there is no complete object, see {@link #hasNext()}
+     * @throws IOException            if the data are not valid Boss or the object is not of the type
+     */
+    public <T> T next(Class<T> type) throws IOException {
+        beforeNext();
+        try {
+            T result = reader.read(type);
+            readyCount--;
+            return result;
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Forget all objects decoded before and leave the stream mode, so the next object is decoded as by a new {@link
+     * Boss.Reader}. Call it where the sender has reset its writer (see {@link Boss.Writer#reset()}), to release the
+     * cache of the long-lived connection. Buffered data are kept.
+     */
+    public void reset() {
+        reader.resetCache();
+    }
+
+    /**
+     * @return number of buffered bytes not decoded yet, including complete objects
+     */
+    public int getBufferedSize() {
+        return limit - position;
+    }
+
+    /**
+     * @return true if some bytes of the incomplete object are buffered, e.g. the connection closed in the middle of
+     * the message
+     */
+    public boolean hasPartialObject() {
+        return inObject || skipLength > 0;
+    }
+
+    private void beforeNext() throws IOException {
+        checkFailed();
+        if (readyCount == 0)
+            throw new NoSuchElementException("no complete Boss object");
+        if (independentObjects)
+            reader.resetCache();
+    }
+
+    private void checkFailed() throws IOException {
+        if (failed)
+            throw new IOException("Boss: decoder has failed before");
+    }
+
+    /**
+     * Make room for length more bytes, moving not decoded bytes to the start of the buffer.
+     */
+    private void ensureSpace(int length) throws IOException {
+        if (position == limit && buffer.length > RETAINED_CAPACITY) {
+            // release the buffer grown for the big object
+            buffer = new byte[INITIAL_CAPACITY];
+            shift(position);
+        }
+        if (buffer.length - limit >= length)
+            return;
+        final int buffered = limit - position;
+        if ((long) buffered + length > Integer.MAX_VALUE - 8)
+            throw fail("Boss: too much data buffered");
+        final int required = buffered + length;
+        if (buffer.length >= required && position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, buffered);
+        } else {
+            int capacity = buffer.length;
+            while (capacity < required)
+                capacity = (int) Math.min((long) capacity * 2, Integer.MAX_VALUE - 8);
+            byte[] grown = new byte[capacity];
+            System.arraycopy(buffer, position, grown, 0, buffered);
+            buffer = grown;
+        }
+        shift(position);
+    }
+
+    /**
+     * Adjust positions after the data were moved delta bytes to the start.
+     */
+    private void shift(int delta) {
+        position -= delta;
+        limit -= delta;
+        scanPosition -= delta;
+        objectStart -= delta;
+    }
+
+    private IOException fail(String message) {
+        failed = true;
+        return new IOException(message);
+    }
+
+    /**
+     * Scan headers of buffered data as far as possible, counting complete objects.
+     */
+    private void scan() throws IOException {
+        while (true) {
+            if (skipLength > 0) {
+                final int n = (int) Math.min(skipLength, limit - scanPosition);
+                scanPosition += n;
+                skipLength -= n;
+                if (skipLength > 0)
+                    return;
+            }
+            if (inObject && pending == 0) {
+                inObject = false;
+                readyCount++;
+            }
+            if (scanPosition >= limit)
+                return;
+            if (!inObject) {
+                inObject = true;
+                objectStart = scanPosition;
+                pending = 1;
+            }
+            final int next = scanHeader(scanPosition);
+            if (next < 0)
+                return;
+            scanPosition = next;
+            if ((long) scanPosition - objectStart + skipLength > maxObjectSize)
+                throw fail("Boss: object is bigger than " + maxObjectSize + " bytes");
+        }
+    }
+
+    /**
+     * Scan one header, updating the pending headers count and the body length to skip.
+     *
+     * @return offset after the header or -1 if it is not complete yet
+     */
+    private int scanHeader(int offset) throws IOException {
+        int p = offset;
+        final int b = buffer[p++] & 0xFF;
+        final int code = b & 7;
+        final int v = b >>> 3;
+        long value;
+        if (v >= 31) {
+            long length = 0;
+            int shift = 0;
+            while (true) {
+                if (p >= limit)
+                    return -1;
+                final int n = buffer[p++] & 0xFF;
+                length |= ((long) n & 0x7F) << shift;
+                if ((n & 0x80) != 0)
+                    break;
+                shift += 7;
+                if (shift > 28)
+                    throw fail("Boss: bad header");
+            }
+            if (length > maxObjectSize)
+                throw fail("Boss: object is bigger than " + maxObjectSize + " bytes");
+            if (limit - p < length)
+                return -1;
+            // little endian unsigned, only sizes matter here
+            value = 0;
+            for (int i = 0; i < length; i++) {
+                if (i >= 4 && buffer[p + i] != 0)
+                    value = Long.MAX_VALUE;
+                else if (value != Long.MAX_VALUE)
+                    value |= ((long) buffer[p + i] & 0xFF) << (i * 8);
+            }
+            p += (int) length;
+        } else if (v > 22) {
+            final int n = v - 22;
+            if (limit - p < n)
+                return -1;
+            value = 0;
+            for (int i = 0; i < n; i++)
+                value |= ((long) buffer[p++] & 0xFF) << (i * 8);
+        } else
+            value = v;
+        switch (code) {
+            case Boss.TYPE_TEXT:
+            case Boss.TYPE_BIN:
+            case Boss.TYPE_LIST:
+            case Boss.TYPE_DICT:
+                // each item takes at least one byte
+                if (value < 0 || value > maxObjectSize)
+                    throw fail("Boss: object is bigger than " + maxObjectSize + " bytes");
+                break;
+        }
+        switch (code) {
+            case Boss.TYPE_TEXT:
+            case Boss.TYPE_BIN:
+                skipLength = value;
+                break;
+            case Boss.TYPE_LIST:
+                pending += value;
+                break;
+            case Boss.TYPE_DICT:
+                pending += 2 * value;
+                break;
+            case Boss.TYPE_EXTRA:
+                if (value == Boss.XT_TIME) {
+                    while (true) {
+                        if (p >= limit)
+                            return -1;
+                        if ((buffer[p++] & 0x80) != 0)
+                            break;
+                    }
+                } else if (value == Boss.XT_DOUBLE)
+                    skipLength = 8;
+                else if (value == Boss.XT_STREAM_MODE)
+                    // the marker precedes the object
+                    pending++;
+                break;
+        }
+        pending--;
+        return p;
+    }
+
+    /**
+     * Reader of the complete buffered objects; it never runs out of data unless the scanner is wrong.
+     */
+    private class ChunkReader extends Boss.Reader {
+
+        @Override
+        protected int readByte() throws IOException {
+            if (position >= limit)
+                throw new EOFException();
+            return buffer[position++] & 0xFF;
+        }
+
+        @Override
+        protected int peekByte() throws IOException {
+            if (position >= limit)
+                throw new EOFException();
+            return buffer[position] & 0xFF;
+        }
+
+        @Override
+        protected byte[] readRaw(int length) throws IOException {
+            require(length);
+            final byte[] data = new byte[length];
+            System.arraycopy(buffer, position, data, 0, length);
+            position += length;
+            return data;
+        }
+
+        @Override
+        protected void readRawInto(byte[] target, int offset, int length) throws IOException {
+            require(length);
+            System.arraycopy(buffer, position, target, offset, length);
+            position += length;
+        }
+
+        @Override
+        protected void skipRaw(long length) throws IOException {
+            if (length > Integer.MAX_VALUE)
+                throw new EOFException();
+            require((int) length);
+            position += (int) length;
+        }
+
+        @Override
+        protected String readText(int length) throws IOException {
+            require(length);
+            final String result = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return result;
+        }
+
+        @Override
+        protected Object readBinaryField(int length) throws IOException {
+            // copied, as the buffer is reused
+            return new Bytes(readRaw(length));
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void require(int length) throws EOFException {
+            if (length < 0 || limit - position < length)
+                throw new EOFException();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.threeten.bp.Instant;
+import org.threeten.bp.ZoneId;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.icodici.minicrypto.boss.Boss.*;
+
+/**
+ * Index of the encoded Boss object tree for the lazy decoding, see {@link BossValue}. The buffer is scanned once to
+ * find offsets of all objects that could be referenced with CREF (texts, binaries, lists and maps, in the order
+ * {@link Boss.Reader} caches them); then values are decoded only when accessed. Decoded values of cacheable objects
+ * are remembered, so references resolve to the same instances as with {@link Boss#load(byte[])}.
+ * <p>
+ * Not thread safe.
+ */
+final class BossDocument {
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+
+    private int[] cacheOffsets = new int[16];
+    private int cacheSize;
+    private Object[] values;
+    private Object[] loaded;
+
+    // last header read by readHeader()
+    private int hCode;
+    private long hValue;
+    private BigInteger hBig;
+    private int hBody;
+
+    /**
+     * Index the first object encoded in the remaining part of the buffer. The buffer position is not changed.
+     */
+    BossDocument(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.end = buffer.limit();
+        index();
+        values = new Object[cacheSize];
+        loaded = new Object[cacheSize];
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * Skip the stream mode marker and resolve references.
+     *
+     * @return offset of the actual value of the object at offset
+     */
+    int resolve(int offset) throws IOException {
+        while (true) {
+            readHeader(offset);
+            if (hCode == TYPE_EXTRA && hValue == XT_STREAM_MODE)
+                offset = hBody;
+            else if (hCode == TYPE_CREF && hValue > 0) {
+                if (hValue > cacheSize)
+                    throw new IOException("Boss: bad reference " + hValue);
+                return cacheOffsets[(int) hValue - 1];
+            } else
+                return offset;
+        }
+    }
+
+    /**
+     * @return Boss type code (TYPE_*) of the resolved object at offset
+     */
+    int typeAt(int offset) throws IOException {
+        readHeader(offset);
+        return hCode;
+    }
+
+    /**
+     * @return the header value (e.g. size of container) of the object at offset
+     */
+    long headerValueAt(int offset) throws IOException {
+        readHeader(offset);
+        return hValue;
+    }
+
+    /**
+     * @return offset of the first item of the container at offset
+     */
+    int bodyAt(int offset) throws IOException {
+        readHeader(offset);
+        return hBody;
+    }
+
+    /**
+     * Decode the object at offset. Lists and maps are returned as lazy {@link BossListView} and {@link BossMapView}.
+     */
+    Object value(int offset) throws IOException {
+        offset = resolve(offset);
+        readHeader(offset);
+        final int code = hCode;
+        final long value = hValue;
+        final int body = hBody;
+        switch (code) {
+            case TYPE_INT:
+            case TYPE_NINT:
+                return number(code == TYPE_NINT);
+            case TYPE_CREF:
+                // only null gets here
+                return null;
+            case TYPE_EXTRA:
+                return extra((int) value, body);
+        }
+        final int index = cacheIndex(offset);
+        if (index >= 0 && values[index] != null)
+            return values[index];
+        final Object result;
+        switch (code) {
+            case TYPE_TEXT:
+                result = text(body, (int) value);
+                break;
+            case TYPE_BIN:
+                result = binary(body, (int) value);
+                break;
+            case TYPE_LIST:
+                result = new BossListView(this, offset);
+                break;
+            case TYPE_DICT:
+                result = new BossMapView(this, offset);
+                break;
+            default:
+                throw new IOException("Bad BOSS header");
+        }
+        if (index >= 0)
+            values[index] = result;
+        return result;
+    }
+
+    /**
+     * Decode the object at offset to the plain objects, same as {@link Boss#load(byte[])} does: lists to {@link
+     * ArrayList}, maps to {@link HashMap}.
+     */
+    @SuppressWarnings("unchecked")
+    Object load(int offset) throws IOException {
+        offset = resolve(offset);
+        final int code = typeAt(offset);
+        if (code != TYPE_LIST && code != TYPE_DICT)
+            return value(offset);
+        final int index = cacheIndex(offset);
+        if (index >= 0 && loaded[index] != null)
+            return loaded[index];
+        final long size = hValue;
+        int p = hBody;
+        final Object result;
+        if (code == TYPE_LIST) {
+            final List<Object> list = new ArrayList<>((int) (size < 0x10000 ? size : 4096));
+            if (index >= 0)
+                loaded[index] = list;
+            for (long i = 0; i < size; i++) {
+                list.add(load(p));
+                p = skip(p);
+            }
+            result = list;
+        } else {
+            final Map<Object, Object> map = new HashMap<>();
+            if (index >= 0)
+                loaded[index] = map;
+            for (long i = 0; i < size; i++) {
+                final Object key = load(p);
+                p = skip(p);
+                map.put(key, load(p));
+                p = skip(p);
+            }
+            result = map;
+        }
+        return result;
+    }
+
+    /**
+     * @return offset right after the object at offset, including all its children
+     */
+    int skip(int offset) throws IOException {
+        return walk(offset, false);
+    }
+
+    private void index() throws IOException {
+        walk(start, true);
+    }
+
+    /**
+     * Walk over the object at offset and all its children reading headers only.
+     *
+     * @param record true to record offsets of the cacheable objects
+     *
+     * @return offset after the object
+     */
+    private int walk(int offset, boolean record) throws IOException {
+        long pending = 1;
+        int p = offset;
+        while (pending > 0) {
+            final int objectOffset = p;
+            readHeader(p);
+            p = hBody;
+            pending--;
+            switch (hCode) {
+                case TYPE_TEXT:
+                case TYPE_BIN:
+                    if (record)
+                        addCacheOffset(objectOffset);
+                    if (hValue > end - p)
+                        throw new EOFException();
+                    p += (int) hValue;
+                    break;
+                case TYPE_LIST:
+                case TYPE_DICT:
+                    if (record)
+                        addCacheOffset(objectOffset);
+                    pending += hCode == TYPE_LIST ? hValue : 2 * hValue;
+                    break;
+                case TYPE_EXTRA:
+                    if (hValue == XT_TIME) {
+                        while ((byteAt(p++) & 0x80) == 0) {
+                            // skip encoded seconds
+                        }
+                    } else if (hValue == XT_DOUBLE) {
+                        if (end - p < 8)
+                            throw new EOFException();
+                        p += 8;
+                    } else if (hValue == XT_STREAM_MODE) {
+                        // the marker precedes the object; nothing is cached in the stream mode
+                        pending++;
+                        record = false;
+                    }
+                    break;
+            }
+        }
+        return p;
+    }
+
+    private void addCacheOffset(int offset) {
+        if (cacheSize == cacheOffsets.length)
+            cacheOffsets = Arrays.copyOf(cacheOffsets, cacheSize * 2);
+        cacheOffsets[cacheSize++] = offset;
+    }
+
+    private int cacheIndex(int offset) {
+        final int i = Arrays.binarySearch(cacheOffsets, 0, cacheSize, offset);
+        return i >= 0 ? i : -1;
+    }
+
+    private int byteAt(int p) throws EOFException {
+        if (p >= end)
+            throw new EOFException();
+        return buffer.get(p) & 0xFF;
+    }
+
+    private void readHeader(int offset) throws IOException {
+        int p = offset;
+        final int b = byteAt(p++);
+        hCode = b & 7;
+        final int value = b >>> 3;
+        hBig = null;
+        if (value >= 31) {
+            long length = 0;
+            int shift = 0;
+            int n;
+            do {
+                n = byteAt(p++);
+                length |= ((long) n & 0x7F) << shift;
+                shift += 7;
+            } while ((n & 0x80) == 0);
+            if (length > end - p)
+                throw new EOFException();
+            final byte[] bytes = new byte[(int) length];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[bytes.length - 1 - i] = (byte) byteAt(p++);
+            hBig = new BigInteger(1, bytes);
+            if (hCode != TYPE_INT && hCode != TYPE_NINT) {
+                if (hBig.bitLength() > 31)
+                    throw new IOException("Boss: too big size in header");
+                hValue = hBig.longValue();
+                hBig = null;
+            } else
+                hValue = -1;
+        } else if (value > 22) {
+            long res = 0;
+            for (int i = 0, n = value - 22; i < n; i++)
+                res |= ((long) byteAt(p++)) << (i * 8);
+            hValue = res;
+        } else
+            hValue = value;
+        hBody = p;
+    }
+
+    private Object number(boolean negative) {
+        return smallestNumber(hBig, hValue, negative);
+    }
+
+    private Object extra(int code, int body) throws IOException {
+        switch (code) {
+            case XT_DZERO:
+                return 0.0;
+            case XT_DONE:
+                return 1.0;
+            case XT_DMINUSONE:
+                return -1.0;
+            case XT_TTRUE:
+                return true;
+            case XT_FALSE:
+                return false;
+            case XT_TIME: {
+                long seconds = 0;
+                int shift = 0;
+                int n;
+                int p = body;
+                do {
+                    n = byteAt(p++);
+                    seconds |= ((long) n & 0x7F) << shift;
+                    shift += 7;
+                } while ((n & 0x80) == 0);
+                return Boss.isUseOldDates() ? new Date(seconds * 1000) :
+                        Instant.ofEpochSecond(seconds).atZone(ZoneId.systemDefault());
+            }
+            case XT_DOUBLE: {
+                long bits = 0;
+                for (int i = 0; i < 8; i++)
+                    bits |= ((long) byteAt(body + i)) << (i * 8);
+                return Double.longBitsToDouble(bits);
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown extra code: %d", code));
+    }
+
+    private String text(int offset, int length) throws EOFException {
+        if (length > end - offset)
+            throw new EOFException();
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        return new String(copy(offset, length), StandardCharsets.UTF_8);
+    }
+
+    private Bytes binary(int offset, int length) throws EOFException {
+        if (length > end - offset)
+            throw new EOFException();
+        return new Bytes(copy(offset, length));
+    }
+
+    private byte[] copy(int offset, int length) {
+        final byte[] data = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(data);
+        return data;
+    }
+}
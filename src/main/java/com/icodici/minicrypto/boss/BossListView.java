@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only lazy view of the Boss-encoded list, see {@link BossValue}. Items are decoded on access; offsets of the
+ * items are found by skipping over the encoded data only up to the requested item, once.
+ */
+public final class BossListView extends AbstractList<Object> implements RandomAccess {
+
+    private final BossDocument document;
+    private final int size;
+    private final int[] offsets;
+    private int indexed;
+
+    BossListView(BossDocument document, int offset) throws IOException {
+        this.document = document;
+        long size = document.headerValueAt(offset);
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Boss: list is too big");
+        this.size = (int) size;
+        this.offsets = new int[this.size];
+        if (this.size > 0) {
+            offsets[0] = document.bodyAt(offset);
+            indexed = 1;
+        }
+    }
+
+    /**
+     * @return decoded item; nested lists and maps are lazy views too
+     */
+    @Override
+    public Object get(int index) {
+        try {
+            return document.value(offsetOf(index));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
+    /**
+     * @return lazy view of the item
+     */
+    public BossValue getValue(int index) {
+        return new BossValue(document, offsetOf(index));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private int offsetOf(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        try {
+            while (indexed <= index) {
+                offsets[indexed] = document.skip(offsets[indexed - 1]);
+                indexed++;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+        return offsets[index];
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only lazy view of the Boss-encoded map, see {@link BossValue}. On the first access only the keys are decoded;
+ * values are decoded when requested.
+ */
+public final class BossMapView extends AbstractMap<Object, Object> {
+
+    /**
+     * Maps bigger than this are looked up with the hash index of keys, smaller are scanned.
+     */
+    static final int INDEX_THRESHOLD = 8;
+
+    private final BossDocument document;
+    private final int offset;
+    private final int size;
+    private Object[] keys;
+    private int[] valueOffsets;
+    private Map<Object, Integer> keyIndex;
+    private Set<Entry<Object, Object>> entrySet;
+
+    BossMapView(BossDocument document, int offset) throws IOException {
+        this.document = document;
+        this.offset = offset;
+        long size = document.headerValueAt(offset);
+        if (size > Integer.MAX_VALUE / 2)
+            throw new IOException("Boss: map is too big");
+        this.size = (int) size;
+    }
+
+    /**
+     * @return decoded value for the key or null; nested lists and maps are lazy views too
+     */
+    @Override
+    public Object get(Object key) {
+        final int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    /**
+     * @return lazy view of the value for the key or null if there is no such key
+     */
+    public BossValue getValue(Object key) {
+        final int i = indexOf(key);
+        return i < 0 ? null : new BossValue(document, valueOffsets[i]);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<Object, Object>>() {
+                @Override
+                public Iterator<Entry<Object, Object>> iterator() {
+                    indexKeys();
+                    return new Iterator<Entry<Object, Object>>() {
+                        private int i;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < size;
+                        }
+
+                        @Override
+                        public Entry<Object, Object> next() {
+                            if (i >= size)
+                                throw new NoSuchElementException();
+                            final int index = i++;
+                            return new SimpleImmutableEntry<>(keys[index], valueAt(index));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private Object valueAt(int i) {
+        try {
+            return document.value(valueOffsets[i]);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
+    private int indexOf(Object key) {
+        indexKeys();
+        if (keyIndex != null) {
+            final Integer i = keyIndex.get(key);
+            return i == null ? -1 : i;
+        }
+        // same as in HashMap the last duplicate key wins
+        for (int i = size - 1; i >= 0; i--) {
+            if (key == null ? keys[i] == null : key.equals(keys[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    private void indexKeys() {
+        if (keys != null)
+            return;
+        try {
+            final Object[] keys = new Object[size];
+            valueOffsets = new int[size];
+            int p = document.bodyAt(offset);
+            for (int i = 0; i < size; i++) {
+                keys[i] = document.value(p);
+                p = document.skip(p);
+                valueOffsets[i] = p;
+                p = document.skip(p);
+            }
+            if (size > INDEX_THRESHOLD) {
+                keyIndex = new HashMap<>(size * 2);
+                for (int i = 0; i < size; i++)
+                    keyIndex.put(keys[i], i);
+            }
+            this.keys = keys;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+}
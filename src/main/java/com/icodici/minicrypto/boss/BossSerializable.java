@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the class which instances {@link Boss.Writer} encodes directly, as the map of its non-static, non-transient
+ * fields, and {@link Boss.Reader#read(Class)} decodes back without the intermediate map. The class needs the no-arg
+ * constructor (could be private). See {@link BossCodec}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface BossSerializable {
+}
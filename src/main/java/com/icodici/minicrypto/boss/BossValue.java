@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.icodici.minicrypto.boss.Boss.*;
+
+/**
+ * Lazy view of the Boss-encoded value. Creating the view scans the encoded data once to index references, but
+ * decodes nothing: lists and maps are available as {@link BossListView} and {@link BossMapView} that decode only the
+ * items that are accessed. So reading a few fields of a big packed structure does not construct its whole object
+ * graph. References (CREF) are resolved transparently.
+ * <p>
+ * Binary values are decoded to {@link com.icodici.minicrypto.utils.Bytes} and other values to the same types as
+ * {@link Boss#load(byte[])} produces. Views are read only and not thread safe. The encoded data must not change while
+ * views are in use.
+ */
+public final class BossValue {
+
+    private final BossDocument document;
+    private final int offset;
+
+    BossValue(BossDocument document, int offset) {
+        this.document = document;
+        try {
+            this.offset = document.resolve(offset);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
+    /**
+     * Create lazy view of the Boss-encoded data.
+     *
+     * @param data encoded data
+     *
+     * @return view of the root object
+     */
+    public static BossValue of(byte[] data) {
+        return of(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create lazy view of the Boss-encoded data in the remaining part of the buffer. The buffer position is not
+     * changed.
+     *
+     * @param buffer encoded data
+     *
+     * @return view of the root object
+     */
+    public static BossValue of(ByteBuffer buffer) {
+        try {
+            BossDocument document = new BossDocument(buffer);
+            return new BossValue(document, document.getStart());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
+    /**
+     * Get the value, lists and maps are returned as lazy views.
+     *
+     * @param <T> expected type
+     *
+     * @return decoded value
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get() {
+        try {
+            return (T) document.value(offset);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
+    /**
+     * Decode the value with all its children, same as {@link Boss#load(byte[])}.
+     *
+     * @param <T> expected type
+     *
+     * @return decoded value; lists are {@link java.util.ArrayList} and maps are {@link java.util.HashMap}
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load() {
+        try {
+            return (T) document.load(offset);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+
+    public boolean isNull() {
+        return type() == TYPE_CREF;
+    }
+
+    public boolean isList() {
+        return type() == TYPE_LIST;
+    }
+
+    public boolean isMap() {
+        return type() == TYPE_DICT;
+    }
+
+    /**
+     * @return the value as the list view
+     *
+     * @throws IllegalStateException if the value is not a list
+     */
+    public BossListView asList() {
+        if (!isList())
+            throw new IllegalStateException("Boss value is not a list");
+        return get();
+    }
+
+    /**
+     * @return the value as the map view
+     *
+     * @throws IllegalStateException if the value is not a map
+     */
+    public BossMapView asMap() {
+        if (!isMap())
+            throw new IllegalStateException("Boss value is not a map");
+        return get();
+    }
+
+    @Override
+    public String toString() {
+        Object value = get();
+        return String.valueOf(value);
+    }
+
+    private int type() {
+        try {
+            return document.typeAt(offset);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Boss: can't parse data", e);
+        }
+    }
+}
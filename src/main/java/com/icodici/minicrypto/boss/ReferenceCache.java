@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import java.util.Arrays;
+
+/**
+ * Map of written objects to their Boss cache indices for {@link Boss.Writer}: open addressing with linear probing,
+ * keys and int indices in parallel arrays, so neither entries nor boxed indices are allocated. The table grows up to
+ * <code>maxEntries</code>; when it is full, new objects are not remembered anymore, so the memory does not scale with
+ * the document size. Repeated objects, e.g. map keys, usually appear early, and early objects have small indices,
+ * which give short references, so keeping them is better than starting over.
+ * <p>
+ * How objects are matched depends on {@link Boss.CacheMode}.
+ */
+final class ReferenceCache {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final boolean byContent;
+    private final int maxEntries;
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] indices = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param byContent  true to match texts and binaries by content, false to match everything by identity
+     * @param maxEntries maximum number of remembered objects
+     */
+    ReferenceCache(boolean byContent, int maxEntries) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("cache size must be positive");
+        this.byContent = byContent;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Find the object or remember it with the given index, unless the cache is full.
+     *
+     * @return index of the object written before or 0 if it was not found
+     */
+    int findOrAdd(Object obj, int index) {
+        final int hash = hash(obj);
+        int mask = keys.length - 1;
+        int i = hash & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (hashes[i] == hash && matches(k, obj))
+                return indices[i];
+            i = (i + 1) & mask;
+        }
+        if (size >= maxEntries)
+            return 0;
+        if (2 * (size + 1) > keys.length) {
+            grow();
+            mask = keys.length - 1;
+            i = hash & mask;
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+        }
+        keys[i] = obj;
+        hashes[i] = hash;
+        indices[i] = index;
+        size++;
+        return 0;
+    }
+
+    /**
+     * Forget all objects, keeping the allocated table.
+     */
+    void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private void grow() {
+        final Object[] oldKeys = keys;
+        final int[] oldHashes = hashes;
+        final int[] oldIndices = indices;
+        final int capacity = oldKeys.length * 2;
+        keys = new Object[capacity];
+        hashes = new int[capacity];
+        indices = new int[capacity];
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = oldHashes[j] & mask;
+                while (keys[i] != null)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                hashes[i] = oldHashes[j];
+                indices[i] = oldIndices[j];
+            }
+        }
+    }
+
+    private int hash(Object obj) {
+        int h;
+        if (byContent && obj instanceof String)
+            h = obj.hashCode();
+        else if (byContent && obj instanceof byte[])
+            h = Arrays.hashCode((byte[]) obj);
+        else
+            h = System.identityHashCode(obj);
+        // spread bits, as identity and short string hashes are poor in the low bits
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean matches(Object k, Object obj) {
+        if (k == obj)
+            return true;
+        if (!byContent)
+            return false;
+        if (k instanceof String)
+            return k.equals(obj);
+        if (k instanceof byte[] && obj instanceof byte[])
+            return Arrays.equals((byte[]) k, (byte[]) obj);
+        return false;
+    }
+}
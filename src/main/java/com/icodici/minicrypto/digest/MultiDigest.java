@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.digest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Calculates several digests of the same data in one pass: each update is passed to all the underlying digests. Big
+ * chunks are hashed by all digests in parallel on the executor. When reading from a stream or a channel, the next
+ * chunk is read while the previous one is being hashed, so the data is read only once and hashing goes at the speed
+ * of the slowest digest.
+ * <p>
+ * Not thread safe: updates must come from one thread.
+ */
+public class MultiDigest {
+
+    /**
+     * Chunks shorter than this are hashed in the calling thread.
+     */
+    static final int PARALLEL_THRESHOLD = 0x10000;
+
+    /**
+     * Size of the buffers used to read streams and channels.
+     */
+    static final int READ_BUFFER_SIZE = 0x40000;
+
+    private final Digest[] digests;
+    private final Executor executor;
+    private final CompletableFuture<?>[] pending;
+
+    /**
+     * Create multi digest that hashes big chunks in parallel on {@link ForkJoinPool#commonPool()}.
+     *
+     * @param digests to calculate
+     */
+    public MultiDigest(Digest... digests) {
+        this(ForkJoinPool.commonPool(), digests);
+    }
+
+    /**
+     * Create multi digest using specified executor.
+     *
+     * @param executor to calculate digests in parallel on, or null to calculate them all in the calling thread
+     * @param digests  to calculate
+     */
+    public MultiDigest(Executor executor, Digest... digests) {
+        if (digests.length == 0)
+            throw new IllegalArgumentException("at least one digest is required");
+        this.digests = digests;
+        this.executor = digests.length > 1 ? executor : null;
+        this.pending = new CompletableFuture<?>[digests.length];
+    }
+
+    /**
+     * Update all digests with the data.
+     *
+     * @return self
+     */
+    public MultiDigest update(byte[] data, int offset, int length) {
+        if (executor == null || length < PARALLEL_THRESHOLD) {
+            for (Digest d : digests)
+                d.update(data, offset, length);
+        } else {
+            // the calling thread takes the first digest
+            for (int i = 1; i < digests.length; i++) {
+                final Digest d = digests[i];
+                pending[i] = CompletableFuture.runAsync(() -> d.update(data, offset, length), executor);
+            }
+            try {
+                digests[0].update(data, offset, length);
+            } finally {
+                await();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Update all digests with the data.
+     *
+     * @return self
+     */
+    public MultiDigest update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+    /**
+     * Read the stream to the end updating all digests with its contents. Does not close the stream.
+     *
+     * @return self
+     */
+    public MultiDigest update(InputStream in) throws IOException {
+        final byte[][] buffers = new byte[][]{new byte[READ_BUFFER_SIZE], new byte[READ_BUFFER_SIZE]};
+        int current = 0;
+        try {
+            while (true) {
+                final byte[] buffer = buffers[current];
+                int size = 0;
+                // fill the buffer to get big chunks to hash in parallel
+                while (size < buffer.length) {
+                    final int n = in.read(buffer, size, buffer.length - size);
+                    if (n < 0)
+                        break;
+                    size += n;
+                }
+                await();
+                if (size == 0)
+                    break;
+                if (executor == null || size < PARALLEL_THRESHOLD)
+                    update(buffer, 0, size);
+                else
+                    startUpdate(buffer, 0, size);
+                if (size < buffer.length)
+                    break;
+                current ^= 1;
+            }
+        } finally {
+            await();
+        }
+        return this;
+    }
+
+    /**
+     * Read the channel from its current position to the end updating all digests with its contents. Does not close
+     * the channel.
+     *
+     * @return self
+     */
+    public MultiDigest update(FileChannel channel) throws IOException {
+        final ByteBuffer[] buffers = new ByteBuffer[]{
+                ByteBuffer.allocate(READ_BUFFER_SIZE), ByteBuffer.allocate(READ_BUFFER_SIZE)
+        };
+        int current = 0;
+        try {
+            while (true) {
+                final ByteBuffer buffer = buffers[current];
+                buffer.clear();
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // fill the buffer
+                }
+                await();
+                final int size = buffer.position();
+                if (size == 0)
+                    break;
+                if (executor == null || size < PARALLEL_THRESHOLD)
+                    update(buffer.array(), 0, size);
+                else
+                    startUpdate(buffer.array(), 0, size);
+                if (buffer.hasRemaining())
+                    break;
+                current ^= 1;
+            }
+        } finally {
+            await();
+        }
+        return this;
+    }
+
+    /**
+     * Calculate all digests. No updates are allowed after it.
+     *
+     * @return digests in the same order as passed to the constructor
+     */
+    public byte[][] digests() {
+        final byte[][] result = new byte[digests.length][];
+        for (int i = 0; i < digests.length; i++)
+            result[i] = digests[i].digest();
+        return result;
+    }
+
+    /**
+     * Get the underlying digest.
+     *
+     * @param index of the digest as passed to the constructor
+     *
+     * @return digest
+     */
+    public Digest get(int index) {
+        return digests[index];
+    }
+
+    /**
+     * Start updating all digests with the data on the executor. The data must not be modified until {@link #await()}
+     * returns.
+     */
+    private void startUpdate(byte[] data, int offset, int length) {
+        for (int i = 0; i < digests.length; i++) {
+            final Digest d = digests[i];
+            pending[i] = CompletableFuture.runAsync(() -> d.update(data, offset, length), executor);
+        }
+    }
+
+    /**
+     * Wait for all started updates to complete.
+     */
+    private void await() {
+        for (int i = 0; i < pending.length; i++) {
+            if (pending[i] != null) {
+                final CompletableFuture<?> f = pending[i];
+                pending[i] = null;
+                f.join();
+            }
+        }
+    }
+}
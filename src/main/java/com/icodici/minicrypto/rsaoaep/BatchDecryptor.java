@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.rsaoaep;
+
+import com.icodici.minicrypto.HashType;
+import com.icodici.minicrypto.rsaoaep.scrsa.RSAPrivateCrtKeyContext;
+import org.spongycastle.crypto.AsymmetricBlockCipher;
+import org.spongycastle.crypto.CipherParameters;
+import org.spongycastle.crypto.DataLengthException;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.digests.SHA1Digest;
+import org.spongycastle.crypto.encodings.OAEPEncoding;
+import org.spongycastle.crypto.params.ParametersWithRandom;
+import org.spongycastle.util.BigIntegers;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * OAEP decryptor for batch decryption with RSA blinding. Blinding factors are generated for the whole batch at once:
+ * instead of the modular inversion per ciphertext, all r<sup>-1</sup> are calculated with a single inversion using
+ * the Montgomery batch inversion trick. The RSA operation itself uses the shared precomputed key context.
+ * <p>
+ * Not thread safe; instances are pooled by the key.
+ */
+class BatchDecryptor {
+
+    private final BlindedRSAEngine engine;
+    private final OAEPEncoding oaep;
+
+    BatchDecryptor(RSAPrivateCrtKeyContext key, HashType mgf1HashType, SecureRandom rng) {
+        engine = new BlindedRSAEngine(key);
+        oaep = new OAEPEncoding(engine, new SHA1Digest(), mgf1HashType.makeDigest(), new byte[0]);
+        oaep.init(false, new ParametersWithRandom(key, rng));
+    }
+
+    /**
+     * Decrypt the ciphertext using the blinding pair.
+     *
+     * @param ciphertext    to decrypt
+     * @param blinding      r<sup>e</sup> mod n
+     * @param unblinding    r<sup>-1</sup> mod n
+     */
+    byte[] decrypt(byte[] ciphertext, BigInteger blinding, BigInteger unblinding) throws InvalidCipherTextException {
+        engine.blinding = blinding;
+        engine.unblinding = unblinding;
+        try {
+            return oaep.processBlock(ciphertext, 0, ciphertext.length);
+        } finally {
+            engine.blinding = engine.unblinding = null;
+        }
+    }
+
+    /**
+     * Generate blinding pairs: random r<sub>i</sub> coprime with n, returning r<sub>i</sub><sup>e</sup> mod n in
+     * [0] and r<sub>i</sub><sup>-1</sup> mod n in [1]. Uses one modular inversion for all the pairs.
+     *
+     * @param count number of pairs to generate
+     */
+    static BigInteger[][] blindingFactors(int count, RSAPrivateCrtKeyContext key, SecureRandom rng) {
+        final BigInteger n = key.getModulus();
+        final BigInteger e = key.getPublicExponent();
+        final BigInteger[] r = new BigInteger[count];
+        final BigInteger[] products = new BigInteger[count];
+        while (true) {
+            for (int i = 0; i < count; i++) {
+                r[i] = BigIntegers.createRandomInRange(BigInteger.valueOf(2), n.subtract(BigInteger.ONE), rng);
+                products[i] = i == 0 ? r[i] : products[i - 1].multiply(r[i]).mod(n);
+            }
+            final BigInteger productInverse;
+            try {
+                productInverse = products[count - 1].modInverse(n);
+            } catch (ArithmeticException x) {
+                // some r is not coprime with n, which is practically impossible; just try again
+                continue;
+            }
+            final BigInteger[] blinding = new BigInteger[count];
+            final BigInteger[] unblinding = new BigInteger[count];
+            BigInteger inverse = productInverse;
+            for (int i = count - 1; i > 0; i--) {
+                // inverse is (r[0]*...*r[i])^-1 here
+                unblinding[i] = inverse.multiply(products[i - 1]).mod(n);
+                inverse = inverse.multiply(r[i]).mod(n);
+            }
+            unblinding[0] = inverse;
+            for (int i = 0; i < count; i++)
+                blinding[i] = r[i].modPow(e, n);
+            return new BigInteger[][]{blinding, unblinding};
+        }
+    }
+
+    /**
+     * Raw RSA decryption of the blinded input: (c * r<sup>e</sup>)<sup>d</sup> * r<sup>-1</sup> = c<sup>d</sup> mod
+     * n.
+     */
+    private static class BlindedRSAEngine implements AsymmetricBlockCipher {
+        private final RSAPrivateCrtKeyContext key;
+        private BigInteger blinding;
+        private BigInteger unblinding;
+
+        BlindedRSAEngine(RSAPrivateCrtKeyContext key) {
+            this.key = key;
+        }
+
+        @Override
+        public void init(boolean forEncryption, CipherParameters param) {
+            if (forEncryption)
+                throw new IllegalArgumentException("blinded engine only decrypts");
+        }
+
+        @Override
+        public int getInputBlockSize() {
+            return (key.getModulus().bitLength() + 7) / 8;
+        }
+
+        @Override
+        public int getOutputBlockSize() {
+            return (key.getModulus().bitLength() + 7) / 8 - 1;
+        }
+
+        @Override
+        public byte[] processBlock(byte[] in, int inOff, int len) throws InvalidCipherTextException {
+            if (blinding == null)
+                throw new IllegalStateException("blinding factor is not set");
+            if (len > getInputBlockSize())
+                throw new DataLengthException("input too large for RSA cipher.");
+            final BigInteger n = key.getModulus();
+            final BigInteger input = new BigInteger(1, copy(in, inOff, len));
+            if (input.compareTo(n) >= 0)
+                throw new DataLengthException("input too large for RSA cipher.");
+            final BigInteger result = key.process(input.multiply(blinding).mod(n))
+                    .multiply(unblinding).mod(n);
+            final byte[] output = BigIntegers.asUnsignedByteArray(result);
+            // OAEP block starts with the zero byte; OAEPEncoding fails with ArrayIndexOutOfBoundsException on longer
+            // output, so corrupted ciphertexts are rejected here
+            if (output.length > getOutputBlockSize())
+                throw new InvalidCipherTextException("data wrong");
+            return output;
+        }
+
+        private static byte[] copy(byte[] in, int inOff, int len) {
+            if (inOff == 0 && len == in.length)
+                return in;
+            final byte[] block = new byte[len];
+            System.arraycopy(in, inOff, block, 0, len);
+            return block;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.rsaoaep;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded lock-free pool of initialized engines (ciphers, signers and like) that share the same immutable key
+ * parameters. The engine is taken for exclusive use with {@link #acquire()} and should be returned with {@link
+ * #release(Object)}. If there is no idle engine, a new one is created, so the key can be used by any number of
+ * threads at once; when the pool is full, returned engines are dropped, so no more than capacity idle engines are
+ * kept.
+ */
+class EnginePool<T> {
+
+    /**
+     * Creates new initialized engine for the pool.
+     */
+    interface Factory<T> {
+        T create();
+    }
+
+    /**
+     * Default number of idle engines to keep.
+     */
+    static final int DEFAULT_CAPACITY = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final Factory<T> factory;
+    private final int capacity;
+
+    EnginePool(Factory<T> factory) {
+        this(factory, DEFAULT_CAPACITY);
+    }
+
+    EnginePool(Factory<T> factory, int capacity) {
+        this.factory = factory;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get an idle engine or create new one.
+     *
+     * @return engine for exclusive use by the caller
+     */
+    T acquire() {
+        T engine = idle.poll();
+        if (engine == null)
+            return factory.create();
+        idleCount.decrementAndGet();
+        return engine;
+    }
+
+    /**
+     * Return the engine taken with {@link #acquire()}. Engines left in inconsistent state (e.g. after unexpected
+     * exception) should not be returned.
+     *
+     * @param engine to return to the pool
+     */
+    void release(T engine) {
+        if (idleCount.incrementAndGet() <= capacity)
+            idle.offer(engine);
+        else
+            idleCount.decrementAndGet();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.rsaoaep;
+
+import org.spongycastle.crypto.Digest;
+
+/**
+ * Content digest for {@link org.spongycastle.crypto.signers.PSSSigner} that lets it sign or verify already calculated
+ * message hash. PSS uses the same digest twice: first to hash the message, then to hash the salted block M'. So the
+ * first {@link #doFinal(byte[], int)} just returns the hash that was fed with update(), and the second works as the
+ * real digest. {@link #reset()} returns to the first phase.
+ */
+class PrehashedDigest implements Digest {
+
+    private final Digest digest;
+    private final byte[] hash;
+    private int count;
+    private boolean prehashPhase = true;
+
+    /**
+     * @param digest real digest of the same type as used to calculate message hash
+     */
+    PrehashedDigest(Digest digest) {
+        this.digest = digest;
+        this.hash = new byte[digest.getDigestSize()];
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return digest.getAlgorithmName();
+    }
+
+    @Override
+    public int getDigestSize() {
+        return hash.length;
+    }
+
+    @Override
+    public void update(byte in) {
+        if (prehashPhase) {
+            if (count >= hash.length)
+                throw new IllegalArgumentException("hash is too long for " + digest.getAlgorithmName());
+            hash[count++] = in;
+        } else
+            digest.update(in);
+    }
+
+    @Override
+    public void update(byte[] in, int inOff, int len) {
+        if (prehashPhase) {
+            if (count + len > hash.length)
+                throw new IllegalArgumentException("hash is too long for " + digest.getAlgorithmName());
+            System.arraycopy(in, inOff, hash, count, len);
+            count += len;
+        } else
+            digest.update(in, inOff, len);
+    }
+
+    @Override
+    public int doFinal(byte[] out, int outOff) {
+        if (prehashPhase) {
+            if (count != hash.length)
+                throw new IllegalArgumentException("hash size mismatch for " + digest.getAlgorithmName());
+            System.arraycopy(hash, 0, out, outOff, hash.length);
+            prehashPhase = false;
+            return hash.length;
+        }
+        final int size = digest.doFinal(out, outOff);
+        reset();
+        return size;
+    }
+
+    @Override
+    public void reset() {
+        digest.reset();
+        count = 0;
+        prehashPhase = true;
+    }
+}
@@ -29,8 +29,8 @@ public class RSAEngineFactory {
      * Perform a test to check whether we should use an optimized native implementation or default Java one.
      */
     static boolean whetherShouldUseNative() {
-        // Sometimes NativeRSAEngine does not work; e.g. when GMP native binary is not available.
-        // Test once if it will work; if it doesn't, fallback to use default RSAEngine.
+        // NativeRSAEngine falls back to BigInteger arithmetic when GMP native binary is not available,
+        // but still test once if it will work; if it doesn't, fallback to use default RSAEngine.
         final RSAOAEPTestVectors oaepSpec = new RSAOAEPTestVectors();
         final ParametersWithRandom param = new ParametersWithRandom(oaepSpec.pubParameters, oaepSpec.getRandSeed());
 
@@ -12,6 +12,7 @@ import com.icodici.minicrypto.AbstractPublicKey;
 import com.icodici.minicrypto.EncryptionError;
 import com.icodici.minicrypto.HashType;
 import com.icodici.minicrypto.boss.Boss;
+import com.icodici.minicrypto.rsaoaep.scrsa.RSAPrivateCrtKeyContext;
 import org.spongycastle.crypto.*;
 import org.spongycastle.crypto.digests.SHA1Digest;
 import org.spongycastle.crypto.encodings.OAEPEncoding;
@@ -25,10 +26,21 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.SecureRandom;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * The Private Key for RSA asymmetric algorithm used together with OAEP padding.
@@ -51,11 +63,17 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
     private static final byte[] DEFAULT_PUBLIC_EXPONENT = Hex.decode("010001");  /* 65537*/
     private static final int DEFAULT_RSA_CERTAINTY = 20;
 
+    /**
+     * Number of ciphertexts decrypted by a single task of {@link #decryptAll(List)}, sharing the blinding factors
+     * generation.
+     */
+    static final int BATCH_CHUNK_SIZE = 32;
+
     /**
      * Inner state of private key.
      */
     class State {
-        final  AsymmetricBlockCipher decryptor;
+        final  EnginePool<AsymmetricBlockCipher> decryptors;
         final  RSAPrivateCrtKeyParameters keyParameters;
         final  RSAOAEPPublicKey publicKey;
         final  HashType oaepHashType;
@@ -63,15 +81,32 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
         final 
         SecureRandom rng;
 
-        State(AsymmetricBlockCipher decryptor,
+        /**
+         * Pools of PSS signers, initialized with the key, using maximum salt length, per hash type.
+         */
+        final ConcurrentHashMap<HashType, EnginePool<PSSSigner>> signers = new ConcurrentHashMap<>();
+
+        /**
+         * Same as {@link #signers} but signing already calculated message hashes.
+         */
+        final ConcurrentHashMap<HashType, EnginePool<PSSSigner>> digestSigners = new ConcurrentHashMap<>();
+
+        /**
+         * Blinding decryptors for {@link #decryptAll(List)}.
+         */
+        final EnginePool<BatchDecryptor> batchDecryptors;
+
+        State(EnginePool<AsymmetricBlockCipher> decryptors,
               RSAPrivateCrtKeyParameters keyParameters, RSAOAEPPublicKey publicKey,
               HashType oaepHashType, HashType mgf1HashType, SecureRandom rng) {
-            this.decryptor = decryptor;
+            this.decryptors = decryptors;
             this.keyParameters = keyParameters;
             this.publicKey = publicKey;
             this.oaepHashType = oaepHashType;
             this.mgf1HashType = mgf1HashType;
             this.rng = rng;
+            this.batchDecryptors = new EnginePool<>(
+                    () -> new BatchDecryptor((RSAPrivateCrtKeyContext) keyParameters, mgf1HashType, rng));
         }
     }
 
@@ -118,41 +153,56 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
 
         final RSAKeyPair keyPair = RSAKeyPair.fromExponents(e, p, q);
 
-        final RSAPrivateCrtKeyParameters privParameters = new RSAPrivateCrtKeyParameters(
+        // Key context precomputes everything for the RSA operation once, for all the engines of the key.
+        final RSAPrivateCrtKeyParameters privParameters = new RSAPrivateCrtKeyContext(
                 BigIntegers.fromUnsignedByteArray(keyPair.n),
                 BigIntegers.fromUnsignedByteArray(keyPair.e), BigIntegers.fromUnsignedByteArray(keyPair.d),
                 BigIntegers.fromUnsignedByteArray(keyPair.p), BigIntegers.fromUnsignedByteArray(keyPair.q),
                 BigIntegers.fromUnsignedByteArray(keyPair.dP), BigIntegers.fromUnsignedByteArray(keyPair.dQ),
                 BigIntegers.fromUnsignedByteArray(keyPair.qInv));
 
-        final AsymmetricBlockCipher decryptor = makeDecryptor(mgf1HashType);
+        // Decryptors are stateful, so each thread takes its own one from the pool; all of them share
+        // the same immutable key parameters.
+        final EnginePool<AsymmetricBlockCipher> decryptors = new EnginePool<>(
+                () -> makeDecryptor(privParameters, mgf1HashType, rng));
 
         // Private key goes together with its public key.
         final RSAOAEPPublicKey publicKey = new RSAOAEPPublicKey();
         publicKey.init(keyPair.n, keyPair.e, oaepHashType, mgf1HashType, rng);
 
-        state = new State(decryptor, privParameters, publicKey, oaepHashType, mgf1HashType, rng);
-        resetDecryptor();
+        state = new State(decryptors, privParameters, publicKey, oaepHashType, mgf1HashType, rng);
     }
 
     /**
-     * Create the proper decryptor engine.
+     * Create the proper decryptor engine, initialized with the key.
      */
-    private AsymmetricBlockCipher makeDecryptor(HashType mgf1HashType) {
+    private static AsymmetricBlockCipher makeDecryptor(RSAPrivateCrtKeyParameters keyParameters,
+                                                       HashType mgf1HashType, SecureRandom rng) {
         final Digest dummyDigest = new SHA1Digest(); // Only to satisfy interface.
 
-        return new OAEPEncoding(RSAEngineFactory.make(), dummyDigest, mgf1HashType.makeDigest(), new byte[0]);
+        final AsymmetricBlockCipher decryptor = new OAEPEncoding(
+                RSAEngineFactory.make(), dummyDigest, mgf1HashType.makeDigest(), new byte[0]);
+        decryptor.init(false, new ParametersWithRandom(keyParameters, rng));
+        return decryptor;
     }
 
     /**
-     * Reset the decrypting RSA engine, restarting any decryption flow from the beginning.
+     * Get the pool of PSS signers with maximum salt length for the given hash type; created on first use.
+     *
+     * @param prehashed true to get signers that accept message hash instead of the message
      */
-    void resetDecryptor() {
-        if (state == null) {
-            throw new IllegalStateException();
-        } else {
-            state.decryptor.init(false, new ParametersWithRandom(state.keyParameters, state.rng));
-        }
+    private EnginePool<PSSSigner> signers(HashType hashType, boolean prehashed) {
+        final State state = this.state;
+        final ConcurrentHashMap<HashType, EnginePool<PSSSigner>> pools = prehashed ? state.digestSigners : state.signers;
+        return pools.computeIfAbsent(hashType, ht -> new EnginePool<>(() -> {
+            final Digest primaryDigest = prehashed ? new PrehashedDigest(ht.makeDigest()) : ht.makeDigest();
+            final PSSSigner signer = new PSSSigner(
+                    RSAEngineFactory.make(),
+                    primaryDigest, state.mgf1HashType.makeDigest(),
+                    getMaxSaltLength(getBitStrength(), primaryDigest.getDigestSize()));
+            signer.init(true, new ParametersWithRandom(state.keyParameters, state.rng));
+            return signer;
+        }));
     }
 
     /**
@@ -163,6 +213,18 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
         generate(bitStrength, DEFAULT_PUBLIC_EXPONENT, DEFAULT_RSA_CERTAINTY, DEFAULT_OAEP_HASH, mgf1HashType);
     }
 
+    /**
+     * Generate a new key pair with the given generator, e.g. {@link
+     * com.icodici.minicrypto.rsaoaep.scrsa.ParallelRSAKeyPairGenerator} to search primes in parallel.
+     *
+     * @param bitStrength  bit strength of the key, e.g. 2048
+     * @param mgf1HashType The type of the hash(digest) function used for OAEP MGF1 hash generation.
+     * @param keyGen       RSA key pair generator, it is initialized here
+     */
+    public void generate(int bitStrength, HashType mgf1HashType, AsymmetricCipherKeyPairGenerator keyGen) {
+        generate(bitStrength, DEFAULT_PUBLIC_EXPONENT, DEFAULT_RSA_CERTAINTY, DEFAULT_OAEP_HASH, mgf1HashType, keyGen);
+    }
+
     /**
      * Generate a new key pair, with all options specified.
      *
@@ -172,7 +234,20 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
      * @param mgf1HashType The type of the hash(digest) function used for OAEP MGF1 hash generation.
      */
     public void generate(int bitStrength, byte[] e, int certainty, HashType oaepHashType, HashType mgf1HashType) {
-        final RSAKeyPairGenerator keyGen = new RSAKeyPairGenerator();
+        generate(bitStrength, e, certainty, oaepHashType, mgf1HashType, new RSAKeyPairGenerator());
+    }
+
+    /**
+     * Generate a new key pair, with all options and the generator specified.
+     *
+     * @param bitStrength bit strength of the key, e.g. 2048
+     * @param e           RSA public exponent
+     * @param certainty   RSA key generation certainty
+     * @param mgf1HashType The type of the hash(digest) function used for OAEP MGF1 hash generation.
+     * @param keyGen      RSA key pair generator, it is initialized here
+     */
+    public void generate(int bitStrength, byte[] e, int certainty, HashType oaepHashType, HashType mgf1HashType,
+                         AsymmetricCipherKeyPairGenerator keyGen) {
         keyGen.init(new RSAKeyGenerationParameters(
                 BigIntegers.fromUnsignedByteArray(e), new SecureRandom(), bitStrength, certainty));
         final AsymmetricCipherKeyPair keyPair = keyGen.generateKeyPair();
@@ -235,14 +310,72 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
         if (state == null) {
             throw new IllegalStateException();
         } else {
+            final AsymmetricBlockCipher decryptor = state.decryptors.acquire();
+            final byte[] plaintext;
             try {
-                return state.decryptor.processBlock(ciphertext, 0, ciphertext.length);
+                plaintext = decryptor.processBlock(ciphertext, 0, ciphertext.length);
             } catch (InvalidCipherTextException e) {
+                // bad ciphertext leaves the engine usable; after unexpected errors it is dropped
+                state.decryptors.release(decryptor);
                 throw new EncryptionError("decrypt failed", e);
             }
+            state.decryptors.release(decryptor);
+            return plaintext;
         }
     }
 
+    /**
+     * Decrypt many OAEP-encrypted blocks at once. Ciphertexts are decrypted in parallel on the common fork-join
+     * pool, using RSA blinding with blinding factors generated in batches (one modular inversion per {@link
+     * #BATCH_CHUNK_SIZE} ciphertexts).
+     *
+     * @param ciphertexts to decrypt
+     *
+     * @return list of plaintexts in the same order; a ciphertext that can't be decrypted gets null
+     */
+    public List<byte[]> decryptAll(List<byte[]> ciphertexts) throws IllegalStateException, EncryptionError {
+        if (state == null) {
+            throw new IllegalStateException();
+        } else {
+            final State state = this.state;
+            final byte[][] source = ciphertexts.toArray(new byte[ciphertexts.size()][]);
+            final byte[][] results = new byte[source.length][];
+            final List<Callable<Void>> tasks = new ArrayList<>();
+            for (int from = 0; from < source.length; from += BATCH_CHUNK_SIZE) {
+                final int start = from;
+                final int end = Math.min(source.length, from + BATCH_CHUNK_SIZE);
+                tasks.add(() -> {
+                    decryptChunk(state, source, results, start, end);
+                    return null;
+                });
+            }
+            try {
+                for (Future<Void> f : ForkJoinPool.commonPool().invokeAll(tasks))
+                    f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EncryptionError("decryption interrupted", e);
+            } catch (ExecutionException e) {
+                throw new EncryptionError("decrypt failed", e.getCause());
+            }
+            return Arrays.asList(results);
+        }
+    }
+
+    private static void decryptChunk(State state, byte[][] source, byte[][] results, int from, int to) {
+        final BigInteger[][] factors = BatchDecryptor.blindingFactors(to - from,
+                (RSAPrivateCrtKeyContext) state.keyParameters, state.rng);
+        final BatchDecryptor decryptor = state.batchDecryptors.acquire();
+        for (int i = from; i < to; i++) {
+            try {
+                results[i] = decryptor.decrypt(source[i], factors[0][i - from], factors[1][i - from]);
+            } catch (InvalidCipherTextException | DataLengthException e) {
+                results[i] = null;
+            }
+        }
+        state.batchDecryptors.release(decryptor);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -250,50 +383,90 @@ public class RSAOAEPPrivateKey extends AbstractPrivateKey {
      */
     @Override
     public byte[] sign(InputStream input, HashType hashType,  byte[] salt) throws IllegalStateException, IOException {
+        return sign(signer -> SignerInput.update(signer, input), hashType, salt);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Arrays backed buffers are signed without copying.
+     */
+    @Override
+    public byte[] sign(ByteBuffer data, HashType hashType, byte[] salt) throws IllegalStateException, IOException {
+        return sign(signer -> SignerInput.update(signer, data), hashType, salt);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The file is mapped into memory by parts.
+     */
+    @Override
+    public byte[] sign(FileChannel channel, HashType hashType, byte[] salt) throws IllegalStateException, IOException {
+        return sign(signer -> SignerInput.update(signer, channel), hashType, salt);
+    }
 
+    private byte[] sign(SignerInput.Source source, HashType hashType, byte[] salt) throws IOException {
         if (state == null) {
             throw new IllegalStateException();
         } else {
-            final Digest primaryDigest = hashType.makeDigest();
-
+            final EnginePool<PSSSigner> pool;
             final PSSSigner signer;
             if (salt == null) {
-                // Use maximum possible salt
-                signer = new PSSSigner(
-                        RSAEngineFactory.make(),
-                        primaryDigest, state.mgf1HashType.makeDigest(),
-                        getMaxSaltLength(getBitStrength(), primaryDigest.getDigestSize()));
+                // Use maximum possible salt; such signers are reused
+                pool = signers(hashType, false);
+                signer = pool.acquire();
+                signer.reset();
             } else {
                 // Use some specific salt
+                pool = null;
                 signer = new PSSSigner(
                         RSAEngineFactory.make(),
-                        primaryDigest, state.mgf1HashType.makeDigest(),
+                        hashType.makeDigest(), state.mgf1HashType.makeDigest(),
                         salt);
+                signer.init(true, new ParametersWithRandom(state.keyParameters, state.rng));
             }
 
-            signer.init(true, new ParametersWithRandom(state.keyParameters, state.rng));
-
-            boolean done = false;
-            while (!done) {
-                int availableBytes = input.available();
-                if (availableBytes <= 0) {
-                    done = true;
-                } else {
-                    byte[] buffer = new byte[availableBytes];
-                    int howManyBytesRead = input.read(buffer);
-                    if (howManyBytesRead <= 0) {
-                        done = true;
-                    } else {
-                        signer.update(buffer, 0, howManyBytesRead);
-                    }
-                }
-            }
+            source.feed(signer);
 
+            final byte[] signature;
             try {
-                return signer.generateSignature();
+                signature = signer.generateSignature();
             } catch (CryptoException e) {
                 throw new IOException(String.format("Cannot sign data: %s", e.toString()));
             }
+            if (pool != null)
+                pool.release(signer);
+            return signature;
+        }
+    }
+
+    /**
+     * Sign the already calculated message hash. The result is the same as signing the message itself with {@link
+     * #sign(InputStream, HashType, byte[])} with maximum salt length, so it could be checked by the usual signature
+     * verification. Allows to hash messages and to do RSA operations separately, e.g. in different threads.
+     *
+     * @param digest   message hash calculated with {@link HashType#makeDigest()} of the hashType
+     * @param hashType type of the hash used
+     *
+     * @return signature
+     */
+    public byte[] signDigest(byte[] digest, HashType hashType) throws IllegalStateException, EncryptionError {
+        if (state == null) {
+            throw new IllegalStateException();
+        } else {
+            final EnginePool<PSSSigner> pool = signers(hashType, true);
+            final PSSSigner signer = pool.acquire();
+            signer.reset();
+            final byte[] signature;
+            try {
+                signer.update(digest, 0, digest.length);
+                signature = signer.generateSignature();
+            } catch (CryptoException | IllegalArgumentException e) {
+                throw new EncryptionError("Cannot sign digest: " + e.getMessage(), e);
+            }
+            pool.release(signer);
+            return signature;
         }
     }
 
@@ -10,10 +10,10 @@ package com.icodici.minicrypto.rsaoaep;
 import com.icodici.minicrypto.AbstractPublicKey;
 import com.icodici.minicrypto.EncryptionError;
 import com.icodici.minicrypto.HashType;
+import com.icodici.minicrypto.rsaoaep.scrsa.RSAPublicKeyContext;
 import org.spongycastle.crypto.AsymmetricBlockCipher;
 import org.spongycastle.crypto.Digest;
 import org.spongycastle.crypto.InvalidCipherTextException;
-import org.spongycastle.crypto.Signer;
 import org.spongycastle.crypto.digests.SHA1Digest;
 import org.spongycastle.crypto.encodings.OAEPEncoding;
 import org.spongycastle.crypto.params.ParametersWithRandom;
@@ -23,10 +23,14 @@ import org.spongycastle.util.BigIntegers;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * The Public Key for RSA asymmetric algorithm used together with OAEP padding.
@@ -47,19 +51,65 @@ public class RSAOAEPPublicKey extends AbstractPublicKey {
      */
     public static final HashType DEFAULT_MGF1_HASH = HashType.SHA1;
 
+    /**
+     * Maximum number of verifier pools kept for explicit salt lengths; verifiers of other salt lengths are not
+     * reused.
+     */
+    static final int MAX_SALTED_VERIFIER_POOLS = 16;
+
+    /**
+     * Key of the verifiers pool with explicit salt length.
+     */
+    private static final class VerifierKey {
+        final HashType hashType;
+        final int saltLength;
+        final boolean prehashed;
+
+        VerifierKey(HashType hashType, int saltLength, boolean prehashed) {
+            this.hashType = hashType;
+            this.saltLength = saltLength;
+            this.prehashed = prehashed;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof VerifierKey))
+                return false;
+            final VerifierKey k = (VerifierKey) obj;
+            return hashType == k.hashType && saltLength == k.saltLength && prehashed == k.prehashed;
+        }
+
+        @Override
+        public int hashCode() {
+            return (hashType.hashCode() * 31 + saltLength) * 2 + (prehashed ? 1 : 0);
+        }
+    }
+
     /**
      * Inner state of public key.
      */
     class State {
-        final  AsymmetricBlockCipher encryptor;
+        final  EnginePool<AsymmetricBlockCipher> encryptors;
         final  RSAKeyParameters keyParameters;
         final  HashType oaepHashType;
         final  HashType mgf1HashType;
         final  SecureRandom rng;
 
-        State(AsymmetricBlockCipher encryptor, RSAKeyParameters keyParameters,
+        /**
+         * Pools of PSS verifiers with maximum salt length, initialized with the key, per hash type: at 2 *
+         * ordinal of the hash type, plus one for verifiers that check the message hash instead of the message.
+         */
+        final AtomicReferenceArray<EnginePool<PSSSigner>> verifiers =
+                new AtomicReferenceArray<>(2 * HashType.values().length);
+
+        /**
+         * Same as {@link #verifiers} for explicit salt lengths, up to {@link #MAX_SALTED_VERIFIER_POOLS} pools.
+         */
+        final ConcurrentHashMap<VerifierKey, EnginePool<PSSSigner>> saltedVerifiers = new ConcurrentHashMap<>();
+
+        State(EnginePool<AsymmetricBlockCipher> encryptors, RSAKeyParameters keyParameters,
               HashType oaepHashType, HashType mgf1HashType, SecureRandom rng) {
-            this.encryptor = encryptor;
+            this.encryptors = encryptors;
             this.keyParameters = keyParameters;
             this.oaepHashType = oaepHashType;
             this.mgf1HashType = mgf1HashType;
@@ -99,31 +149,28 @@ public class RSAOAEPPublicKey extends AbstractPublicKey {
      * Hidden (package-private) initializer, for internal/unittest usage.
      */
     void init(byte[] n, byte[] e, HashType oaepHashType, HashType mgf1HashType, SecureRandom rng) {
-        final RSAKeyParameters pubParameters = new RSAKeyParameters(
+        // Key context precomputes everything for the RSA operation once, for all the engines of the key.
+        final RSAKeyParameters pubParameters = new RSAPublicKeyContext(
                 false, BigIntegers.fromUnsignedByteArray(n), BigIntegers.fromUnsignedByteArray(e));
 
-        state = new State(makeEncryptor(mgf1HashType), pubParameters, oaepHashType, mgf1HashType, rng);
-        resetEncryptor();
+        // Encryptors are stateful, so each thread takes its own one from the pool.
+        final EnginePool<AsymmetricBlockCipher> encryptors = new EnginePool<>(
+                () -> makeEncryptor(pubParameters, mgf1HashType, rng));
+
+        state = new State(encryptors, pubParameters, oaepHashType, mgf1HashType, rng);
     }
 
     /**
-     * Create the proper encryptor engine.
+     * Create the proper encryptor engine, initialized with the key.
      */
-    private AsymmetricBlockCipher makeEncryptor(HashType mgf1HashType) {
+    private static AsymmetricBlockCipher makeEncryptor(RSAKeyParameters keyParameters, HashType mgf1HashType,
+                                                       SecureRandom rng) {
         final Digest dummyDigest = new SHA1Digest(); // Only to satisfy interface.
 
-        return new OAEPEncoding(RSAEngineFactory.make(), dummyDigest, mgf1HashType.makeDigest(), new byte[0]);
-    }
-
-    /**
-     * Reset the encrypting RSA engine, restarting any encryption flow from the beginning.
-     */
-    void resetEncryptor() {
-        if (state == null) {
-            throw new IllegalStateException();
-        } else {
-            state.encryptor.init(true, new ParametersWithRandom(state.keyParameters, state.rng));
-        }
+        final AsymmetricBlockCipher encryptor = new OAEPEncoding(
+                RSAEngineFactory.make(), dummyDigest, mgf1HashType.makeDigest(), new byte[0]);
+        encryptor.init(true, new ParametersWithRandom(keyParameters, rng));
+        return encryptor;
     }
 
     /**
@@ -163,11 +210,16 @@ public class RSAOAEPPublicKey extends AbstractPublicKey {
         if (state == null) {
             throw new IllegalStateException();
         } else {
+            final AsymmetricBlockCipher encryptor = state.encryptors.acquire();
+            final byte[] ciphertext;
             try {
-                return state.encryptor.processBlock(plaintext, 0, plaintext.length);
+                ciphertext = encryptor.processBlock(plaintext, 0, plaintext.length);
             } catch (InvalidCipherTextException e) {
+                state.encryptors.release(encryptor);
                 throw new EncryptionError(String.format("Cannot encode: %s", e.toString()));
             }
+            state.encryptors.release(encryptor);
+            return ciphertext;
         }
     }
 
@@ -178,45 +230,136 @@ public class RSAOAEPPublicKey extends AbstractPublicKey {
     @Override
     public boolean checkSignature(InputStream input, byte[] signature, HashType hashType, int saltLength) throws
             IllegalStateException, IOException {
+        return checkSignature(checker -> SignerInput.update(checker, input), signature, hashType, saltLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Arrays backed buffers are checked without copying.
+     */
+    @Override
+    public boolean checkSignature(ByteBuffer data, byte[] signature, HashType hashType, int saltLength) throws
+            IllegalStateException, IOException {
+        return checkSignature(checker -> SignerInput.update(checker, data), signature, hashType, saltLength);
+    }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The file is mapped into memory by parts.
+     */
+    @Override
+    public boolean checkSignature(FileChannel channel, byte[] signature, HashType hashType, int saltLength) throws
+            IllegalStateException, IOException {
+        return checkSignature(checker -> SignerInput.update(checker, channel), signature, hashType, saltLength);
+    }
+
+    /**
+     * Check the signature of the already calculated message hash. The signature could be created from the message
+     * itself, or from its hash with {@link RSAOAEPPrivateKey#signDigest(byte[], HashType)}.
+     *
+     * @param digest     message hash calculated with {@link HashType#makeDigest()} of the hashType
+     * @param signature  signature to check
+     * @param hashType   type of the hash used
+     * @param saltLength salt length, or {@link #MAX_SALT_LENGTH}
+     *
+     * @return true if the signature is valid, false if not.
+     * @throws IllegalArgumentException if the digest size does not match the hash type
+     */
+    public boolean checkSignatureDigest(byte[] digest, byte[] signature, HashType hashType, int saltLength)
+            throws IllegalStateException {
+        try {
+            return checkSignature(checker -> checker.update(digest, 0, digest.length),
+                    signature, hashType, saltLength, true);
+        } catch (IOException e) {
+            throw new RuntimeException("unexpected IO exception", e);
+        }
+    }
+
+    /**
+     * Check the signature of the already calculated message hash, created with maximum salt length, see {@link
+     * #checkSignatureDigest(byte[], byte[], HashType, int)}.
+     */
+    public boolean checkSignatureDigest(byte[] digest, byte[] signature, HashType hashType)
+            throws IllegalStateException {
+        return checkSignatureDigest(digest, signature, hashType, MAX_SALT_LENGTH);
+    }
+
+    private boolean checkSignature(SignerInput.Source source, byte[] signature, HashType hashType, int saltLength)
+            throws IOException {
+        return checkSignature(source, signature, hashType, saltLength, false);
+    }
+
+    private boolean checkSignature(SignerInput.Source source, byte[] signature, HashType hashType, int saltLength,
+                                   boolean prehashed) throws IOException {
         if (state == null) {
             throw new IllegalStateException();
         } else {
-            final Digest primaryDigest = hashType.makeDigest();
-
-            if (saltLength == MAX_SALT_LENGTH) {
-                saltLength = getMaxSaltLength(getBitStrength(), primaryDigest.getDigestSize());
-            }
-            if (saltLength < 0) {
+            if (saltLength != MAX_SALT_LENGTH && saltLength < 0) {
                 throw new RuntimeException(String.format("Incorrect salt length %s", saltLength));
             }
 
-            final Signer signatureChecker = new PSSSigner(
-                    RSAEngineFactory.make(),
-                    primaryDigest, state.mgf1HashType.makeDigest(),
-                    saltLength);
-            signatureChecker.init(false, new ParametersWithRandom(state.keyParameters, state.rng));
-
-            boolean done = false;
-            while (!done) {
-                int availableBytes = input.available();
-                if (availableBytes <= 0) {
-                    done = true;
-                } else {
-                    byte[] buffer = new byte[availableBytes];
-                    int howManyBytesRead = input.read(buffer);
-                    if (howManyBytesRead <= 0) {
-                        done = true;
-                    } else {
-                        signatureChecker.update(buffer, 0, howManyBytesRead);
-                    }
-                }
-            }
+            final EnginePool<PSSSigner> pool = verifiers(hashType, saltLength, prehashed);
+            final PSSSigner signatureChecker = pool.acquire();
+            signatureChecker.reset();
+
+            source.feed(signatureChecker);
 
-            return signatureChecker.verifySignature(signature);
+            final boolean result = signatureChecker.verifySignature(signature);
+            pool.release(signatureChecker);
+            return result;
         }
     }
 
+    /**
+     * Get the pool of PSS verifiers for the given hash type and salt length (possibly {@link #MAX_SALT_LENGTH});
+     * created on first use.
+     *
+     * @param prehashed true to get verifiers that accept message hash instead of the message
+     */
+    private EnginePool<PSSSigner> verifiers(HashType hashType, int saltLength, boolean prehashed) {
+        final State state = this.state;
+        if (saltLength == MAX_SALT_LENGTH) {
+            final int slot = verifierSlot(hashType, prehashed);
+            final EnginePool<PSSSigner> pool = state.verifiers.get(slot);
+            if (pool != null)
+                return pool;
+            state.verifiers.compareAndSet(slot, null, newVerifiers(state, hashType, saltLength, prehashed));
+            return state.verifiers.get(slot);
+        }
+        final VerifierKey key = new VerifierKey(hashType, saltLength, prehashed);
+        final EnginePool<PSSSigner> pool = state.saltedVerifiers.get(key);
+        if (pool != null)
+            return pool;
+        final EnginePool<PSSSigner> created = newVerifiers(state, hashType, saltLength, prehashed);
+        if (state.saltedVerifiers.size() >= MAX_SALTED_VERIFIER_POOLS)
+            return created;
+        final EnginePool<PSSSigner> existing = state.saltedVerifiers.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    private static int verifierSlot(HashType hashType, boolean prehashed) {
+        return hashType.ordinal() * 2 + (prehashed ? 1 : 0);
+    }
+
+    private EnginePool<PSSSigner> newVerifiers(State state, HashType hashType, int saltLength, boolean prehashed) {
+        return new EnginePool<>(() -> {
+            final Digest primaryDigest = prehashed ? new PrehashedDigest(hashType.makeDigest()) : hashType.makeDigest();
+            final int actualSaltLength = saltLength == MAX_SALT_LENGTH ?
+                    getMaxSaltLength(getBitStrength(), primaryDigest.getDigestSize()) : saltLength;
+            if (actualSaltLength < 0) {
+                throw new RuntimeException(String.format("Incorrect salt length %s", actualSaltLength));
+            }
+            final PSSSigner verifier = new PSSSigner(
+                    RSAEngineFactory.make(),
+                    primaryDigest, state.mgf1HashType.makeDigest(),
+                    actualSaltLength);
+            verifier.init(false, new ParametersWithRandom(state.keyParameters, state.rng));
+            return verifier;
+        });
+    }
+
     /**
      * {@inheritDoc}
      */
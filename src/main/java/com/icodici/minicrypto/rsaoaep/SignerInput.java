@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.rsaoaep;
+
+import org.spongycastle.crypto.Signer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Feeds signed data from various sources to the {@link Signer} in chunks of constant size, so documents of any
+ * size could be signed and checked with constant memory.
+ */
+final class SignerInput {
+
+    /**
+     * Source of data to sign or check.
+     */
+    interface Source {
+        void feed(Signer signer) throws IOException;
+    }
+
+    /**
+     * Size of the buffer used to read streams and to copy buffers without accessible array.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum size of the file part mapped into memory at once.
+     */
+    static final long MAX_MAPPED_PART = 1L << 30;
+
+    private SignerInput() {
+    }
+
+    /**
+     * Read the stream to the end updating the signer.
+     */
+    static void update(Signer signer, InputStream in) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            if (n > 0)
+                signer.update(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Update the signer with remaining bytes of the buffer, moving its position to the limit.
+     */
+    static void update(Signer signer, ByteBuffer data) {
+        if (data.hasArray()) {
+            signer.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            final byte[] buffer = new byte[Math.min(BUFFER_SIZE, data.remaining())];
+            while (data.hasRemaining()) {
+                final int n = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, n);
+                signer.update(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Update the signer with the file contents from the current channel position to the end, mapping it into memory
+     * by parts. The channel position is moved to the end.
+     */
+    static void update(Signer signer, FileChannel channel) throws IOException {
+        long position = channel.position();
+        final long size = channel.size();
+        while (position < size) {
+            final long length = Math.min(MAX_MAPPED_PART, size - position);
+            update(signer, channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            position += length;
+        }
+        channel.position(position);
+    }
+}
@@ -0,0 +1,87 @@
+package com.icodici.minicrypto.rsaoaep.scrsa;
+
+import com.squareup.jnagmp.Gmp;
+import com.squareup.jnagmp.GmpInteger;
+import org.spongycastle.math.Primes;
+import org.spongycastle.util.BigIntegers;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * Modular arithmetic for RSA contexts: uses jna-gmp when the native library is available, otherwise falls back to
+ * {@link BigInteger}.
+ */
+final class GmpMath {
+
+    /**
+     * True if GMP native library is loaded and could be used.
+     */
+    static final boolean AVAILABLE = checkAvailable();
+
+    private GmpMath() {
+    }
+
+    private static boolean checkAvailable() {
+        try {
+            Gmp.checkLoaded();
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * Convert the number that will be used many times to the form fastest for {@link #modPow}: with GMP, the native
+     * copy is created once.
+     */
+    static BigInteger prepare(BigInteger value) {
+        return AVAILABLE ? new GmpInteger(value) : value;
+    }
+
+    /**
+     * Calculate base^exponent mod modulus.
+     *
+     * @param secure true to use constant time (side-channel resistant) algorithm, required for private exponents
+     */
+    static BigInteger modPow(BigInteger base, BigInteger exponent, BigInteger modulus, boolean secure) {
+        if (!AVAILABLE)
+            return base.modPow(exponent, modulus);
+        return secure ? Gmp.modPowSecure(base, exponent, modulus) : Gmp.modPowInsecure(base, exponent, modulus);
+    }
+
+    /**
+     * Miller-Rabin probabilistic primality test, same as {@link Primes#isMRProbablePrime(BigInteger, SecureRandom,
+     * int)} but with GMP exponentiation when available. Exponentiation is constant time as candidates are secret RSA
+     * primes.
+     *
+     * @param candidate  odd number greater than 3 to test
+     * @param iterations number of random bases to try
+     */
+    static boolean isMRProbablePrime(BigInteger candidate, SecureRandom random, int iterations) {
+        if (!AVAILABLE)
+            return Primes.isMRProbablePrime(candidate, random, iterations);
+        final BigInteger two = BigInteger.valueOf(2);
+        final BigInteger w = candidate.subtract(BigInteger.ONE);
+        final int s = w.getLowestSetBit();
+        final BigInteger m = prepare(w.shiftRight(s));
+        final BigInteger modulus = prepare(candidate);
+        final BigInteger maxBase = candidate.subtract(two);
+        next_base:
+        for (int i = 0; i < iterations; i++) {
+            final BigInteger b = BigIntegers.createRandomInRange(two, maxBase, random);
+            BigInteger z = Gmp.modPowSecure(b, m, modulus);
+            if (z.equals(BigInteger.ONE) || z.equals(w))
+                continue;
+            for (int j = 1; j < s; j++) {
+                z = z.multiply(z).mod(candidate);
+                if (z.equals(w))
+                    continue next_base;
+                if (z.equals(BigInteger.ONE))
+                    return false;
+            }
+            return false;
+        }
+        return true;
+    }
+}
@@ -3,8 +3,6 @@ package com.icodici.minicrypto.rsaoaep.scrsa;
 // Copy of org.bouncycastle.crypto.engines.RSAEngine,
 // then copy of com.squareup.crypto.rsa;
 
-import com.squareup.jnagmp.GmpInteger;
-
 import org.spongycastle.crypto.CipherParameters;
 import org.spongycastle.crypto.DataLengthException;
 import org.spongycastle.crypto.params.ParametersWithRandom;
@@ -13,33 +11,22 @@ import org.spongycastle.crypto.params.RSAPrivateCrtKeyParameters;
 
 import java.math.BigInteger;
 
-import static com.squareup.jnagmp.Gmp.modPowInsecure;
-import static com.squareup.jnagmp.Gmp.modPowSecure;
-
 /**
  * this does your basic RSA algorithm.
  * <p>
- * SQUARE: replacement for {@code RSACoreEngine}; this is <i>much</i> faster using jna-gmp.
+ * SQUARE: replacement for {@code RSACoreEngine}; this is <i>much</i> faster using jna-gmp. The arithmetic is done
+ * by the per-key {@link RSAKeyContext}, which falls back to {@link BigInteger} if GMP is not available.
  */
 final class NativeRSACoreEngine {
     private RSAKeyParameters key;
     private boolean forEncryption;
-    private boolean isPrivate;
-    private boolean isSmallExponent;
-
-    // cached components for private CRT key
-    private GmpInteger p;
-    private GmpInteger q;
-    private GmpInteger dP;
-    private GmpInteger dQ;
-    private BigInteger qInv;
 
-    // cached components for public key
-    private GmpInteger exponent;
-    private GmpInteger modulus;
+    // precomputed key context, shared by all engines initialized with the same context key parameters
+    private RSAKeyContext context;
 
     /**
-     * initialise the RSA engine.
+     * initialise the RSA engine. If the key parameters are {@link RSAKeyContext}, the context is used as is,
+     * otherwise it is created for the key.
      *
      * @param forEncryption true if we are encrypting, false otherwise.
      * @param param         the necessary RSA key parameters.
@@ -57,30 +44,12 @@ final class NativeRSACoreEngine {
 
         this.forEncryption = forEncryption;
 
-        if (key instanceof RSAPrivateCrtKeyParameters) {
-            isPrivate = true;
-            //
-            // we have the extra factors, use the Chinese Remainder Theorem - the author
-            // wishes to express his thanks to Dirk Bonekaemper at rtsffm.com for
-            // advice regarding the expression of this.
-            //
-            RSAPrivateCrtKeyParameters crtKey = (RSAPrivateCrtKeyParameters) key;
-
-            p = new GmpInteger(crtKey.getP());
-            q = new GmpInteger(crtKey.getQ());
-            dP = new GmpInteger(crtKey.getDP());
-            dQ = new GmpInteger(crtKey.getDQ());
-            qInv = crtKey.getQInv();
-
-            exponent = modulus = null;
+        if (key instanceof RSAKeyContext) {
+            context = (RSAKeyContext) key;
+        } else if (key instanceof RSAPrivateCrtKeyParameters) {
+            context = RSAPrivateCrtKeyContext.of((RSAPrivateCrtKeyParameters) key);
         } else {
-            isPrivate = false;
-            exponent = new GmpInteger(key.getExponent());
-            modulus = new GmpInteger(key.getModulus());
-            isSmallExponent = exponent.bitLength() < 64;
-
-            p = q = dP = dQ = null;
-            qInv = null;
+            context = RSAPublicKeyContext.of(key);
         }
     }
 
@@ -183,33 +152,6 @@ final class NativeRSACoreEngine {
     }
 
     public BigInteger processBlock(BigInteger input) {
-        if (isPrivate) {
-            BigInteger mP, mQ, h, m;
-
-            // mP = ((input mod p) ^ dP)) mod p
-            mP = modPowSecure(input.remainder(p), dP, p);
-
-            // mQ = ((input mod q) ^ dQ)) mod q
-            mQ = modPowSecure(input.remainder(q), dQ, q);
-
-            // h = qInv * (mP - mQ) mod p
-            h = mP.subtract(mQ);
-            h = h.multiply(qInv);
-            h = h.mod(p);               // mod (in Java) returns the positive residual
-
-            // m = h * q + mQ
-            m = h.multiply(q);
-            m = m.add(mQ);
-
-            return m;
-        } else {
-            if (isSmallExponent) {
-                // Public key with reasonable (small) exponent, no need for secure.
-                return modPowInsecure(input, exponent, modulus);
-            } else {
-                // Client mistakenly configured private key as public? Better be safe than sorry.
-                return modPowSecure(input, exponent, modulus);
-            }
-        }
+        return context.process(input);
     }
 }
\ No newline at end of file
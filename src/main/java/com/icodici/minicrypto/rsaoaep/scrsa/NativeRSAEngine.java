@@ -11,7 +11,8 @@ import org.spongycastle.crypto.engines.RSAEngine;
 /**
  * this does your basic RSA algorithm.
  * <p>
- * SQUARE: replacement for {@link RSAEngine}; this is <i>much</i> faster using jna-gmp.
+ * SQUARE: replacement for {@link RSAEngine}; this is <i>much</i> faster using jna-gmp. Initialize it with {@link
+ * RSAKeyContext} key parameters to share the per-key precomputation between engines.
  */
 public final class NativeRSAEngine extends RSAEngine
         implements AsymmetricBlockCipher {
@@ -0,0 +1,220 @@
+package com.icodici.minicrypto.rsaoaep.scrsa;
+
+// Same algorithm and constraints as org.spongycastle.crypto.generators.RSAKeyPairGenerator,
+// with concurrent prime search.
+
+import org.spongycastle.crypto.AsymmetricCipherKeyPair;
+import org.spongycastle.crypto.AsymmetricCipherKeyPairGenerator;
+import org.spongycastle.crypto.KeyGenerationParameters;
+import org.spongycastle.crypto.params.RSAKeyGenerationParameters;
+import org.spongycastle.crypto.params.RSAKeyParameters;
+import org.spongycastle.crypto.params.RSAPrivateCrtKeyParameters;
+import org.spongycastle.math.Primes;
+import org.spongycastle.math.ec.WNafUtil;
+
+import java.math.BigInteger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RSA key pair generator that searches primes in parallel: p and q are searched at the same time, and each of them
+ * by several concurrent searchers; the first found prime cancels the rest of its search. The generated keys satisfy
+ * the same constraints as of {@link org.spongycastle.crypto.generators.RSAKeyPairGenerator} (p mod e != 1, bounds and
+ * distance of p and q, NAF weight of the modulus, size of the private exponent). Miller-Rabin tests use GMP when
+ * available.
+ * <p>
+ * The calling thread takes part in the search, so the generation completes even if the executor is busy.
+ */
+public final class ParallelRSAKeyPairGenerator implements AsymmetricCipherKeyPairGenerator {
+
+    private static final BigInteger ONE = BigInteger.valueOf(1);
+
+    private final Executor executor;
+    private final int parallelism;
+    private RSAKeyGenerationParameters param;
+    private int iterations;
+
+    /**
+     * Create generator using {@link ForkJoinPool#commonPool()}, with one searcher per processor for each prime
+     * (including the calling thread).
+     */
+    public ParallelRSAKeyPairGenerator() {
+        this(ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create generator using specified executor.
+     *
+     * @param executor    to run searchers on
+     * @param parallelism number of concurrent searchers for each prime, including the calling thread; 1 means no
+     *                    parallel search
+     */
+    public ParallelRSAKeyPairGenerator(Executor executor, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public void init(KeyGenerationParameters param) {
+        this.param = (RSAKeyGenerationParameters) param;
+        this.iterations = getNumberOfIterations(this.param.getStrength(), this.param.getCertainty());
+    }
+
+    @Override
+    public AsymmetricCipherKeyPair generateKeyPair() {
+        final int strength = param.getStrength();
+        final int pbitlength = (strength + 1) / 2;
+        final int qbitlength = strength - pbitlength;
+        final int mindiffbits = Math.max(strength / 2 - 100, strength / 3);
+        final int minWeight = strength >> 2;
+        final BigInteger e = param.getPublicExponent();
+        final BigInteger dLowerBound = BigInteger.valueOf(2).pow(strength / 2);
+        final BigInteger squaredBound = ONE.shiftLeft(strength - 1);
+        final BigInteger minDiff = ONE.shiftLeft(mindiffbits);
+
+        BigInteger p = null;
+        while (true) {
+            final BigInteger q;
+            if (p == null) {
+                final Search pSearch = start(pbitlength, e, squaredBound);
+                final Search qSearch = start(qbitlength, e, squaredBound);
+                p = pSearch.get();
+                q = qSearch.get();
+            } else
+                q = start(qbitlength, e, squaredBound).get();
+
+            final BigInteger diff = q.subtract(p).abs();
+            if (diff.bitLength() < mindiffbits || diff.compareTo(minDiff) <= 0)
+                continue;
+
+            final BigInteger n = p.multiply(q);
+            if (n.bitLength() != strength) {
+                // if we get here our primes aren't big enough, make the largest of the two p and try again
+                p = p.max(q);
+                continue;
+            }
+
+            // Require a minimum weight of the NAF representation, since low-weight composites may
+            // be weak against a version of the number-field-sieve for factoring.
+            if (WNafUtil.getNafWeight(n) < minWeight) {
+                p = null;
+                continue;
+            }
+
+            BigInteger bigP = p, smallQ = q;
+            if (bigP.compareTo(smallQ) < 0) {
+                bigP = q;
+                smallQ = p;
+            }
+            final BigInteger pSub1 = bigP.subtract(ONE);
+            final BigInteger qSub1 = smallQ.subtract(ONE);
+            final BigInteger gcd = pSub1.gcd(qSub1);
+            final BigInteger lcm = pSub1.divide(gcd).multiply(qSub1);
+
+            // private exponent, must be big enough (FIPS 186-4)
+            final BigInteger d = e.modInverse(lcm);
+            if (d.compareTo(dLowerBound) <= 0) {
+                p = null;
+                continue;
+            }
+
+            final BigInteger dP = d.remainder(pSub1);
+            final BigInteger dQ = d.remainder(qSub1);
+            final BigInteger qInv = smallQ.modInverse(bigP);
+            return new AsymmetricCipherKeyPair(
+                    new RSAKeyParameters(false, n, e),
+                    new RSAPrivateCrtKeyParameters(n, e, d, bigP, smallQ, dP, dQ, qInv));
+        }
+    }
+
+    /**
+     * Start searching a random prime suitable for RSA on the executor.
+     */
+    private Search start(int bitlength, BigInteger e, BigInteger sqrdBound) {
+        final Search search = new Search(bitlength, e, sqrdBound);
+        for (int i = 1; i < parallelism; i++)
+            CompletableFuture.runAsync(search::run, executor);
+        return search;
+    }
+
+    /**
+     * Concurrent search of one prime. Each searcher tries random candidates until somebody finds the prime.
+     */
+    private class Search {
+        private final int bitlength;
+        private final BigInteger e;
+        private final BigInteger sqrdBound;
+        private final CompletableFuture<BigInteger> result = new CompletableFuture<>();
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        Search(int bitlength, BigInteger e, BigInteger sqrdBound) {
+            this.bitlength = bitlength;
+            this.e = e;
+            this.sqrdBound = sqrdBound;
+        }
+
+        void run() {
+            try {
+                while (!result.isDone()) {
+                    if (attempts.getAndIncrement() >= 5 * bitlength) {
+                        result.completeExceptionally(
+                                new IllegalStateException("unable to generate prime number for RSA key"));
+                        return;
+                    }
+                    final BigInteger p = new BigInteger(bitlength, 1, param.getRandom());
+                    if (p.mod(e).equals(ONE))
+                        continue;
+                    if (p.multiply(p).compareTo(sqrdBound) < 0)
+                        continue;
+                    if (!isProbablePrime(p))
+                        continue;
+                    if (!e.gcd(p.subtract(ONE)).equals(ONE))
+                        continue;
+                    result.complete(p);
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+
+        /**
+         * Search in the calling thread too, then wait for the result.
+         */
+        BigInteger get() {
+            run();
+            return result.join();
+        }
+    }
+
+    private boolean isProbablePrime(BigInteger x) {
+        return !Primes.hasAnySmallFactors(x) && GmpMath.isMRProbablePrime(x, param.getRandom(), iterations);
+    }
+
+    private static int getNumberOfIterations(int bits, int certainty) {
+        /*
+         * NOTE: We enforce a minimum 'certainty' of 100 for bits >= 1024 (else 80). Where the
+         * certainty is higher than the FIPS 186-4 tables (C.2/C.3) cater to, extra iterations
+         * are added at the "worst case rate" for the excess.
+         */
+        if (bits >= 1536) {
+            return certainty <= 100 ? 3
+                    : certainty <= 128 ? 4
+                    : 4 + (certainty - 128 + 1) / 2;
+        } else if (bits >= 1024) {
+            return certainty <= 100 ? 4
+                    : certainty <= 112 ? 5
+                    : 5 + (certainty - 112 + 1) / 2;
+        } else if (bits >= 512) {
+            return certainty <= 80 ? 5
+                    : certainty <= 100 ? 7
+                    : 7 + (certainty - 100 + 1) / 2;
+        } else {
+            return certainty <= 80 ? 40
+                    : 40 + (certainty - 80 + 1) / 2;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.icodici.minicrypto.rsaoaep.scrsa;
+
+import java.math.BigInteger;
+
+/**
+ * RSA key parameters with everything needed for the RSA operation precomputed once per key. Contexts are immutable
+ * and thread-safe, so all engines initialized with the same context share it; {@link NativeRSAEngine} recognizes
+ * key parameters implementing this interface and skips per-initialization conversions.
+ */
+public interface RSAKeyContext {
+
+    /**
+     * Perform the raw RSA operation with the key.
+     *
+     * @param input number less than the modulus
+     *
+     * @return result of the exponentiation
+     */
+    BigInteger process(BigInteger input);
+}
@@ -0,0 +1,39 @@
+package com.icodici.minicrypto.rsaoaep.scrsa;
+
+import org.spongycastle.crypto.params.RSAKeyParameters;
+
+import java.math.BigInteger;
+
+/**
+ * Non-CRT key parameters (normally, public key) with precomputed context: exponent and modulus are converted to GMP
+ * numbers once per key (when GMP is available; otherwise plain {@link BigInteger} arithmetic is used).
+ */
+public final class RSAPublicKeyContext extends RSAKeyParameters implements RSAKeyContext {
+
+    private final BigInteger exponent;
+    private final BigInteger modulus;
+    private final boolean isSmallExponent;
+
+    public RSAPublicKeyContext(boolean isPrivate, BigInteger modulus, BigInteger exponent) {
+        super(isPrivate, modulus, exponent);
+        this.exponent = GmpMath.prepare(exponent);
+        this.modulus = GmpMath.prepare(modulus);
+        this.isSmallExponent = exponent.bitLength() < 64;
+    }
+
+    /**
+     * Create context for the existing key parameters.
+     */
+    public static RSAPublicKeyContext of(RSAKeyParameters key) {
+        if (key instanceof RSAPublicKeyContext)
+            return (RSAPublicKeyContext) key;
+        return new RSAPublicKeyContext(key.isPrivate(), key.getModulus(), key.getExponent());
+    }
+
+    @Override
+    public BigInteger process(BigInteger input) {
+        // Public key with reasonable (small) exponent, no need for secure. Otherwise the client mistakenly
+        // configured private key as public? Better be safe than sorry.
+        return GmpMath.modPow(input, exponent, modulus, !isSmallExponent);
+    }
+}
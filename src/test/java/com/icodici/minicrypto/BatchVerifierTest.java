@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BatchVerifierTest {
+
+    private static PrivateKey[] keys;
+
+    @BeforeClass
+    public static void generateKeys() {
+        keys = new PrivateKey[3];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = new PrivateKey(2048);
+    }
+
+    /**
+     * Jobs of all keys with valid and invalid signatures mixed; bit i of the expected set tells if job i is valid.
+     */
+    private static List<BatchVerifier.Job> jobs(int count, BitSet expected) throws Exception {
+        Random random = new Random(count);
+        List<BatchVerifier.Job> jobs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PrivateKey key = keys[i % keys.length];
+            HashType hashType = i % 2 == 0 ? HashType.SHA256 : HashType.SHA512;
+            byte[] data = new byte[random.nextInt(1000)];
+            random.nextBytes(data);
+            byte[] signature = key.sign(data, hashType);
+            AbstractKey verifyingKey = i % 5 == 0 ? key : key.getPublicKey();
+            switch (i % 7) {
+                case 1:
+                    // signed by another key
+                    verifyingKey = keys[(i + 1) % keys.length].getPublicKey();
+                    break;
+                case 3:
+                    signature[random.nextInt(signature.length)] ^= 1;
+                    break;
+                case 4:
+                    hashType = HashType.SHA3_256;
+                    break;
+                case 5:
+                    signature = new byte[]{1, 2, 3};
+                    break;
+                case 6:
+                    if (i % 2 == 0)
+                        verifyingKey = null;
+                    else
+                        expected.set(i);
+                    break;
+                default:
+                    expected.set(i);
+            }
+            jobs.add(new BatchVerifier.Job(verifyingKey, data, signature, hashType));
+        }
+        return jobs;
+    }
+
+    @Test
+    public void mixedJobs() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BatchVerifier verifier = new BatchVerifier(executor, 3);
+            long bytes = 0;
+            long verified = 0;
+            long total = 0;
+            for (int count : new int[]{0, 1, 10, 100}) {
+                BitSet expected = new BitSet();
+                List<BatchVerifier.Job> jobs = jobs(count, expected);
+                assertEquals(expected, verifier.verify(jobs));
+                for (BatchVerifier.Job job : jobs)
+                    bytes += job.getData().length;
+                verified += expected.cardinality();
+                total += count;
+            }
+            assertEquals(4, verifier.getBatchesCount());
+            assertEquals(verified, verifier.getVerifiedCount());
+            assertEquals(total - verified, verifier.getFailedCount());
+            assertEquals(bytes, verifier.getBytesProcessed());
+            assertTrue(verifier.getTotalNanos() > 0);
+            assertTrue(verifier.getSignaturesPerSecond() > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedVerifier() throws Exception {
+        BatchVerifier verifier = PublicKey.getBatchVerifier();
+        assertSame(verifier, PublicKey.getBatchVerifier());
+        long batches = verifier.getBatchesCount();
+        long verified = verifier.getVerifiedCount();
+        for (int i = 0; i < 2; i++) {
+            BitSet expected = new BitSet();
+            assertEquals(expected, PublicKey.verifyAll(jobs(50, expected)));
+            verified += expected.cardinality();
+        }
+        // other tests could use it at the same time
+        assertTrue(verifier.getBatchesCount() >= batches + 2);
+        assertTrue(verifier.getVerifiedCount() >= verified);
+    }
+
+    @Test
+    public void batchSigner() throws Exception {
+        Random random = new Random(1);
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            byte[] payload = new byte[random.nextInt(5000)];
+            random.nextBytes(payload);
+            payloads.add(payload);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (BatchSigner own = new BatchSigner(keys[0]);
+             BatchSigner shared = new BatchSigner(keys[1], executor, executor)) {
+            for (BatchSigner signer : new BatchSigner[]{own, shared}) {
+                PrivateKey key = signer == own ? keys[0] : keys[1];
+                for (HashType hashType : new HashType[]{HashType.SHA256, HashType.SHA3_384}) {
+                    List<BatchVerifier.Job> jobs = new ArrayList<>();
+                    List<CompletableFuture<byte[]>> signatures = signer.signAll(payloads, hashType);
+                    assertEquals(payloads.size(), signatures.size());
+                    for (int i = 0; i < payloads.size(); i++) {
+                        byte[] payload = payloads.get(i);
+                        byte[] signature = signatures.get(i).get();
+                        assertTrue(key.getPublicKey().verify(payload, signature, hashType));
+                        jobs.add(new BatchVerifier.Job(key, payload, signature, hashType));
+                        // signed with the wrong key
+                        jobs.add(new BatchVerifier.Job(keys[2], payload, signature, hashType));
+                    }
+                    BitSet result = new BatchVerifier().verify(jobs);
+                    assertEquals(payloads.size(), result.cardinality());
+                    for (int j = 0; j < jobs.size(); j++)
+                        assertEquals(j % 2 == 0, result.get(j));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
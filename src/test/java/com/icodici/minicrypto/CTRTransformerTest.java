@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class CTRTransformerTest {
+
+    /**
+     * Counter mode the old way: one block at a time with {@link BlockCipher#transformBlock(byte[])}.
+     */
+    static byte[] referenceCtr(BlockCipher cipher, byte[] iv, byte[] data) throws EncryptionError {
+        int blockSize = cipher.getBlockSize();
+        byte[] result = new byte[data.length];
+        for (int counter = 0; counter * blockSize < data.length; counter++) {
+            byte[] source = iv.clone();
+            source[blockSize - 4] ^= (byte) (counter >> 24);
+            source[blockSize - 3] ^= (byte) (counter >> 16);
+            source[blockSize - 2] ^= (byte) (counter >> 8);
+            source[blockSize - 1] ^= (byte) counter;
+            byte[] keystream = cipher.transformBlock(source);
+            for (int i = 0, p = counter * blockSize; i < blockSize && p < data.length; i++, p++)
+                result[p] = (byte) (data[p] ^ keystream[i]);
+        }
+        return result;
+    }
+
+    private static BlockCipher cipher() {
+        return new SymmetricKey().getCipher();
+    }
+
+    private static byte[] randomData(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void bulkMatchesPerBlock() throws Exception {
+        Random random = new Random(1);
+        BlockCipher cipher = cipher();
+        for (int size : new int[]{0, 1, 15, 16, 17, 1023, 1024, 1025, 64 * 16 + 7, 20001}) {
+            byte[] data = randomData(random, size);
+            CTRTransformer t = new CTRTransformer(cipher, null);
+            byte[] expected = referenceCtr(cipher, t.getIV(), data);
+            // odd offset in both arrays
+            byte[] target = new byte[size + 10];
+            byte[] source = new byte[size + 6];
+            System.arraycopy(data, 0, source, 3, size);
+            t.transform(source, 3, size, target, 7);
+            assertArrayEquals(expected, Arrays.copyOfRange(target, 7, 7 + size));
+        }
+    }
+
+    @Test
+    public void mixedCallsMatchPerBlock() throws Exception {
+        Random random = new Random(2);
+        BlockCipher cipher = cipher();
+        byte[] data = randomData(random, 50000);
+        CTRTransformer t = new CTRTransformer(cipher, null);
+        byte[] expected = referenceCtr(cipher, t.getIV(), data);
+        byte[] result = data.clone();
+        int position = 0;
+        int step = 0;
+        while (position < data.length) {
+            int length = Math.min(data.length - position, random.nextInt(3000));
+            switch (step++ % 5) {
+                case 0:
+                    for (int i = 0; i < length; i++)
+                        result[position + i] = (byte) t.transformByte(result[position + i]);
+                    break;
+                case 1:
+                    t.transform(result, position, length);
+                    break;
+                case 2:
+                    t.transform(ByteBuffer.wrap(data, position, length), ByteBuffer.wrap(result, position, length));
+                    break;
+                case 3: {
+                    ByteBuffer source = ByteBuffer.allocateDirect(length);
+                    source.put(data, position, length).flip();
+                    ByteBuffer target = ByteBuffer.allocateDirect(length);
+                    t.transform(source, target);
+                    target.flip();
+                    target.get(result, position, length);
+                    break;
+                }
+                default:
+                    t.transform(data, position, length, result, position);
+            }
+            position += length;
+        }
+        assertArrayEquals(expected, result);
+    }
+
+    @Test
+    public void seekToOddOffsets() throws Exception {
+        Random random = new Random(3);
+        BlockCipher cipher = cipher();
+        byte[] data = randomData(random, 5000);
+        byte[] iv = randomData(random, cipher.getBlockSize());
+        byte[] expected = referenceCtr(cipher, iv, data);
+        for (int offset : new int[]{0, 1, 15, 16, 17, 1001, 4999}) {
+            int length = Math.min(data.length - offset, 333);
+            byte[] part = new byte[length];
+            new CTRTransformer(cipher, iv, offset).transform(data, offset, length, part, 0);
+            assertArrayEquals(Arrays.copyOfRange(expected, offset, offset + length), part);
+
+            CTRTransformer t = new CTRTransformer(cipher, iv);
+            t.seek(offset);
+            t.transform(data, offset, length, part, 0);
+            assertArrayEquals(Arrays.copyOfRange(expected, offset, offset + length), part);
+        }
+    }
+
+    @Test
+    public void streamsMatchPerBlock() throws Exception {
+        Random random = new Random(4);
+        SymmetricKey key = new SymmetricKey();
+        byte[] data = randomData(random, 10007);
+        byte[] encrypted = key.encrypt(data);
+        int blockSize = key.getCipher().getBlockSize();
+        byte[] iv = Arrays.copyOf(encrypted, blockSize);
+        assertArrayEquals(referenceCtr(key.getCipher(), iv, data),
+                          Arrays.copyOfRange(encrypted, blockSize, encrypted.length));
+        assertArrayEquals(data, key.decrypt(encrypted));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void checksBounds() throws Exception {
+        new CTRTransformer(cipher(), null).transform(new byte[10], 5, 6, new byte[10], 0);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import com.icodici.minicrypto.boss.Boss;
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ExtendedSignatureTest {
+
+    private static byte[] withExts(Object exts) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("exts", exts);
+        map.put("sign", new byte[16]);
+        return Boss.pack(map);
+    }
+
+    @Test
+    public void brokenSignatures() throws Exception {
+        PrivateKey key = new PrivateKey(2048);
+        byte[] data = "some data".getBytes();
+        byte[] signature = ExtendedSignature.sign(key, data, true);
+        assertNotNull(ExtendedSignature.verify(signature, data));
+        assertEquals(ExtendedSignature.keyId(key), ExtendedSignature.extractKeyId(signature));
+        assertEquals(key.getPublicKey(), ExtendedSignature.extractPublicKey(signature));
+
+        Map<String, Object> extsWithoutKey = new HashMap<>();
+        extsWithoutKey.put("sha512", new byte[64]);
+        Map<String, Object> extsWithBadKey = new HashMap<>();
+        extsWithBadKey.put("key", "not a binary");
+        extsWithBadKey.put("pub_key", new byte[]{1, 2, 3});
+        for (byte[] broken : Arrays.asList(
+                new byte[0],
+                new byte[]{(byte) 0xFF, 1, 2},
+                Arrays.copyOf(signature, signature.length / 2),
+                Boss.pack("not a map"),
+                Boss.pack(new HashMap<>()),
+                withExts("not a binary"),
+                withExts(new byte[]{(byte) 0xFF, 1, 2}),
+                withExts(Boss.pack(Arrays.asList(1, 2))),
+                withExts(Boss.pack(extsWithoutKey)),
+                withExts(Boss.pack(extsWithBadKey)))) {
+            String hex = new Bytes(broken).toHex();
+            assertNull(hex, ExtendedSignature.verify(broken, data));
+            assertNull(hex, ExtendedSignature.verify(key.getPublicKey(), broken, data));
+            assertNull(hex, ExtendedSignature.extractKeyId(broken));
+            assertNull(hex, ExtendedSignature.extractPublicKey(broken));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyGenerationPoolTest {
+
+    private static PrivateKey[] keys;
+
+    @BeforeClass
+    public static void generateKeys() {
+        keys = new PrivateKey[3];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = new PrivateKey(2048);
+    }
+
+    /**
+     * Generator that gives out keys put into the queue, waiting for them.
+     */
+    private static IntFunction<PrivateKey> queued(BlockingQueue<PrivateKey> queue) {
+        return bits -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("interrupted", e);
+            }
+        };
+    }
+
+    @Test
+    public void badParameters() throws Exception {
+        int[][] bad = {{}, {1024}, {2048, 512}};
+        for (int[] bitStrengths : bad) {
+            try {
+                new KeyGenerationPool(1, bitStrengths).close();
+                fail("accepted key sizes " + Arrays.toString(bitStrengths));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            new KeyGenerationPool(1, new int[]{2048}, 0).close();
+            fail("accepted no workers");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void takeAndPoll() throws Exception {
+        BlockingQueue<PrivateKey> queue = new LinkedBlockingQueue<>();
+        try (KeyGenerationPool pool = new KeyGenerationPool(2, new int[]{2048}, 2, queued(queue))) {
+            long start = System.nanoTime();
+            assertNull(pool.poll(2048, 300, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+            assertEquals(1, pool.getMissedCount());
+            assertEquals(0, pool.getTakenCount());
+
+            queue.add(keys[0]);
+            assertSame(keys[0], pool.take(2048));
+            queue.add(keys[1]);
+            assertSame(keys[1], pool.poll(2048, 10, TimeUnit.SECONDS));
+            assertEquals(2, pool.getTakenCount());
+            assertEquals(2, pool.getGeneratedCount());
+
+            try {
+                pool.take(4096);
+                fail("took key of not configured size");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void closedPool() throws Exception {
+        BlockingQueue<PrivateKey> queue = new LinkedBlockingQueue<>();
+        KeyGenerationPool pool = new KeyGenerationPool(1, new int[]{2048}, 1, queued(queue));
+        queue.add(keys[0]);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getAvailable(2048) == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        pool.close();
+        // ready keys still could be taken
+        assertSame(keys[0], pool.take(2048));
+        try {
+            pool.take(2048);
+            fail("waits on the closed pool");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            pool.poll(2048, 10, TimeUnit.SECONDS);
+            fail("waits on the closed pool");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void failingGenerator() throws Exception {
+        RuntimeException failure = new RuntimeException("no primes today");
+        try (KeyGenerationPool pool = new KeyGenerationPool(1, new int[]{2048}, 1, bits -> {
+            throw failure;
+        })) {
+            try {
+                pool.take(2048);
+                fail("waits for keys that can't be generated");
+            } catch (IllegalStateException e) {
+                assertSame(failure, e.getCause());
+            }
+            assertTrue(pool.getFailedCount() >= KeyGenerationPool.MAX_FAILURES);
+            assertSame(failure, pool.getLastFailure());
+            assertEquals(0, pool.getGeneratedCount());
+            try {
+                pool.poll(2048, 10, TimeUnit.SECONDS);
+                fail("waits for keys that can't be generated");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        Path path = Files.createTempFile("keys", ".pool");
+        SymmetricKey encryptionKey = new SymmetricKey();
+        BlockingQueue<PrivateKey> queue = new LinkedBlockingQueue<>(Arrays.asList(keys));
+        try (KeyGenerationPool pool = new KeyGenerationPool(3, new int[]{2048}, 1, queued(queue))) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (pool.getAvailable(2048) < 3 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            pool.save(path, encryptionKey);
+        }
+
+        // wrong key
+        try (KeyGenerationPool pool = new KeyGenerationPool(3, new int[]{2048}, 1, queued(queue))) {
+            try {
+                pool.load(path, new SymmetricKey());
+                fail("loaded with the wrong key");
+            } catch (SymmetricKey.AuthenticationFailed e) {
+                // expected
+            }
+            assertTrue(Files.exists(path));
+        }
+
+        // inventory smaller than saved and other sizes: the rest is discarded
+        try (KeyGenerationPool pool = new KeyGenerationPool(2, new int[]{2048, 4096}, 1, queued(queue))) {
+            assertEquals(2, pool.load(path, encryptionKey));
+            assertFalse(Files.exists(path));
+            assertEquals(0, pool.getAvailable(4096));
+            HashSet<PrivateKey> loaded = new HashSet<>(Arrays.asList(pool.take(2048), pool.take(2048)));
+            assertEquals(2, loaded.size());
+            assertTrue(new HashSet<>(Arrays.asList(keys)).containsAll(loaded));
+        }
+    }
+}
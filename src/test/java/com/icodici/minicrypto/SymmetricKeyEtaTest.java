@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto;
+
+import com.icodici.minicrypto.digest.HMAC;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SymmetricKeyEtaTest {
+
+    private static final int[] SIZES = {0, 1, 15, 16, 31, 32, 33, 1000, 64 * 1024 + 13, 200003};
+
+    /**
+     * EtA in the original format: IV, counter mode encrypted data and HMAC of the encrypted data.
+     */
+    static byte[] referenceEta(SymmetricKey key, byte[] iv, byte[] data) throws EncryptionError {
+        byte[] encrypted = CTRTransformerTest.referenceCtr(key.getCipher(), iv, data);
+        HMAC hmac = new HMAC(key.getKey());
+        hmac.update(encrypted);
+        byte[] result = new byte[iv.length + encrypted.length + hmac.getLength()];
+        System.arraycopy(iv, 0, result, 0, iv.length);
+        System.arraycopy(encrypted, 0, result, iv.length, encrypted.length);
+        System.arraycopy(hmac.digest(), 0, result, iv.length + encrypted.length, hmac.getLength());
+        return result;
+    }
+
+    static byte[] randomData(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Input stream that returns at most a few bytes per call, to split the data at odd places.
+     */
+    static class ChoppyInputStream extends ByteArrayInputStream {
+        private final Random random;
+
+        ChoppyInputStream(byte[] data, Random random) {
+            super(data);
+            this.random = random;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1 + random.nextInt(100)));
+        }
+    }
+
+    private static byte[] streamEncrypt(SymmetricKey key, byte[] data, Random random) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        SymmetricKey.EtaEncryptingStream out = key.etaEncryptStream(bos);
+        int position = 0;
+        while (position < data.length) {
+            int length = Math.min(data.length - position, random.nextInt(5000));
+            if (length == 1)
+                out.write(data[position]);
+            else
+                out.write(data, position, length);
+            position += length;
+        }
+        out.end();
+        return bos.toByteArray();
+    }
+
+    private static byte[] streamDecrypt(SymmetricKey key, InputStream in, Random random) throws IOException,
+            EncryptionError {
+        InputStream decrypted = key.etaDecryptStream(in);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7000];
+        while (true) {
+            if (random.nextInt(10) == 0) {
+                int b = decrypted.read();
+                if (b < 0)
+                    break;
+                bos.write(b);
+            } else {
+                int count = decrypted.read(buffer, 0, 1 + random.nextInt(buffer.length - 1));
+                if (count < 0)
+                    break;
+                bos.write(buffer, 0, count);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void streamRoundTrip() throws Exception {
+        Random random = new Random(1);
+        SymmetricKey key = new SymmetricKey();
+        for (int size : SIZES) {
+            byte[] data = randomData(random, size);
+            byte[] encrypted = streamEncrypt(key, data, random);
+            assertEquals(key.etaEncryptedSize(size), encrypted.length);
+            assertArrayEquals(data, streamDecrypt(key, new ByteArrayInputStream(encrypted), random));
+            assertArrayEquals(data, streamDecrypt(key, new ChoppyInputStream(encrypted, random), random));
+        }
+    }
+
+    @Test
+    public void streamsUseOriginalFormat() throws Exception {
+        Random random = new Random(2);
+        SymmetricKey key = new SymmetricKey();
+        for (int size : SIZES) {
+            byte[] data = randomData(random, size);
+            byte[] iv = randomData(random, 16);
+            byte[] reference = referenceEta(key, iv, data);
+            assertArrayEquals(data, streamDecrypt(key, new ChoppyInputStream(reference, random), random));
+
+            byte[] encrypted = streamEncrypt(key, data, random);
+            assertArrayEquals(referenceEta(key, Arrays.copyOf(encrypted, 16), data), encrypted);
+        }
+    }
+
+    @Test
+    public void streamDetectsDamage() throws Exception {
+        Random random = new Random(3);
+        SymmetricKey key = new SymmetricKey();
+        byte[] encrypted = streamEncrypt(key, randomData(random, 100000), random);
+        // the format authenticates the encrypted data, not the IV
+        for (int position : new int[]{16, 20, 50000, encrypted.length - 1}) {
+            byte[] damaged = encrypted.clone();
+            damaged[position] ^= 1;
+            try {
+                streamDecrypt(key, new ChoppyInputStream(damaged, random), random);
+                fail("damage at " + position + " is not detected");
+            } catch (SymmetricKey.AuthenticationFailed e) {
+                // expected
+            }
+        }
+        try {
+            streamDecrypt(key, new ByteArrayInputStream(Arrays.copyOf(encrypted, 40)), random);
+            fail("truncated data are not detected");
+        } catch (SymmetricKey.AuthenticationFailed e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void arrayRoundTrip() throws Exception {
+        Random random = new Random(4);
+        SymmetricKey key = new SymmetricKey();
+        for (int size : SIZES) {
+            byte[] data = randomData(random, size);
+            byte[] encrypted = key.etaEncrypt(data);
+            assertEquals(key.etaEncryptedSize(size), encrypted.length);
+            assertArrayEquals(data, key.etaDecrypt(encrypted));
+
+            // parts of bigger arrays at odd offsets
+            byte[] source = new byte[size + 9];
+            System.arraycopy(data, 0, source, 5, size);
+            byte[] target = new byte[encrypted.length + 7];
+            assertEquals(encrypted.length, key.etaEncrypt(source, 5, size, target, 3));
+            byte[] decrypted = new byte[size + 2];
+            assertEquals(size, key.etaDecrypt(target, 3, encrypted.length, decrypted, 1));
+            assertArrayEquals(data, Arrays.copyOfRange(decrypted, 1, 1 + size));
+
+            // in place
+            assertEquals(size, key.etaDecrypt(target, 3, encrypted.length, target, 0));
+            assertArrayEquals(data, Arrays.copyOf(target, size));
+        }
+    }
+
+    @Test
+    public void bufferRoundTrip() throws Exception {
+        Random random = new Random(5);
+        SymmetricKey key = new SymmetricKey();
+        for (int size : SIZES) {
+            byte[] data = randomData(random, size);
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer source = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+                source.put(data).flip();
+                int encryptedSize = key.etaEncryptedSize(size);
+                ByteBuffer encrypted = direct ? ByteBuffer.allocateDirect(encryptedSize) :
+                        ByteBuffer.allocate(encryptedSize);
+                assertEquals(encryptedSize, key.etaEncrypt(source, encrypted));
+                assertEquals(0, source.remaining());
+                encrypted.flip();
+                ByteBuffer decrypted = ByteBuffer.allocate(size);
+                assertEquals(size, key.etaDecrypt(encrypted, decrypted));
+                assertArrayEquals(data, decrypted.array());
+            }
+        }
+    }
+
+    @Test
+    public void arraysUseOriginalFormat() throws Exception {
+        Random random = new Random(6);
+        SymmetricKey key = new SymmetricKey();
+        for (int size : SIZES) {
+            byte[] data = randomData(random, size);
+            byte[] reference = referenceEta(key, randomData(random, 16), data);
+            assertArrayEquals(data, key.etaDecrypt(reference));
+
+            byte[] encrypted = key.etaEncrypt(data);
+            assertArrayEquals(referenceEta(key, Arrays.copyOf(encrypted, 16), data), encrypted);
+
+            // arrays and streams are interchangeable
+            assertArrayEquals(data, streamDecrypt(key, new ByteArrayInputStream(encrypted), random));
+            assertArrayEquals(data, key.etaDecrypt(streamEncrypt(key, data, random)));
+        }
+    }
+
+    @Test
+    public void arrayDetectsDamage() throws Exception {
+        Random random = new Random(7);
+        SymmetricKey key = new SymmetricKey();
+        byte[] data = randomData(random, 100000);
+        byte[] encrypted = key.etaEncrypt(data);
+        for (int position : new int[]{16, 20, 50000, encrypted.length - 1}) {
+            byte[] damaged = encrypted.clone();
+            damaged[position] ^= 1;
+            byte[] target = new byte[data.length];
+            try {
+                key.etaDecrypt(damaged, 0, damaged.length, target, 0);
+                fail("damage at " + position + " is not detected");
+            } catch (SymmetricKey.AuthenticationFailed e) {
+                // decrypted data are wiped
+                assertArrayEquals(new byte[data.length], target);
+            }
+        }
+        try {
+            key.etaDecrypt(Arrays.copyOf(encrypted, 40));
+            fail("truncated data are not detected");
+        } catch (SymmetricKey.AuthenticationFailed e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BossBufferReaderTest {
+
+    private static final byte[] BINARY = {10, 20, 30, 40, 50};
+
+    private static List<Object> objects() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("text", "some text \u00e9\ud83d\ude00");
+        map.put("number", 1L << 40);
+        map.put("binary", BINARY);
+        return Arrays.asList(map, "some text \u00e9\ud83d\ude00", BINARY, 42, null, Arrays.asList(2.5, true),
+                             new byte[3000]);
+    }
+
+    /**
+     * Objects written one by one, with the encoded size after each of them.
+     */
+    private static byte[] write(List<Object> objects, List<Integer> ends) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        for (Object x : objects) {
+            w.writeObject(x);
+            ends.add(out.size());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Buffers with the data at the position 5: heap, direct and sliced heap buffer with non-zero array offset.
+     */
+    private static List<ByteBuffer> buffers(byte[] data) {
+        byte[] padded = new byte[data.length + 16];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        ByteBuffer heap = ByteBuffer.wrap(padded, 5, data.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+        direct.put(padded).position(5).limit(5 + data.length);
+        byte[] shifted = new byte[data.length + 20];
+        System.arraycopy(data, 0, shifted, 10, data.length);
+        ByteBuffer sliced = ByteBuffer.wrap(shifted, 5, data.length + 10).slice();
+        assertEquals(5, sliced.arrayOffset());
+        sliced.position(5).limit(5 + data.length);
+        return Arrays.asList(heap, direct, sliced);
+    }
+
+    /**
+     * Decoded value with binary slices replaced by {@link Bytes}, to compare with the source.
+     */
+    private static Object plain(Object x) {
+        if (x instanceof ByteBuffer) {
+            ByteBuffer b = ((ByteBuffer) x).duplicate();
+            byte[] data = new byte[b.remaining()];
+            b.get(data);
+            return new Bytes(data);
+        }
+        if (x instanceof byte[])
+            return new Bytes((byte[]) x);
+        if (x instanceof List) {
+            List<Object> list = new ArrayList<>();
+            for (Object item : (List<?>) x)
+                list.add(plain(item));
+            return list;
+        }
+        if (x instanceof Map) {
+            Map<Object, Object> map = new HashMap<>();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) x).entrySet())
+                map.put(plain(e.getKey()), plain(e.getValue()));
+            return map;
+        }
+        return x;
+    }
+
+    @Test
+    public void readAllBuffers() throws Exception {
+        List<Integer> ends = new ArrayList<>();
+        byte[] data = write(objects(), ends);
+        for (ByteBuffer buffer : buffers(data)) {
+            Boss.BufferReader r = new Boss.BufferReader(buffer);
+            assertEquals(5, r.position());
+            for (int i = 0; i < objects().size(); i++) {
+                assertTrue(r.hasRemaining());
+                assertEquals(plain(objects().get(i)), plain(r.read()));
+                assertEquals(5 + ends.get(i), r.position());
+            }
+            assertFalse(r.hasRemaining());
+            try {
+                r.read();
+                fail("read past the end");
+            } catch (EOFException e) {
+                // expected
+            }
+            // the buffer itself is not moved
+            assertEquals(5, buffer.position());
+            assertEquals(5 + data.length, buffer.limit());
+        }
+    }
+
+    @Test
+    public void binariesAreReadOnlySlices() throws Exception {
+        List<Integer> ends = new ArrayList<>();
+        byte[] data = write(Arrays.<Object>asList(BINARY, "text", BINARY, null), ends);
+        for (ByteBuffer buffer : buffers(data)) {
+            Boss.BufferReader r = new Boss.BufferReader(buffer);
+            ByteBuffer slice = r.readByteBuffer();
+            assertTrue(slice.isReadOnly());
+            assertEquals(0, slice.position());
+            assertEquals(BINARY.length, slice.remaining());
+            assertEquals(new Bytes(BINARY), plain(slice));
+
+            // no copy: the slice shows changes of the source
+            int start = 5 + ends.get(0) - BINARY.length;
+            assertEquals(BINARY[0], buffer.get(start));
+            buffer.put(start, (byte) 99);
+            assertEquals(99, slice.get(0));
+            buffer.put(start, BINARY[0]);
+            try {
+                slice.put(0, (byte) 1);
+                fail("slice is not read only");
+            } catch (ReadOnlyBufferException e) {
+                // expected
+            }
+
+            assertEquals("text", r.read());
+            // the reference resolves to the same slice
+            assertSame(slice, r.readByteBuffer());
+            assertNull(r.readByteBuffer());
+            assertEquals(5 + data.length, r.position());
+
+            r.position(5);
+            assertEquals(new Bytes(BINARY), r.readBytes());
+        }
+    }
+
+    @Test
+    public void repositioning() throws Exception {
+        List<Integer> ends = new ArrayList<>();
+        List<Object> objects = Arrays.<Object>asList("first", 2, "third");
+        byte[] data = write(objects, ends);
+        Boss.BufferReader r = new Boss.BufferReader(ByteBuffer.wrap(data));
+        r.position(ends.get(0));
+        assertEquals(2, r.<Object>read());
+        assertEquals(ends.get(1).intValue(), r.position());
+        r.position(ends.get(0));
+        assertEquals(2, r.<Object>read());
+        try {
+            r.position(data.length + 1);
+            fail("position out of bounds");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // truncated object
+        r = new Boss.BufferReader(ByteBuffer.wrap(data, 0, ends.get(0) - 1));
+        try {
+            r.read();
+            fail("read truncated object");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void writerEncodesRemainingBytes() throws Exception {
+        byte[] array = new byte[100];
+        for (int i = 0; i < array.length; i++)
+            array[i] = (byte) i;
+        ByteBuffer heap = ByteBuffer.wrap(array, 10, 20);
+        ByteBuffer sliced = ByteBuffer.wrap(array, 30, 50).slice();
+        sliced.position(5).limit(25);
+        ByteBuffer direct = ByteBuffer.allocateDirect(100);
+        direct.put(array).position(50).limit(70);
+        byte[][] expected = {
+                Arrays.copyOfRange(array, 10, 30),
+                Arrays.copyOfRange(array, 35, 55),
+                Arrays.copyOfRange(array, 50, 70)};
+        ByteBuffer[] buffers = {heap, sliced, direct, heap.asReadOnlyBuffer()};
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer buffer = buffers[i];
+            int position = buffer.position();
+            Bytes decoded = Boss.load(Boss.pack(buffer));
+            assertArrayEquals(expected[i % 3], decoded.toArray());
+            assertEquals(position, buffer.position());
+        }
+
+        // slices read with BufferReader could be written back as they are
+        byte[] packed = Boss.pack(Arrays.asList(BINARY, "x"));
+        List<Object> list = new Boss.BufferReader(ByteBuffer.wrap(packed)).read();
+        ByteBuffer slice = (ByteBuffer) list.get(0);
+        assertArrayEquals(BINARY, Boss.<Bytes>load(Boss.pack(slice)).toArray());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BossBufferWriterTest {
+
+    private static List<Object> trees() {
+        List<Object> shared = new ArrayList<>(Arrays.asList("shared", 1, 2));
+        Map<String, Object> map = new HashMap<>();
+        map.put("shared", shared);
+        map.put("again", shared);
+        map.put("text", "some text");
+        map.put("same text", "some text");
+        map.put("binary", new byte[]{1, 2, 3});
+        map.put("same binary", new byte[]{1, 2, 3});
+        map.put("date", new Date(1500000000000L));
+
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            longText.append("\u0430\u00e9z\ud83d\ude00");
+        List<Object> manyItems = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            manyItems.add(i % 3 == 0 ? "item" + (i % 17) : i * 1000003L);
+
+        return Arrays.asList(
+                null, 0, -1, 22, 23, 255, 256, 1L << 40, Long.MIN_VALUE, Long.MAX_VALUE,
+                BigInteger.ONE.shiftLeft(64), BigInteger.ONE.shiftLeft(200).negate().add(BigInteger.TEN),
+                0.0, 1.0, -1.0, 2.5, Double.NaN, true, false,
+                "", "a", "\u00e9", "\ud83d\ude00", longText.toString(),
+                // unpaired surrogates
+                "x\ud800y", "\udc00", "end\ud83d",
+                new byte[0], new byte[300], new byte[70000],
+                map, manyItems, Arrays.asList(shared, shared, map, "shared"));
+    }
+
+    private static byte[] written(ByteBuffer buffer, int from) {
+        ByteBuffer b = buffer.duplicate();
+        b.limit(b.position()).position(from);
+        byte[] data = new byte[b.remaining()];
+        b.get(data);
+        return data;
+    }
+
+    @Test
+    public void encodedSize() throws Exception {
+        for (Object x : trees())
+            assertEquals(String.valueOf(x), Boss.pack(x).length, Boss.encodedSize(x));
+        assertEquals(Boss.pack(trees()).length, Boss.encodedSize(trees()));
+    }
+
+    @Test
+    public void sameAsWriter() throws Exception {
+        for (Object x : trees()) {
+            byte[] expected = Boss.pack(x);
+            int size = (int) Boss.encodedSize(x);
+            ByteBuffer heap = ByteBuffer.allocate(size + 10);
+            heap.position(3);
+            ByteBuffer direct = ByteBuffer.allocateDirect(size);
+            for (ByteBuffer buffer : new ByteBuffer[]{heap, direct}) {
+                int from = buffer.position();
+                Boss.BufferWriter w = new Boss.BufferWriter(buffer);
+                w.writeObject(x);
+                assertEquals(from + size, w.position());
+                assertArrayEquals(String.valueOf(x), expected, written(buffer, from));
+            }
+            byte[] array = new byte[size + 5];
+            Boss.BufferWriter w = new Boss.BufferWriter(array, 5);
+            w.writeObject(x);
+            assertEquals(5 + size, w.position());
+            assertArrayEquals(expected, Arrays.copyOfRange(array, 5, array.length));
+        }
+    }
+
+    @Test
+    public void manyObjectsShareCache() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer expected = new Boss.Writer(out);
+        ByteBuffer buffer = ByteBuffer.allocate(200000);
+        Boss.BufferWriter w = new Boss.BufferWriter(buffer);
+        for (Object x : trees()) {
+            expected.writeObject(x);
+            w.writeObject(x);
+        }
+        assertArrayEquals(out.toByteArray(), written(buffer, 0));
+    }
+
+    @Test
+    public void overflow() throws Exception {
+        for (Object x : Arrays.asList("some text", "\u00e9\u00e9\u00e9", new byte[100], trees())) {
+            int size = (int) Boss.encodedSize(x);
+            for (int room : new int[]{0, 1, size / 2, size - 1}) {
+                try {
+                    new Boss.BufferWriter(ByteBuffer.allocate(room)).writeObject(x);
+                    fail("no overflow with " + room + " of " + size + " bytes");
+                } catch (BufferOverflowException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reuse() throws Exception {
+        List<Object> tree = trees();
+        byte[] expected = Boss.pack(tree);
+        ByteBuffer first = ByteBuffer.allocate(200000);
+        Boss.BufferWriter w = new Boss.BufferWriter(first);
+        w.writeObject(tree);
+        assertArrayEquals(expected, written(first, 0));
+
+        // after reset objects of the previous message are not referenced
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer next = direct ? ByteBuffer.allocateDirect(200000) : ByteBuffer.allocate(200000);
+            next.position(7);
+            w.reset(next);
+            assertEquals(7, w.position());
+            w.writeObject(tree);
+            assertArrayEquals(expected, written(next, 7));
+        }
+
+        // the same buffer after the failed message
+        ByteBuffer small = ByteBuffer.allocate(10);
+        w.reset(small);
+        try {
+            w.writeObject(tree);
+            fail("no overflow");
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+        small.clear();
+        w.reset(small);
+        w.writeObject("short");
+        assertArrayEquals(Boss.pack("short"), written(small, 0));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.digest.Sha256;
+import com.icodici.minicrypto.digest.Sha512;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BossCanonicalTest {
+
+    private static final List<Object> KEYS = Arrays.<Object>asList(
+            "a", "b", "ab", "", "key", "long key of the map", "\u00e9", "\uffff", "\ud83d\ude00", 0, 1, -1, 1000,
+            1L << 40, 2.5, true, new byte[]{1, 2});
+
+    /**
+     * Map with the keys inserted in the given order and values depending on the key.
+     */
+    private static Map<Object, Object> map(List<Object> keys) {
+        Map<Object, Object> map = new LinkedHashMap<>();
+        for (Object key : keys)
+            map.put(key, Arrays.asList(String.valueOf(key), key));
+        return map;
+    }
+
+    @Test
+    public void reorderedMaps() throws Exception {
+        byte[] expected = Boss.packCanonical(map(KEYS));
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            List<Object> keys = new ArrayList<>(KEYS);
+            Collections.shuffle(keys, random);
+            assertArrayEquals(expected, Boss.packCanonical(map(keys)));
+            assertArrayEquals(expected, Boss.packCanonical(new HashMap<>(map(keys))));
+        }
+        Map<String, Object> decoded = Boss.load(expected);
+        assertEquals(KEYS.size(), decoded.size());
+    }
+
+    @Test
+    public void nestedAndStringKeyedMaps() throws Exception {
+        Map<String, Object> a = new HashMap<>();
+        Map<String, Object> b = new TreeMap<>(Collections.<String>reverseOrder());
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> inner = new LinkedHashMap<>();
+            inner.put("z" + i, i);
+            inner.put("a" + i, "value");
+            inner.put("\ud83d\ude00" + i, "non-BMP");
+            a.put("key" + i, inner);
+            Map<String, Object> reversed = new LinkedHashMap<>();
+            List<String> keys = new ArrayList<>(inner.keySet());
+            Collections.reverse(keys);
+            for (String k : keys)
+                reversed.put(k, inner.get(k));
+            b.put("key" + i, reversed);
+        }
+        byte[] packed = Boss.packCanonical(a);
+        assertArrayEquals(packed, Boss.packCanonical(b));
+        assertEquals(a, Boss.load(packed));
+    }
+
+    @Test
+    public void reorderedSets() throws Exception {
+        Set<Object> set = new LinkedHashSet<>(Arrays.<Object>asList("one", "two", 3, 4.5, "five", false));
+        List<Object> reversedItems = new ArrayList<>(set);
+        Collections.reverse(reversedItems);
+        byte[] expected = Boss.packCanonical(set);
+        assertArrayEquals(expected, Boss.packCanonical(new LinkedHashSet<>(reversedItems)));
+        assertArrayEquals(expected, Boss.packCanonical(new HashSet<>(set)));
+        List<Object> decoded = Boss.load(expected);
+        assertEquals(set, new HashSet<>(decoded));
+    }
+
+    @Test
+    public void integersOfAnyType() throws Exception {
+        byte[] expected = Boss.packCanonical(Arrays.asList(7, -300, 1L << 40));
+        assertArrayEquals(expected, Boss.packCanonical(Arrays.asList(7L, (short) -300, BigInteger.ONE.shiftLeft(40))));
+        assertArrayEquals(expected,
+                          Boss.packCanonical(Arrays.asList((byte) 7, BigInteger.valueOf(-300), 1L << 40)));
+    }
+
+    @Test
+    public void noReferences() throws Exception {
+        List<Object> shared = Arrays.<Object>asList("x", "y");
+        List<Object> list = Arrays.<Object>asList("repeated text", "repeated text", shared, shared);
+        byte[] packed = Boss.packCanonical(list);
+        Boss.Writer w = new Boss.Writer().setCacheMode(Boss.CacheMode.NONE);
+        w.writeObject(list);
+        assertArrayEquals(w.toByteArray(), packed);
+        assertEquals(list, Boss.load(packed));
+    }
+
+    @Test
+    public void duplicateKeys() throws Exception {
+        Map<Object, Object> map = new HashMap<>();
+        map.put(1, "int");
+        map.put(1L, "long");
+        try {
+            Boss.packCanonical(map);
+            fail("keys with the same encoding are not detected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @BossSerializable
+    static class Record {
+        String name;
+        int count;
+        @BossField("a long field name")
+        long value;
+        List<Object> items;
+    }
+
+    @Test
+    public void codecFieldsSortedAsMapKeys() throws Exception {
+        Record r = new Record();
+        r.name = "record";
+        r.count = 42;
+        r.value = -1;
+        r.items = Arrays.<Object>asList(1, "two");
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", r.name);
+        map.put("count", r.count);
+        map.put("a long field name", r.value);
+        map.put("items", r.items);
+        assertArrayEquals(Boss.packCanonical(map), Boss.packCanonical(r));
+    }
+
+    @Test
+    public void digestOfCanonicalEncoding() throws Exception {
+        Map<String, Object> big = new HashMap<>();
+        byte[] data = new byte[3000];
+        new Random(2).nextBytes(data);
+        for (int i = 0; i < 50; i++)
+            big.put("item" + i, Arrays.asList(i, "text " + i, data));
+        for (Object x : Arrays.asList(null, 1, "text", data, map(KEYS), big,
+                                      new LinkedHashSet<>(Arrays.asList("b", "a")))) {
+            assertArrayEquals(new Sha256().digest(Boss.packCanonical(x)), Boss.digest(x, new Sha256()));
+            assertArrayEquals(new Sha512().digest(Boss.packCanonical(x)), Boss.digest(x, new Sha512()));
+        }
+        List<Object> keys = new ArrayList<>(KEYS);
+        Collections.reverse(keys);
+        assertArrayEquals(Boss.digest(map(KEYS), new Sha256()), Boss.digest(map(keys), new Sha256()));
+    }
+}
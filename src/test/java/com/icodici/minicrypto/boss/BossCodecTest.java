@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class BossCodecTest {
+
+    @BossSerializable
+    static class Point {
+        int x;
+        int y;
+
+        Point() {
+        }
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    @BossSerializable
+    static class Sample {
+        boolean flag;
+        byte tiny;
+        short small;
+        int count;
+        long big;
+        float ratio;
+        double precise;
+        @BossField("n")
+        String name;
+        Date created;
+        byte[] payload;
+        Bytes tag;
+        List<Object> items;
+        Point origin;
+        Point target;
+        transient int ignored = 17;
+    }
+
+    private static Sample sample() {
+        Sample s = new Sample();
+        s.flag = true;
+        s.tiny = -5;
+        s.small = 30000;
+        s.count = -123456;
+        s.big = 1L << 40;
+        s.ratio = 0.5f;
+        s.precise = -2.75;
+        s.name = "sample";
+        s.created = new Date(1500000000000L);
+        s.payload = new byte[]{1, 2, 3};
+        s.tag = new Bytes(new byte[]{4, 5});
+        s.items = Arrays.<Object>asList(1, "two", 3.5);
+        s.origin = new Point(1, 2);
+        s.target = new Point(-3, 4);
+        return s;
+    }
+
+    private static Map<String, Object> pointMap(int x, int y) {
+        Map<String, Object> m = new HashMap<>();
+        m.put("x", x);
+        m.put("y", y);
+        return m;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        Sample s = sample();
+        s.ignored = 42;
+        Sample r = Boss.load(Boss.pack(s), Sample.class);
+        assertTrue(r.flag);
+        assertEquals(-5, r.tiny);
+        assertEquals(30000, r.small);
+        assertEquals(-123456, r.count);
+        assertEquals(1L << 40, r.big);
+        assertEquals(0.5f, r.ratio, 0);
+        assertEquals(-2.75, r.precise, 0);
+        assertEquals("sample", r.name);
+        assertEquals(s.created, r.created);
+        assertArrayEquals(s.payload, r.payload);
+        assertEquals(s.tag, r.tag);
+        assertEquals(s.items, r.items);
+        assertEquals(1, r.origin.x);
+        assertEquals(2, r.origin.y);
+        assertEquals(-3, r.target.x);
+        assertEquals(4, r.target.y);
+        // transient fields are not encoded
+        assertEquals(17, r.ignored);
+    }
+
+    @Test
+    public void sameFormatAsMap() throws Exception {
+        Map<String, Object> decoded = Boss.load(Boss.pack(sample()));
+        assertEquals(14, decoded.size());
+        // renamed with @BossField
+        assertEquals("sample", decoded.get("n"));
+        assertTrue(!decoded.containsKey("name"));
+        assertEquals(true, decoded.get("flag"));
+        assertEquals(1L << 40, ((Number) decoded.get("big")).longValue());
+        assertEquals(1500000000L, ((org.threeten.bp.ZonedDateTime) decoded.get("created")).toEpochSecond());
+        // nested codecs are plain maps too
+        assertEquals(pointMap(1, 2), decoded.get("origin"));
+        assertEquals(pointMap(-3, 4), decoded.get("target"));
+    }
+
+    @Test
+    public void loadFromMap() throws Exception {
+        Map<String, Object> m = new HashMap<>();
+        m.put("count", 7);
+        // wider numbers are converted to the field type
+        m.put("tiny", 1000L);
+        m.put("precise", 3);
+        m.put("n", "from map");
+        m.put("payload", new byte[]{9});
+        m.put("created", new Date(1000L));
+        m.put("origin", pointMap(5, 6));
+        m.put("unknown", Arrays.asList("skipped", "values"));
+        Sample r = Boss.load(Boss.pack(m), Sample.class);
+        assertEquals(7, r.count);
+        assertEquals((byte) 1000, r.tiny);
+        assertEquals(3.0, r.precise, 0);
+        assertEquals("from map", r.name);
+        assertArrayEquals(new byte[]{9}, r.payload);
+        assertEquals(new Date(1000L), r.created);
+        assertEquals(5, r.origin.x);
+        assertEquals(6, r.origin.y);
+        // missing keys leave fields as constructed
+        assertNull(r.target);
+        assertEquals(17, r.ignored);
+    }
+
+    @Test
+    public void sharedInstances() throws Exception {
+        Sample s = sample();
+        s.target = s.origin;
+        Sample r = Boss.load(Boss.pack(s), Sample.class);
+        assertSame(r.origin, r.target);
+        assertEquals(1, r.target.x);
+
+        // references work across objects of the same writer too
+        Boss.Writer w = new Boss.Writer();
+        w.writeObject(s.origin);
+        w.writeObject(s.origin);
+        Boss.Reader reader = new Boss.Reader(w.toByteArray());
+        assertSame(reader.read(Point.class), reader.read(Point.class));
+    }
+
+    @Test
+    public void unannotated() throws Exception {
+        try {
+            BossCodec.of(String.class);
+            throw new AssertionError("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("plain", Boss.load(Boss.pack("plain"), String.class));
+    }
+
+    /**
+     * Encoding with the codec must allocate less than the map route. Runs where the JVM can measure allocations.
+     */
+    @Test
+    public void allocatesLessThanMap() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mx.isThreadAllocatedMemorySupported());
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        Point p = new Point(100000, -100000);
+        Boss.Writer w = new Boss.Writer();
+        final int rounds = 20000;
+        long codec = 0, map = 0;
+        // first pass warms up
+        for (int pass = 0; pass < 2; pass++) {
+            final long id = Thread.currentThread().getId();
+            long start = mx.getThreadAllocatedBytes(id);
+            for (int i = 0; i < rounds; i++) {
+                w.reset();
+                w.writeObject(p);
+            }
+            codec = mx.getThreadAllocatedBytes(id) - start;
+            start = mx.getThreadAllocatedBytes(id);
+            for (int i = 0; i < rounds; i++) {
+                w.reset();
+                w.writeObject(pointMap(p.x, p.y));
+            }
+            map = mx.getThreadAllocatedBytes(id) - start;
+        }
+        assertTrue("codec " + codec + " bytes, map " + map + " bytes", codec < map);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BossDecoderTest {
+
+    private static List<Object> objects() {
+        List<Object> shared = Arrays.<Object>asList("shared", 1);
+        Map<String, Object> map = new HashMap<>();
+        map.put("text", "some text");
+        map.put("binary", new Bytes(new byte[300]));
+        map.put("shared", shared);
+        map.put("big", 1L << 50);
+        map.put("double", 2.5);
+        return Arrays.asList(map, "some text", shared, null, -17, new Bytes(new byte[]{1, 2, 3}),
+                             Arrays.asList(true, false, "x"));
+    }
+
+    private static byte[] writeAll(List<Object> objects, boolean streamMode) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        if (streamMode)
+            w.setStreamMode();
+        for (Object x : objects)
+            w.writeObject(x);
+        return out.toByteArray();
+    }
+
+    private static List<Object> drain(BossDecoder decoder) throws IOException {
+        List<Object> result = new ArrayList<>();
+        while (decoder.hasNext())
+            result.add(decoder.next());
+        return result;
+    }
+
+    @Test
+    public void splitAtEveryByte() throws Exception {
+        for (boolean streamMode : new boolean[]{false, true}) {
+            byte[] data = writeAll(objects(), streamMode);
+            for (int split = 0; split <= data.length; split++) {
+                BossDecoder decoder = new BossDecoder();
+                decoder.feed(data, 0, split);
+                List<Object> decoded = drain(decoder);
+                decoder.feed(ByteBuffer.wrap(data, split, data.length - split));
+                decoded.addAll(drain(decoder));
+                assertEquals(objects(), decoded);
+                assertFalse(decoder.hasPartialObject());
+                assertEquals(0, decoder.getBufferedSize());
+            }
+        }
+    }
+
+    @Test
+    public void byteByByte() throws Exception {
+        byte[] data = writeAll(objects(), false);
+        BossDecoder decoder = new BossDecoder();
+        List<Object> decoded = new ArrayList<>();
+        for (int i = 0; i < data.length; i++) {
+            decoder.feed(data, i, 1);
+            decoded.addAll(drain(decoder));
+        }
+        assertFalse(decoder.hasPartialObject());
+        assertEquals(objects(), decoded);
+        // references between objects of the same writer
+        assertSame(((Map<?, ?>) decoded.get(0)).get("shared"), decoded.get(2));
+    }
+
+    @Test
+    public void streamModeMarkerFollowedByObjects() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        w.writeObject("tree mode");
+        w.setStreamMode();
+        for (int i = 0; i < 5; i++)
+            w.writeObject(Arrays.asList("repeated", "repeated", i));
+        byte[] data = out.toByteArray();
+        BossDecoder decoder = new BossDecoder();
+        List<Object> decoded = new ArrayList<>();
+        // the marker comes alone and the objects are split in the middle
+        for (int i = 0; i < data.length; i += 3) {
+            decoder.feed(data, i, Math.min(3, data.length - i));
+            decoded.addAll(drain(decoder));
+        }
+        assertEquals(6, decoded.size());
+        assertEquals("tree mode", decoded.get(0));
+        for (int i = 0; i < 5; i++)
+            assertEquals(Arrays.asList("repeated", "repeated", i), decoded.get(i + 1));
+    }
+
+    @Test
+    public void independentObjects() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Boss.pack(Arrays.asList("a", "a")));
+        out.write(Boss.pack(Arrays.asList("b", "b")));
+        byte[] data = out.toByteArray();
+
+        BossDecoder decoder = new BossDecoder(1000, true);
+        decoder.feed(data, 0, data.length);
+        assertEquals(Arrays.asList(Arrays.asList("a", "a"), Arrays.asList("b", "b")), drain(decoder));
+
+        // the shared cache resolves the second reference to the first object
+        decoder = new BossDecoder();
+        decoder.feed(data, 0, data.length);
+        assertEquals(Arrays.asList(Arrays.asList("a", "a"), Arrays.asList("b", "a")), drain(decoder));
+
+        decoder = new BossDecoder();
+        decoder.feed(data, 0, data.length);
+        assertEquals(Arrays.asList("a", "a"), decoder.next());
+        decoder.reset();
+        assertEquals(Arrays.asList("b", "b"), decoder.next());
+    }
+
+    @Test
+    public void resetMatchesWriterReset() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        BossDecoder decoder = new BossDecoder();
+        for (int i = 0; i < 10; i++) {
+            w.writeObject(Arrays.asList("text " + i, "text " + i));
+            w.reset();
+            byte[] data = out.toByteArray();
+            out.reset();
+            decoder.feed(data, 0, data.length);
+            assertEquals(Arrays.asList("text " + i, "text " + i), decoder.next());
+            decoder.reset();
+        }
+    }
+
+    @Test
+    public void tooBigByHeader() throws Exception {
+        BossDecoder decoder = new BossDecoder(100);
+        byte[] data = Boss.pack(new byte[200]);
+        try {
+            // only the header is here
+            decoder.feed(data, 0, 2);
+            fail("too big object is accepted");
+        } catch (IOException e) {
+            // expected
+        }
+
+        decoder = new BossDecoder(100);
+        // every part is small, but not the whole object
+        data = Boss.pack(Arrays.asList(new byte[60], new byte[61]));
+        try {
+            decoder.feed(data, 0, data.length);
+            fail("too big object is accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void tooBigByLengthVarint() throws Exception {
+        byte[][] headers = {
+                // text with the length of the length bigger than the limit
+                {(byte) (0xF8 | Boss.TYPE_TEXT), 0x7F, 0x7F, 0x7F, (byte) 0x83},
+                // the varint that never ends
+                {(byte) (0xF8 | Boss.TYPE_BIN), 0x7F, 0x7F, 0x7F, 0x7F, 0x7F, 0x7F},
+                // list of 2^32 items
+                {(byte) (0xF8 | Boss.TYPE_LIST), (byte) 0x85, 0, 0, 0, 0, 1}
+        };
+        for (byte[] header : headers) {
+            BossDecoder decoder = new BossDecoder(1000);
+            try {
+                decoder.feed(header, 0, header.length);
+                fail("too big or bad header is accepted: " + new Bytes(header).toHex());
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void failedDecoderStaysFailed() throws Exception {
+        BossDecoder decoder = new BossDecoder(100);
+        try {
+            decoder.next();
+            fail("next() without data");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        byte[] data = Boss.pack(new byte[200]);
+        try {
+            decoder.feed(data, 0, data.length);
+            fail("too big object is accepted");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(decoder.hasNext());
+        try {
+            decoder.next();
+            fail("next() after failure");
+        } catch (IOException e) {
+            // expected
+        }
+        byte[] good = Boss.pack("good");
+        try {
+            decoder.feed(good, 0, good.length);
+            fail("feed() after failure");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the broken reference fails next(), and the decoder after it
+        decoder = new BossDecoder();
+        byte[] broken = {(byte) (Boss.TYPE_CREF | 5 << 3), 0};
+        decoder.feed(broken, 0, broken.length);
+        assertTrue(decoder.hasNext());
+        try {
+            decoder.next();
+            fail("broken reference is accepted");
+        } catch (IOException | RuntimeException e) {
+            // expected
+        }
+        try {
+            decoder.next();
+            fail("next() after failure");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void typedNext() throws Exception {
+        BossCodecTest.Point p = new BossCodecTest.Point(3, -4);
+        byte[] data = Boss.pack(p);
+        BossDecoder decoder = new BossDecoder();
+        decoder.feed(data, 0, data.length - 1);
+        assertFalse(decoder.hasNext());
+        decoder.feed(data, data.length - 1, 1);
+        BossCodecTest.Point r = decoder.next(BossCodecTest.Point.class);
+        assertEquals(3, r.x);
+        assertEquals(-4, r.y);
+    }
+}
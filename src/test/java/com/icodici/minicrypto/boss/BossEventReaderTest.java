@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BossEventReaderTest {
+
+    private static final byte STREAM_MODE = (byte) (Boss.TYPE_EXTRA | Boss.XT_STREAM_MODE << 3);
+
+    private static Boss.EventReader reader(byte[] data) {
+        return new Boss.EventReader(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Text form of the event: name, "*" for containers used as keys, then the size, the value or the reference.
+     */
+    private static String describe(Boss.EventReader r) throws Exception {
+        switch (r.getEvent()) {
+            case START_MAP:
+            case START_LIST:
+                return r.getEvent() + (r.isKey() ? "* " : " ") + r.getSize();
+            case KEY:
+            case VALUE:
+                Object value = r.getValue();
+                return r.getEvent() + " " + (value instanceof Bytes ? "bin" + ((Bytes) value).size() : value);
+            case REFERENCE:
+                return "REFERENCE " + r.getReferenceIndex();
+            default:
+                return r.getEvent().toString();
+        }
+    }
+
+    private static List<String> events(byte[] data) throws Exception {
+        Boss.EventReader r = reader(data);
+        List<String> events = new ArrayList<>();
+        while (r.next() != null)
+            events.add(describe(r));
+        return events;
+    }
+
+    @Test
+    public void nestedContainers() throws Exception {
+        Map<String, Object> inner = new LinkedHashMap<>();
+        inner.put("x", 1);
+        inner.put("list", Arrays.asList());
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("a", Arrays.asList(1, "two", inner));
+        map.put("b", new LinkedHashMap<>());
+        map.put("c", null);
+        assertEquals(Arrays.asList(
+                "START_MAP 3",
+                "KEY a", "START_LIST 3", "VALUE 1", "VALUE two",
+                "START_MAP 2", "KEY x", "VALUE 1", "KEY list", "START_LIST 0", "END", "END",
+                "END",
+                "KEY b", "START_MAP 0", "END",
+                "KEY c", "VALUE null",
+                "END"), events(Boss.pack(map)));
+    }
+
+    @Test
+    public void depthAndManyObjects() throws Exception {
+        Object deep = "bottom";
+        for (int i = 0; i < 40; i++)
+            deep = Arrays.asList(deep);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        w.writeObject(deep);
+        w.writeObject(7);
+        Boss.EventReader r = reader(out.toByteArray());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(Boss.EventReader.Event.START_LIST, r.next());
+            assertEquals(i + 1, r.getDepth());
+        }
+        assertEquals(Boss.EventReader.Event.VALUE, r.next());
+        assertEquals("bottom", r.getValue());
+        for (int i = 40; i > 0; i--) {
+            assertEquals(Boss.EventReader.Event.END, r.next());
+            assertEquals(i - 1, r.getDepth());
+        }
+        assertEquals(Boss.EventReader.Event.VALUE, r.next());
+        assertEquals(7, r.getValue());
+        assertNull(r.next());
+        assertNull(r.next());
+    }
+
+    @Test
+    public void containersAsKeys() throws Exception {
+        Map<String, Object> keyMap = new LinkedHashMap<>();
+        keyMap.put("k", 1);
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put(Arrays.asList(1, 2), "list key");
+        map.put(keyMap, "map key");
+        map.put("plain", Arrays.asList(3));
+        assertEquals(Arrays.asList(
+                "START_MAP 3",
+                "START_LIST* 2", "VALUE 1", "VALUE 2", "END", "VALUE list key",
+                "START_MAP* 1", "KEY k", "VALUE 1", "END", "VALUE map key",
+                "KEY plain", "START_LIST 1", "VALUE 3", "END",
+                "END"), events(Boss.pack(map)));
+    }
+
+    @Test
+    public void references() throws Exception {
+        List<Object> shared = Arrays.<Object>asList("s");
+        byte[] binary = new byte[100];
+        binary[0] = 1;
+        List<Object> tree = Arrays.<Object>asList(shared, "text", shared, "text", binary, binary, binary);
+        byte[] packed = Boss.pack(tree);
+        // cache: tree, shared, "s", "text", binary
+        assertEquals(Arrays.asList(
+                "START_LIST 7",
+                "START_LIST 1", "VALUE s", "END",
+                "VALUE text", "REFERENCE 2", "VALUE text",
+                "VALUE bin100", "VALUE bin100", "VALUE bin100",
+                "END"), events(packed));
+
+        // skipped binary is referenced by index
+        Boss.EventReader r = reader(packed);
+        for (int i = 0; i < 7; i++)
+            r.next();
+        assertEquals(Boss.EventReader.Event.VALUE, r.next());
+        assertEquals(100, r.getBinaryLength());
+        assertEquals(Boss.EventReader.Event.REFERENCE, r.next());
+        assertEquals(5, r.getReferenceIndex());
+
+        // transferred binary is not kept either
+        r = reader(packed);
+        for (int i = 0; i < 8; i++)
+            r.next();
+        assertTrue(r.isBinary());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(100, r.transferBinary(out));
+        assertArrayEquals(binary, out.toByteArray());
+        try {
+            r.transferBinary(out);
+            fail("transferred twice");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(Boss.EventReader.Event.REFERENCE, r.next());
+        assertEquals(5, r.getReferenceIndex());
+        assertEquals(Boss.EventReader.Event.REFERENCE, r.next());
+        assertEquals(Boss.EventReader.Event.END, r.next());
+        assertNull(r.next());
+    }
+
+    @Test
+    public void streamModeInsideContainers() throws Exception {
+        byte[] list = {Boss.TYPE_LIST | 3 << 3,
+                Boss.TYPE_TEXT | 1 << 3, 'a',
+                STREAM_MODE,
+                Boss.TYPE_LIST | 1 << 3, Boss.TYPE_INT | 5 << 3,
+                STREAM_MODE, STREAM_MODE,
+                Boss.TYPE_TEXT | 1 << 3, 'b'};
+        assertEquals(Arrays.asList("START_LIST 3", "VALUE a", "START_LIST 1", "VALUE 5", "END", "VALUE b", "END"),
+                     events(list));
+
+        // keys and values stay in their places
+        byte[] map = {Boss.TYPE_DICT | 2 << 3,
+                STREAM_MODE, Boss.TYPE_TEXT | 1 << 3, 'k',
+                STREAM_MODE, Boss.TYPE_INT | 1 << 3,
+                Boss.TYPE_TEXT | 1 << 3, 'm', STREAM_MODE,
+                Boss.TYPE_INT | 2 << 3,
+                STREAM_MODE};
+        Boss.EventReader r = reader(map);
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            r.next();
+            events.add(describe(r));
+        }
+        assertEquals(Arrays.asList("START_MAP 2", "KEY k", "VALUE 1", "KEY m", "VALUE 2", "END"), events);
+        // the trailing marker precedes nothing
+        assertNull(r.next());
+
+        // stream mode containers are not kept in the cache
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        w.setStreamMode();
+        List<Object> shared = Arrays.<Object>asList(1);
+        w.writeObject(Arrays.asList(shared, shared));
+        assertEquals(Arrays.asList("START_LIST 2", "START_LIST 1", "VALUE 1", "END", "START_LIST 1", "VALUE 1", "END",
+                                   "END"), events(out.toByteArray()));
+    }
+
+    @Test
+    public void truncated() throws Exception {
+        byte[] packed = Boss.pack(Arrays.asList("text", new byte[50], 1));
+        for (int length : new int[]{1, 3, 10, packed.length - 1}) {
+            Boss.EventReader r = reader(Arrays.copyOf(packed, length));
+            try {
+                while (r.next() != null)
+                    r.getValue();
+                fail("truncated at " + length);
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+}
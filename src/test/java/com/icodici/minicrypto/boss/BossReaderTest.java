@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BossReaderTest {
+
+    private static final String LONG_TEXT = "the text long enough to be referenced";
+
+    private static byte[] binary(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) (i * 31 + seed);
+        return data;
+    }
+
+    private static byte[] write(boolean streamMode, Object... objects) throws IOException {
+        Boss.Writer w = new Boss.Writer();
+        if (streamMode)
+            w.setStreamMode();
+        w.write(objects);
+        return w.toByteArray();
+    }
+
+    @Test
+    public void nextType() throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        map.put("key", 1);
+        Object[] objects = {0, -5, 1L << 40, BigInteger.ONE.shiftLeft(100), 0.0, 1.0, -1.0, 2.5, true, false,
+                new Date(1500000000000L), "", LONG_TEXT, binary(50, 1), Arrays.asList(1, 2), map, null,
+                LONG_TEXT, binary(50, 1)};
+        Boss.Type[] types = {Boss.Type.INT, Boss.Type.INT, Boss.Type.INT, Boss.Type.INT,
+                Boss.Type.DOUBLE, Boss.Type.DOUBLE, Boss.Type.DOUBLE, Boss.Type.DOUBLE,
+                Boss.Type.BOOLEAN, Boss.Type.BOOLEAN, Boss.Type.DATE, Boss.Type.TEXT, Boss.Type.TEXT,
+                Boss.Type.BINARY, Boss.Type.LIST, Boss.Type.MAP, Boss.Type.NULL,
+                Boss.Type.REFERENCE, Boss.Type.REFERENCE};
+        for (boolean streamMode : new boolean[]{false, true}) {
+            byte[] packed = write(streamMode, objects);
+            Boss.Reader expected = new Boss.Reader(packed);
+            Boss.Reader r = new Boss.Reader(packed);
+            for (int i = 0; i < objects.length; i++) {
+                Boss.Type type = types[i];
+                // the stream mode writer repeats objects instead of referencing
+                if (streamMode && i >= objects.length - 2)
+                    type = i == objects.length - 1 ? Boss.Type.BINARY : Boss.Type.TEXT;
+                assertEquals("object " + i, type, r.nextType());
+                // type does not move the reader
+                assertEquals(type, r.nextType());
+                assertEquals(expected.<Object>read(), r.read());
+            }
+        }
+    }
+
+    @Test
+    public void readBinaryInto() throws Exception {
+        byte[] first = binary(100, 1);
+        byte[] second = binary(10, 2);
+        for (boolean streamMode : new boolean[]{false, true}) {
+            byte[] packed = write(streamMode, first, null, first, Arrays.asList(first), second);
+            Boss.Reader r = new Boss.Reader(packed);
+            byte[] target = new byte[110];
+            assertEquals(100, r.readBinaryInto(target, 10));
+            assertArrayEquals(first, Arrays.copyOfRange(target, 10, 110));
+            // the reader keeps its own copy
+            Arrays.fill(target, (byte) 0);
+            assertEquals(-1, r.readBinaryInto(target, 0));
+            assertEquals(100, r.readBinaryInto(target, 0));
+            assertArrayEquals(first, Arrays.copyOf(target, 100));
+            assertEquals(Arrays.asList(new Bytes(first)), r.read());
+            try {
+                r.readBinaryInto(target, 101);
+                fail("binary does not fit");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void readStringAscii() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append("key").append(i);
+        String longAscii = sb.toString();
+        String unicode = "\u043a\u043b\u044e\u0447 \u00e9\ud83d\ude00";
+        String[] texts = {"", "id", longAscii, unicode, "short", LONG_TEXT, LONG_TEXT, unicode, null};
+        for (boolean streamMode : new boolean[]{false, true}) {
+            Boss.Reader r = new Boss.Reader(write(streamMode, (Object[]) texts));
+            for (String text : texts)
+                assertEquals(text, r.readStringAscii());
+        }
+        // texts read as ASCII are referenced later
+        Boss.Reader r = new Boss.Reader(write(false, LONG_TEXT, unicode, Arrays.asList(unicode, LONG_TEXT)));
+        assertEquals(LONG_TEXT, r.readStringAscii());
+        assertEquals(unicode, r.readStringAscii());
+        assertEquals(Arrays.asList(unicode, LONG_TEXT), r.read());
+    }
+
+    @Test
+    public void skipScalars() throws Exception {
+        Object[] objects = {0, -1, 1L << 60, BigInteger.ONE.shiftLeft(100).negate(), 0.0, 2.5, true, null,
+                new Date(1500000000000L), "", LONG_TEXT, binary(300, 3), Arrays.asList()};
+        for (boolean streamMode : new boolean[]{false, true}) {
+            Object[] withSentinels = new Object[objects.length * 2];
+            for (int i = 0; i < objects.length; i++) {
+                withSentinels[2 * i] = objects[i];
+                withSentinels[2 * i + 1] = i;
+            }
+            Boss.Reader r = new Boss.Reader(write(streamMode, withSentinels));
+            for (int i = 0; i < objects.length; i++) {
+                r.skipValue();
+                assertEquals(i, r.readInt());
+            }
+        }
+    }
+
+    @Test
+    public void skipContainers() throws Exception {
+        byte[] bin = binary(100, 4);
+        Map<String, Object> inner = new HashMap<>();
+        inner.put("inner key", "the inner text value");
+        inner.put("data", binary(80, 5));
+        List<Object> skipped = Arrays.asList(LONG_TEXT, bin, inner, Arrays.asList(1, Arrays.asList(2.5, null)));
+        for (boolean streamMode : new boolean[]{false, true}) {
+            byte[] packed = write(streamMode, skipped, LONG_TEXT, bin, "the inner text value", binary(80, 5),
+                                  "inner key", "after");
+            Boss.Reader r = new Boss.Reader(packed);
+            r.skipValue();
+            // in the tree mode these are references into the skipped tree
+            Boss.Type textType = streamMode ? Boss.Type.TEXT : Boss.Type.REFERENCE;
+            assertEquals(textType, r.nextType());
+            assertEquals(LONG_TEXT, r.read());
+            assertEquals(streamMode ? Boss.Type.BINARY : Boss.Type.REFERENCE, r.nextType());
+            assertEquals(new Bytes(bin), r.read());
+            assertEquals(textType, r.nextType());
+            assertEquals("the inner text value", r.read());
+            assertEquals(new Bytes(binary(80, 5)), r.read());
+            assertEquals("inner key", r.read());
+            assertEquals("after", r.read());
+        }
+
+        // stream mode marker inside the skipped list
+        byte[] marked = {Boss.TYPE_LIST | 2 << 3,
+                Boss.TYPE_TEXT | 1 << 3, 'a',
+                (byte) (Boss.TYPE_EXTRA | Boss.XT_STREAM_MODE << 3),
+                Boss.TYPE_TEXT | 1 << 3, 'b',
+                Boss.TYPE_INT | 7 << 3};
+        Boss.Reader r = new Boss.Reader(marked);
+        r.skipValue();
+        assertEquals(7, r.readInt());
+    }
+
+    @Test
+    public void referenceToSkippedContainer() throws Exception {
+        List<Object> sharedList = Arrays.asList(LONG_TEXT, 1);
+        Map<String, Object> sharedMap = new HashMap<>();
+        sharedMap.put("key", "value");
+        for (Object shared : new Object[]{sharedList, sharedMap}) {
+            Boss.Writer w = new Boss.Writer();
+            w.write(shared, shared, Arrays.asList(shared));
+            byte[] packed = w.toByteArray();
+            Boss.Reader r = new Boss.Reader(packed);
+            r.skipValue();
+            assertEquals(Boss.Type.REFERENCE, r.nextType());
+            try {
+                r.read();
+                fail("reference to the skipped object is resolved");
+            } catch (IOException e) {
+                assertEquals("Boss: reference to the skipped object", e.getMessage());
+            }
+            // the same reference nested
+            r = new Boss.Reader(packed);
+            r.skipValue();
+            r.skipValue();
+            try {
+                r.read();
+                fail("reference to the skipped object is resolved");
+            } catch (IOException e) {
+                assertEquals("Boss: reference to the skipped object", e.getMessage());
+            }
+            // read objects are still resolved
+            r = new Boss.Reader(packed);
+            Object first = r.read();
+            r.skipValue();
+            List<Object> last = r.read();
+            assertEquals(shared, first);
+            assertEquals(first, last.get(0));
+        }
+        assertNull(new Boss.Reader(Boss.pack(null)).read());
+    }
+}
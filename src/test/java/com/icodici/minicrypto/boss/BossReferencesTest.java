@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writer references must point to the same cache indices the {@link Boss.Reader} assigns, whatever objects the writer
+ * remembers, repeats or references.
+ */
+public class BossReferencesTest {
+
+    private static byte[] write(Boss.CacheMode mode, int maxEntries, Object object) throws Exception {
+        Boss.Writer w = new Boss.Writer().setCacheMode(mode, maxEntries);
+        w.writeObject(object);
+        return w.toByteArray();
+    }
+
+    private static byte[] write(Boss.CacheMode mode, Object object) throws Exception {
+        return write(mode, Boss.DEFAULT_CACHE_ENTRIES, object);
+    }
+
+    /**
+     * Tree with repeated texts, binaries, map keys and the shared list.
+     */
+    private static List<Object> tree(int distinct) {
+        List<Object> shared = new ArrayList<>(Arrays.asList("shared", 1, 2));
+        List<Object> tree = new ArrayList<>();
+        for (int i = 0; i < distinct; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("name", "item" + i);
+            item.put("tag", new byte[]{(byte) (i % 3)});
+            item.put("group", "group" + (i % 7));
+            item.put("shared", shared);
+            tree.add(item);
+        }
+        tree.add(shared);
+        return tree;
+    }
+
+    private static void assertSharedDecoded(List<Object> decoded) {
+        Object shared = decoded.get(decoded.size() - 1);
+        for (int i = 0; i < decoded.size() - 1; i++)
+            assertSame(shared, ((Map<?, ?>) decoded.get(i)).get("shared"));
+    }
+
+    /**
+     * Decoded tree with binaries as they are written, to compare with the source.
+     */
+    private static List<Object> expected(int distinct) {
+        List<Object> tree = tree(distinct);
+        for (Object x : tree) {
+            if (x instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> item = (Map<String, Object>) x;
+                item.put("tag", new Bytes((byte[]) item.get("tag")));
+            }
+        }
+        return tree;
+    }
+
+    @Test
+    public void contentMode() throws Exception {
+        for (int distinct : new int[]{1, 10, 30, 300, 3000}) {
+            byte[] packed = write(Boss.CacheMode.CONTENT, tree(distinct));
+            List<Object> decoded = Boss.load(packed);
+            assertEquals(expected(distinct), decoded);
+            assertSharedDecoded(decoded);
+            assertTrue(packed.length < write(Boss.CacheMode.NONE, tree(distinct)).length);
+        }
+    }
+
+    @Test
+    public void shortTextRepeatedInsteadOfReference() throws Exception {
+        List<Object> list = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            list.add("text" + i);
+        list.add("a");
+        list.add("");
+        list.add(new byte[0]);
+        byte[] before = write(Boss.CacheMode.CONTENT, list);
+
+        // all have indices bigger than 255, their references take 3 bytes, so texts are repeated
+        list.add("a");
+        list.add("");
+        list.add(new byte[0]);
+        byte[] after = write(Boss.CacheMode.CONTENT, list);
+        assertEquals(2 + 1 + 1, after.length - before.length);
+
+        // repeated texts take indices too, so references after them still match
+        List<Object> shared = Arrays.<Object>asList("x", "y");
+        list.add(shared);
+        list.add("text0");
+        list.add("text299");
+        list.add(shared);
+        List<Object> decoded = Boss.load(write(Boss.CacheMode.CONTENT, list));
+        assertEquals(list.size(), decoded.size());
+        for (int i = 0; i < list.size(); i++) {
+            Object x = list.get(i);
+            assertEquals(x instanceof byte[] ? new Bytes((byte[]) x) : x, decoded.get(i));
+        }
+        assertSame(decoded.get(decoded.size() - 1), decoded.get(decoded.size() - 4));
+    }
+
+    @Test
+    public void fullCache() throws Exception {
+        for (int maxEntries : new int[]{1, 4, 6}) {
+            byte[] packed = write(Boss.CacheMode.CONTENT, maxEntries, tree(300));
+            List<Object> decoded = Boss.load(packed);
+            assertEquals(expected(300), decoded);
+            assertTrue(packed.length > write(Boss.CacheMode.CONTENT, tree(300)).length);
+        }
+        // the shared list is the 6th object written, so it is remembered before the cache fills up
+        assertSharedDecoded(Boss.<List<Object>>load(write(Boss.CacheMode.CONTENT, 6, tree(300))));
+        // all repeated objects fit, so the output is the same as with the default size
+        assertEquals(write(Boss.CacheMode.CONTENT, tree(300)).length,
+                     write(Boss.CacheMode.CONTENT, 100, tree(300)).length);
+    }
+
+    @Test
+    public void identityMode() throws Exception {
+        String text = "some text";
+        String copy = new String(text);
+        List<Object> list = Arrays.<Object>asList(text, copy, text);
+        byte[] identity = write(Boss.CacheMode.IDENTITY, list);
+        assertEquals(list, Boss.load(identity));
+        // the copy is written again, the same instance is referenced
+        assertEquals(write(Boss.CacheMode.CONTENT, Arrays.asList(text, "other one", text)).length, identity.length);
+
+        List<Object> decoded = Boss.load(write(Boss.CacheMode.IDENTITY, tree(50)));
+        assertEquals(expected(50), decoded);
+        assertSharedDecoded(decoded);
+    }
+
+    @Test
+    public void noneMode() throws Exception {
+        List<Object> decoded = Boss.load(write(Boss.CacheMode.NONE, tree(50)));
+        assertEquals(expected(50), decoded);
+        assertNotSame(decoded.get(50), ((Map<?, ?>) decoded.get(0)).get("shared"));
+    }
+
+    @Test
+    public void referencesAcrossObjects() throws Exception {
+        List<Object> first = tree(20);
+        List<Object> second = tree(20);
+        second.add(first.get(first.size() - 1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        w.writeObject(first);
+        w.writeObject(second);
+        Boss.Reader r = new Boss.Reader(out.toByteArray());
+        List<Object> a = r.read();
+        List<Object> b = r.read();
+        assertEquals(expected(20), a);
+        assertSame(a.get(a.size() - 1), b.get(b.size() - 1));
+
+        // after reset the writer starts over, like a new reader
+        ByteArrayOutputStream more = new ByteArrayOutputStream();
+        w = new Boss.Writer(more);
+        w.writeObject(second);
+        w.reset();
+        w.writeObject(second);
+        byte[] data = more.toByteArray();
+        byte[] one = Boss.pack(second);
+        assertEquals(2 * one.length, data.length);
+        assertEquals(Boss.<Object>load(one), Boss.<Object>load(Arrays.copyOfRange(data, one.length, data.length)));
+    }
+
+    @Test
+    public void streamMode() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Boss.Writer w = new Boss.Writer(out);
+        w.writeObject(tree(10));
+        w.setStreamMode();
+        w.writeObject(tree(10));
+        w.writeObject("after");
+        Boss.Reader r = new Boss.Reader(out.toByteArray());
+        assertSharedDecoded(r.<List<Object>>read());
+        List<Object> streamed = r.read();
+        assertEquals(expected(10), streamed);
+        assertNotSame(streamed.get(10), ((Map<?, ?>) streamed.get(0)).get("shared"));
+        assertEquals("after", r.read());
+    }
+}
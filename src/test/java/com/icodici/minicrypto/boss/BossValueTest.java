@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.boss;
+
+import com.icodici.minicrypto.utils.Bytes;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BossValueTest {
+
+    private static Map<String, Object> tree() {
+        List<Object> shared = new ArrayList<>(Arrays.asList("shared", 1, 2));
+        Map<String, Object> tree = new HashMap<>();
+        tree.put("shared", shared);
+        tree.put("again", shared);
+        tree.put("text", "some text");
+        tree.put("same text", "some text");
+        tree.put("binary", new byte[]{1, 2, 3});
+        tree.put("numbers", Arrays.asList(0, -1, 1000, 1L << 40, -(1L << 50),
+                                          BigInteger.ONE.shiftLeft(100), 2.5, -1.0, 0.0));
+        tree.put("flags", Arrays.asList(true, false, null));
+        tree.put("unicode", "\u0442\u0435\u043a\u0441\u0442 \ud83d\ude00");
+        List<Object> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("name", "item" + i);
+            item.put("group", "group" + (i % 3));
+            item.put("shared", shared);
+            items.add(item);
+        }
+        tree.put("items", items);
+        return tree;
+    }
+
+    /**
+     * Encoded map with the given keys and values in this order, possibly repeated.
+     */
+    private static byte[] rawMap(Object... keysAndValues) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = keysAndValues.length / 2;
+        assertTrue(count <= 22);
+        out.write(Boss.TYPE_DICT | count << 3);
+        for (Object x : keysAndValues) {
+            Boss.Writer w = new Boss.Writer(out).setCacheMode(Boss.CacheMode.NONE);
+            w.writeObject(x);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void loadSameAsBoss() throws Exception {
+        byte[] packed = Boss.pack(tree());
+        Map<String, Object> expected = Boss.load(packed);
+        assertEquals(expected, BossValue.of(packed).load());
+        // lazy views are equal as maps and lists too
+        assertEquals(expected, BossValue.of(packed).get());
+
+        // the object in the middle of the buffer, heap and direct
+        byte[] padded = new byte[packed.length + 10];
+        System.arraycopy(packed, 0, padded, 7, packed.length);
+        ByteBuffer heap = ByteBuffer.wrap(padded, 7, packed.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+        direct.put(padded).position(7);
+        for (ByteBuffer buffer : new ByteBuffer[]{heap, heap.slice(), direct}) {
+            int position = buffer.position();
+            assertEquals(expected, BossValue.of(buffer).load());
+            assertEquals(expected, BossValue.of(buffer).get());
+            assertEquals(position, buffer.position());
+        }
+    }
+
+    @Test
+    public void referencesResolveToSameInstances() throws Exception {
+        BossMapView map = BossValue.of(Boss.pack(tree())).asMap();
+        assertSame(map.get("shared"), map.get("again"));
+        assertSame(map.get("text"), map.get("same text"));
+        BossListView items = (BossListView) map.get("items");
+        for (Object item : items)
+            assertSame(map.get("shared"), ((Map<?, ?>) item).get("shared"));
+        assertSame(((Map<?, ?>) items.get(0)).get("group"), ((Map<?, ?>) items.get(3)).get("group"));
+        assertTrue(map.getValue("again").isList());
+
+        Map<String, Object> loaded = BossValue.of(Boss.pack(tree())).load();
+        assertSame(loaded.get("shared"), loaded.get("again"));
+        assertSame(loaded.get("shared"), ((Map<?, ?>) ((List<?>) loaded.get("items")).get(10)).get("shared"));
+
+        // the list that contains itself
+        byte[] selfReferencing = {Boss.TYPE_LIST | 2 << 3, Boss.TYPE_CREF | 1 << 3, Boss.TYPE_CREF};
+        BossListView list = BossValue.of(selfReferencing).asList();
+        assertSame(list, list.get(0));
+        assertNull(list.get(1));
+        List<?> loadedList = BossValue.of(selfReferencing).load();
+        assertSame(loadedList, loadedList.get(0));
+        List<?> bossList = Boss.load(selfReferencing);
+        assertSame(bossList, bossList.get(0));
+    }
+
+    @Test
+    public void badReferences() throws Exception {
+        byte[][] broken = {
+                {Boss.TYPE_CREF | 1 << 3},
+                {Boss.TYPE_LIST | 2 << 3, Boss.TYPE_TEXT | 1 << 3, 'a', Boss.TYPE_CREF | 3 << 3},
+                {(byte) (Boss.TYPE_CREF | 23 << 3), (byte) 200},
+        };
+        for (byte[] data : broken) {
+            try {
+                BossValue value = BossValue.of(data);
+                if (value.isList())
+                    value.asList().get(1);
+                else
+                    value.get();
+                fail("bad reference is accepted: " + new Bytes(data).toHex());
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            try {
+                BossValue.of(data).load();
+                fail("bad reference is accepted: " + new Bytes(data).toHex());
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    @Test
+    public void duplicateKeys() throws Exception {
+        // small map is scanned, big one uses the hash index
+        List<byte[]> maps = Arrays.asList(
+                rawMap("a", 1, "b", 2, "a", 3),
+                rawMap("k0", 0, "k1", 1, "k2", 2, "k3", 3, "k4", 4, "k5", 5, "k6", 6, "k7", 7, "k8", 8, "a", 1,
+                       "b", 2, "a", 3));
+        for (byte[] data : maps) {
+            Map<Object, Object> expected = Boss.load(data);
+            assertEquals(3, expected.get("a"));
+            BossMapView view = BossValue.of(data).asMap();
+            assertEquals(3, view.get("a"));
+            assertEquals(3, view.getValue("a").<Object>get());
+            assertEquals(2, view.get("b"));
+            assertTrue(view.containsKey("a"));
+            assertFalse(view.containsKey("c"));
+            assertNull(view.get("c"));
+            assertNull(view.getValue("c"));
+            assertEquals(expected, BossValue.of(data).load());
+        }
+    }
+
+    @Test
+    public void streamModeDocument() throws Exception {
+        Boss.Writer w = new Boss.Writer();
+        w.setStreamMode();
+        w.writeObject(tree());
+        byte[] packed = w.toByteArray();
+        Map<String, Object> expected = Boss.load(packed);
+        assertEquals(Boss.<Object>load(Boss.pack(tree())), expected);
+
+        BossValue value = BossValue.of(packed);
+        assertTrue(value.isMap());
+        assertEquals(expected, value.load());
+        BossMapView map = value.asMap();
+        assertEquals(expected, map);
+        assertEquals("some text", map.get("same text"));
+        assertEquals(new Bytes(new byte[]{1, 2, 3}), map.get("binary"));
+        assertEquals(Arrays.asList("shared", 1, 2), ((Map<?, ?>) ((List<?>) map.get("items")).get(49)).get("shared"));
+
+        // the stream mode started before the previous object
+        w = new Boss.Writer();
+        w.setStreamMode();
+        w.writeObject("first");
+        w.writeObject(Arrays.asList("x", "x"));
+        packed = w.toByteArray();
+        assertEquals("first", BossValue.of(packed).get());
+    }
+
+    @Test
+    public void listView() throws Exception {
+        List<Object> source = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            source.add(i % 2 == 0 ? "text" + i : Arrays.asList(i, "nested" + i));
+        BossListView list = BossValue.of(Boss.pack(source)).asList();
+        assertEquals(100, list.size());
+        // random order access
+        assertEquals(Arrays.asList(99, "nested99"), list.get(99));
+        assertEquals("text0", list.get(0));
+        assertEquals("text50", list.getValue(50).get());
+        assertTrue(list.getValue(51).isList());
+        assertEquals(source, list);
+        try {
+            list.get(100);
+            fail("no bounds check");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            BossValue.of(Boss.pack("text")).asList();
+            fail("text is a list");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
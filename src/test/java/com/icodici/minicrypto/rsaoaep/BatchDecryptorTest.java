@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 Sergey Chernov, iCodici S.n.C, All Rights Reserved
+ *
+ * Written by Sergey Chernov <real.net.sergeych@gmail.com>, August 2017.
+ *
+ */
+
+package com.icodici.minicrypto.rsaoaep;
+
+import com.icodici.minicrypto.EncryptionError;
+import com.icodici.minicrypto.HashType;
+import com.icodici.minicrypto.rsaoaep.scrsa.RSAPrivateCrtKeyContext;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BatchDecryptorTest {
+
+    private static RSAOAEPPrivateKey[] keys;
+
+    @BeforeClass
+    public static void generateKeys() {
+        keys = new RSAOAEPPrivateKey[2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new RSAOAEPPrivateKey();
+            keys[i].generate(2048, i == 0 ? HashType.SHA1 : HashType.SHA256);
+        }
+    }
+
+    private static byte[] decrypt(RSAOAEPPrivateKey key, byte[] ciphertext) {
+        try {
+            return key.decrypt(ciphertext);
+        } catch (EncryptionError | RuntimeException e) {
+            // OAEPEncoding could fail on corrupted blocks with ArrayIndexOutOfBoundsException
+            return null;
+        }
+    }
+
+    @Test
+    public void sameAsDecrypt() throws Exception {
+        Random random = new Random(1);
+        int count = 3 * RSAOAEPPrivateKey.BATCH_CHUNK_SIZE + 5;
+        for (RSAOAEPPrivateKey key : keys) {
+            RSAOAEPPublicKey publicKey = (RSAOAEPPublicKey) key.getPublicKey();
+            List<byte[]> plaintexts = new ArrayList<>();
+            List<byte[]> ciphertexts = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                byte[] plaintext = new byte[random.nextInt(200)];
+                random.nextBytes(plaintext);
+                byte[] ciphertext = publicKey.encrypt(plaintext);
+                switch (i % 9) {
+                    case 1:
+                        ciphertext[ciphertext.length - 1] ^= 1;
+                        plaintext = null;
+                        break;
+                    case 4:
+                        ciphertext = Arrays.copyOf(ciphertext, ciphertext.length - 1);
+                        plaintext = null;
+                        break;
+                    case 7:
+                        random.nextBytes(ciphertext);
+                        ciphertext[0] = 0;
+                        plaintext = null;
+                        break;
+                    case 8:
+                        if (i % 2 == 0) {
+                            ciphertext = new byte[0];
+                            plaintext = null;
+                        }
+                        break;
+                }
+                plaintexts.add(plaintext);
+                ciphertexts.add(ciphertext);
+            }
+            // the pooled decryptors are reused by the next batch
+            for (int pass = 0; pass < 2; pass++) {
+                List<byte[]> results = key.decryptAll(ciphertexts);
+                assertEquals(count, results.size());
+                for (int i = 0; i < count; i++) {
+                    assertArrayEquals("ciphertext " + i, plaintexts.get(i), results.get(i));
+                    assertArrayEquals("ciphertext " + i, decrypt(key, ciphertexts.get(i)), results.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void oversizedCiphertexts() throws Exception {
+        RSAOAEPPrivateKey key = keys[0];
+        byte[] valid = key.getPublicKey().encrypt(new byte[]{1, 2, 3});
+        byte[] tooLong = new byte[valid.length + 1];
+        System.arraycopy(valid, 0, tooLong, 1, valid.length);
+        tooLong[0] = 1;
+        byte[] aboveModulus = new byte[valid.length];
+        Arrays.fill(aboveModulus, (byte) 0xFF);
+        List<byte[]> results = key.decryptAll(Arrays.asList(tooLong, valid, aboveModulus, valid));
+        assertNull(results.get(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, results.get(1));
+        assertNull(results.get(2));
+        assertArrayEquals(new byte[]{1, 2, 3}, results.get(3));
+        assertEquals(Collections.emptyList(), key.decryptAll(Collections.emptyList()));
+    }
+
+    @Test
+    public void blindingFactors() throws Exception {
+        RSAPrivateCrtKeyContext context = (RSAPrivateCrtKeyContext) keys[1].state.keyParameters;
+        BigInteger n = context.getModulus();
+        BigInteger e = context.getPublicExponent();
+        SecureRandom rng = new SecureRandom();
+        for (int count : new int[]{1, 2, RSAOAEPPrivateKey.BATCH_CHUNK_SIZE}) {
+            BigInteger[][] factors = BatchDecryptor.blindingFactors(count, context, rng);
+            assertEquals(count, factors[0].length);
+            assertEquals(count, factors[1].length);
+            for (int i = 0; i < count; i++) {
+                // r^e * (r^-1)^e = 1
+                assertNotNull(factors[0][i]);
+                assertEquals(BigInteger.ONE, factors[0][i].multiply(factors[1][i].modPow(e, n)).mod(n));
+            }
+        }
+    }
+}
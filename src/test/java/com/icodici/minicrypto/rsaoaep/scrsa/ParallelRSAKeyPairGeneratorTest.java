@@ -0,0 +1,122 @@
+package com.icodici.minicrypto.rsaoaep.scrsa;
+
+import com.icodici.minicrypto.HashType;
+import com.icodici.minicrypto.PrivateKey;
+import com.icodici.minicrypto.PublicKey;
+import org.junit.Test;
+import org.spongycastle.crypto.AsymmetricCipherKeyPair;
+import org.spongycastle.crypto.params.RSAKeyGenerationParameters;
+import org.spongycastle.crypto.params.RSAKeyParameters;
+import org.spongycastle.crypto.params.RSAPrivateCrtKeyParameters;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelRSAKeyPairGeneratorTest {
+
+    private static final BigInteger E = BigInteger.valueOf(65537);
+
+    private static void assertValid(AsymmetricCipherKeyPair keyPair, int strength) {
+        RSAKeyParameters pub = (RSAKeyParameters) keyPair.getPublic();
+        RSAPrivateCrtKeyParameters key = (RSAPrivateCrtKeyParameters) keyPair.getPrivate();
+        BigInteger n = key.getModulus();
+        BigInteger p = key.getP();
+        BigInteger q = key.getQ();
+        BigInteger d = key.getExponent();
+        assertEquals(strength, n.bitLength());
+        assertEquals(n, pub.getModulus());
+        assertEquals(E, pub.getExponent());
+        assertEquals(E, key.getPublicExponent());
+        assertEquals(n, p.multiply(q));
+        assertTrue(p.isProbablePrime(64));
+        assertTrue(q.isProbablePrime(64));
+        assertTrue(p.compareTo(q) > 0);
+        assertTrue(p.subtract(q).bitLength() > strength / 3);
+        BigInteger pSub1 = p.subtract(BigInteger.ONE);
+        BigInteger qSub1 = q.subtract(BigInteger.ONE);
+        assertEquals(BigInteger.ONE, E.multiply(d).mod(pSub1));
+        assertEquals(BigInteger.ONE, E.multiply(d).mod(qSub1));
+        assertTrue(d.bitLength() > strength / 2);
+        assertEquals(d.mod(pSub1), key.getDP());
+        assertEquals(d.mod(qSub1), key.getDQ());
+        assertEquals(BigInteger.ONE, key.getQInv().multiply(q).mod(p));
+        BigInteger m = new BigInteger(strength - 1, new SecureRandom());
+        assertEquals(m, m.modPow(E, n).modPow(d, n));
+    }
+
+    private static AsymmetricCipherKeyPair generate(ParallelRSAKeyPairGenerator generator, int strength) {
+        generator.init(new RSAKeyGenerationParameters(E, new SecureRandom(), strength, 20));
+        return generator.generateKeyPair();
+    }
+
+    @Test
+    public void validKeys() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int parallelism : new int[]{1, 4}) {
+                ParallelRSAKeyPairGenerator generator = new ParallelRSAKeyPairGenerator(executor, parallelism);
+                for (int strength : new int[]{1024, 1536, 2048}) {
+                    AsymmetricCipherKeyPair first = generate(generator, strength);
+                    assertValid(first, strength);
+                    AsymmetricCipherKeyPair second = generate(generator, strength);
+                    assertValid(second, strength);
+                    assertFalse(((RSAKeyParameters) first.getPublic()).getModulus()
+                                        .equals(((RSAKeyParameters) second.getPublic()).getModulus()));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertValid(generate(new ParallelRSAKeyPairGenerator(), 2048), 2048);
+    }
+
+    @Test
+    public void busyExecutor() throws Exception {
+        // the executor never runs searchers, the calling thread finds both primes
+        Executor stalled = command -> {
+        };
+        assertValid(generate(new ParallelRSAKeyPairGenerator(stalled, 8), 2048), 2048);
+        try {
+            new ParallelRSAKeyPairGenerator(stalled, 0);
+            fail("zero parallelism is accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void privateKeyRoundTrip() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            PrivateKey key = new PrivateKey(2048, executor, 3);
+            PublicKey publicKey = key.getPublicKey();
+            assertEquals(2048, publicKey.getBitStrength());
+
+            byte[] plaintext = "the parallel generated key".getBytes();
+            assertArrayEquals(plaintext, key.decrypt(publicKey.encrypt(plaintext)));
+
+            for (HashType hashType : new HashType[]{HashType.SHA256, HashType.SHA512}) {
+                byte[] signature = key.sign(plaintext, hashType);
+                assertTrue(publicKey.verify(plaintext, signature, hashType));
+                signature[10] ^= 1;
+                assertFalse(publicKey.verify(plaintext, signature, hashType));
+            }
+
+            PrivateKey unpacked = new PrivateKey(key.pack());
+            assertEquals(key, unpacked);
+            assertArrayEquals(plaintext, unpacked.decrypt(publicKey.encrypt(plaintext)));
+            assertTrue(publicKey.verify(plaintext, unpacked.sign(plaintext, HashType.SHA3_256), HashType.SHA3_256));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}